@@ -0,0 +1,190 @@
+package billboard.control_panel;
+
+import billboard.server.ControlPanelRequests;
+import billboard.server.MessageType;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * Table model of every billboard on the server, loaded a page at a time as the table asks for rows. A JTable only asks
+ * for the rows it is painting, so with thousands of billboards only the pages up to the furthest row scrolled to are
+ * ever fetched. Pages are fetched by the name of the last billboard held (see Database.listBillboardPage), so each
+ * costs the server the same however far down the list it is; a jump far down the list fetches larger pages to get
+ * there in fewer requests.
+ * <p>
+ * Rows not yet loaded show as "Loading...". Thumbnails come from a ThumbnailCache and appear as they arrive.
+ * Everything except the fetching itself happens on the event dispatch thread.
+ */
+public class BillboardListModel extends AbstractTableModel {
+    static private final int PAGE_SIZE = 100;
+    static private final String[] COLUMNS = {"Preview", "Name", "Creator"};
+
+    private final Client client;
+    private final String sessionToken;
+    private final ThumbnailCache thumbnails;
+    private final ExecutorService loader;
+
+    // Only used on the event dispatch thread
+    private final List<String[]> rows = new ArrayList<>();  // Name and creator of each billboard loaded
+    private int total = 0;              // Number of billboards, as last reported by the server
+    private int wanted = 0;             // Number of rows the table has asked for
+    private boolean loading = false;
+    private boolean ended = false;      // The last page has been loaded
+
+
+    /**
+     * Creates the model and starts loading the first page.
+     * @param host Host name of the billboard server.
+     * @param port Port of the billboard server.
+     * @param sessionToken The token given at login.
+     * @param thumbnails Cache to take thumbnails from.
+     */
+    public BillboardListModel(String host, int port, String sessionToken, ThumbnailCache thumbnails) {
+        this.client = new Client(host, port);
+        this.sessionToken = sessionToken;
+        this.thumbnails = thumbnails;
+        loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "billboard-list-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        want(1);
+    }
+
+
+    /**
+     * Stops loading, when the list is closed.
+     */
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+
+
+    @Override
+    public int getRowCount() {
+        return total;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 0 ? Icon.class : String.class;
+    }
+
+
+    /**
+     * Gets a cell, starting to load its page or thumbnail if it is not held.
+     */
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (row >= rows.size()) {
+            want(row + 1);
+            return column == 1 ? "Loading..." : null;
+        }
+        String[] billboard = rows.get(row);
+        if (column == 0) {
+            return thumbnails.get(billboard[0], name -> thumbnailFetched(row, name));
+        }
+        return billboard[column - 1];
+    }
+
+
+    /**
+     * @param row A row index.
+     * @return Name of the billboard in the row, or null if it is not loaded yet.
+     */
+    public String getBillboardName(int row) {
+        return row < rows.size() ? rows.get(row)[0] : null;
+    }
+
+
+    /**
+     * Makes sure the first rows are loaded, starting a fetch if one is not already running.
+     */
+    private void want(int rowCount) {
+        wanted = Math.max(wanted, rowCount);
+        if (!loading && !ended && rows.size() < wanted) {
+            loadNextPage();
+        }
+    }
+
+
+    private void loadNextPage() {
+        loading = true;
+        String after = rows.isEmpty() ? "" : rows.get(rows.size() - 1)[0];
+        int limit = Math.min(ControlPanelRequests.MAX_PAGE_SIZE, Math.max(PAGE_SIZE, wanted - rows.size()));
+        try {
+            loader.execute(() -> {
+                List<String[]> page = new ArrayList<>(limit);
+                int newTotal = -1;
+                try {
+                    MessageType response = client.listBillboardPage(sessionToken, after, limit);
+                    if (response == MessageType.OK) {
+                        newTotal = client.getResponse().getInt();
+                        int count = client.getResponse().getInt();
+                        for (int i = 0; i < count; i++) {
+                            page.add(new String[] {client.getResponse().getString(),
+                                    client.getResponse().getString()});
+                        }
+                    } else if (response == MessageType.ERROR) {
+                        System.err.println("Unable to list billboards: " + client.getResponse().getString());
+                    }
+                } catch (IOException e) {
+                    System.err.println("Unable to list billboards: " + e.getMessage());
+                }
+                int reportedTotal = newTotal;
+                SwingUtilities.invokeLater(() -> pageLoaded(page, reportedTotal, limit));
+            });
+        } catch (RejectedExecutionException e) {
+            // Shut down
+            loading = false;
+        }
+    }
+
+
+    /**
+     * Adds a page to the rows held, and carries on loading if the table has asked for rows further down.
+     * @param reportedTotal Number of billboards the server reported, or -1 if the page could not be loaded.
+     */
+    private void pageLoaded(List<String[]> page, int reportedTotal, int limit) {
+        loading = false;
+        if (reportedTotal < 0) {
+            return;     // Tried again when the table next asks for the rows
+        }
+        rows.addAll(page);
+        ended = page.size() < limit;
+        // Billboards may have been added or deleted since the last page
+        int newTotal = ended ? rows.size() : Math.max(reportedTotal, rows.size());
+        if (newTotal != total) {
+            total = newTotal;
+            fireTableDataChanged();
+        } else if (!page.isEmpty()) {
+            fireTableRowsUpdated(rows.size() - page.size(), rows.size() - 1);
+        }
+        want(0);
+    }
+
+
+    private void thumbnailFetched(int row, String name) {
+        if (row < rows.size() && rows.get(row)[0].equals(name)) {
+            fireTableCellUpdated(row, 0);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package billboard.control_panel;
+
+import billboard.viewer.BillboardContent;
+import billboard.viewer.BillboardDisplay;
+import billboard.viewer.BillboardIO;
+import billboard.viewer.BillboardLayout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * Live preview of a billboard being designed: a BillboardDisplay laid out at a scaled down copy of the screen size,
+ * rebuilt as the billboard is edited.
+ * <p>
+ * Edits are debounced, so a burst of typing is laid out once when the user pauses rather than on every keystroke, and
+ * the layout is prepared on a background thread so the form never stalls. Only what an edit changes is worked out
+ * again: the picture is only fetched and decoded when its URL or data changes, font fitting is memoized by text and
+ * box (see FontFitter) so editing the information text does not measure the message again, and a change of colour
+ * reuses the cached render plan and scaled picture. The display itself is then built on the event dispatch thread,
+ * which needs no IO or measurement.
+ */
+public class BillboardPreview extends JPanel {
+    static private final int DEBOUNCE_MS = 200;
+    static private final int MARGIN = 10;
+
+    private final Dimension displaySize;
+    private final Timer debounce;
+    private final ExecutorService worker;
+    private BillboardContent pending;       // Latest edit not yet laid out. Only used on the event dispatch thread
+    private int generation = 0;             // Incremented for every layout started. Only used on the EDT
+    private BillboardDisplay display;
+
+    // Only used on the worker thread
+    private String pictureSource;           // URL or data of the picture last decoded
+    private Image picture;
+
+
+    /**
+     * Creates an empty preview.
+     * @param size Size of the preview. The billboard is shown at the largest size with the screen's proportions that
+     *             fits inside it.
+     */
+    public BillboardPreview(Dimension size) {
+        super(new GridBagLayout());
+        setPreferredSize(size);
+        setBackground(Color.gray);
+
+        Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+        double scale = Math.min((size.width - 2.0 * MARGIN) / screen.width,
+                (size.height - 2.0 * MARGIN) / screen.height);
+        displaySize = new Dimension((int) (screen.width * scale), (int) (screen.height * scale));
+
+        debounce = new Timer(DEBOUNCE_MS, e -> startLayout());
+        debounce.setRepeats(false);
+        worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "billboard-preview");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Shows an edited billboard once the user stops editing for a moment. Must be called on the event dispatch thread.
+     * @param content The billboard as it now stands.
+     */
+    public void update(BillboardContent content) {
+        pending = content;
+        debounce.restart();
+    }
+
+
+    /**
+     * Stops the background thread, when the form is closed.
+     */
+    public void dispose() {
+        debounce.stop();
+        worker.shutdownNow();
+    }
+
+
+    /**
+     * @return Size the billboard is laid out at.
+     */
+    public Dimension getDisplaySize() {
+        return new Dimension(displaySize);
+    }
+
+
+    /**
+     * Starts laying out the latest edit in the background.
+     */
+    private void startLayout() {
+        BillboardContent content = pending;
+        int layoutGeneration = ++generation;
+        if (content == null || !(content.hasMessage() || content.hasPicture() || content.hasInformation())) {
+            show(null);
+            return;
+        }
+        try {
+            worker.execute(() -> {
+                BillboardLayout layout = new BillboardLayout(content, getPicture(content), displaySize);
+                SwingUtilities.invokeLater(() -> {
+                    // A later edit may already be on screen or on its way
+                    if (layoutGeneration == generation) {
+                        show(new BillboardDisplay(layout));
+                    }
+                });
+            });
+        } catch (RejectedExecutionException ignored) {
+            // Disposed
+        }
+    }
+
+
+    /**
+     * Gets the decoded picture, fetching or decoding it only if it has changed since the last layout.
+     * @return The picture, or null if there is none or it cannot be loaded.
+     */
+    private Image getPicture(BillboardContent content) {
+        String source = content.getPictureUrl() != null ? content.getPictureUrl() : content.getPictureData();
+        if (source == null) {
+            return null;
+        }
+        if (!source.equals(pictureSource)) {
+            pictureSource = source;
+            picture = null;
+            if (content.getPictureUrl() != null) {
+                try {
+                    picture = BillboardIO.getImageFromURL(new URL(source));
+                } catch (Exception e) {
+                    System.err.println("Invalid url:\n" + source);
+                }
+            } else {
+                picture = BillboardIO.decodeImageFromBase64(source);
+            }
+        }
+        return picture;
+    }
+
+
+    /**
+     * Replaces the billboard on show. Must be called on the event dispatch thread.
+     * @param newDisplay The new billboard, or null to show nothing.
+     */
+    private void show(BillboardDisplay newDisplay) {
+        if (display != null) {
+            remove(display);
+        }
+        display = newDisplay;
+        if (display != null) {
+            add(display);
+        }
+        revalidate();
+        repaint();
+    }
+}
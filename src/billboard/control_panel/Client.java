@@ -1,23 +1,266 @@
 package billboard.control_panel;
 
+import billboard.server.BillboardRenderer;
+import billboard.server.ChunkedInputStream;
+import billboard.server.ChunkedOutputStream;
+import billboard.server.FrameReader;
+import billboard.server.FrameWriter;
+import billboard.server.MessageType;
+import billboard.server.Protocol;
+
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 
+/**
+ * Makes requests to the billboard server. Each request is sent on its own connection. The frame buffers are reused
+ * between requests, so a client must only be used by one thread at a time.
+ */
 public class Client {
-    public static void main(String[] args) throws IOException, InterruptedException {
-        Socket socket = new Socket("localhost", 8000);
-        OutputStream outputStream = socket.getOutputStream();
-        System.out.println("Connected to server");
-        Thread.sleep(5000);
+    static private final int TIMEOUT_MS = 5000;
+    static private final int BULK_TIMEOUT_MS = 300000;     // Imports and exports of many billboards
+
+    private final String host;
+    private final int port;
+    private final FrameWriter writer = new FrameWriter();
+    private final FrameReader reader = new FrameReader();
+
+    public Client(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+
+    /**
+     * Opens a connection to the server.
+     * @return The connected socket.
+     * @throws IOException If the server could not be reached.
+     */
+    public Socket connect() throws IOException {
+        return connect(TIMEOUT_MS);
+    }
+
+
+    /**
+     * Opens a connection to the server.
+     * @param readTimeoutMs How long to wait for each read from the server.
+     * @return The connected socket.
+     * @throws IOException If the server could not be reached.
+     */
+    private Socket connect(int readTimeoutMs) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), TIMEOUT_MS);
+        socket.setSoTimeout(readTimeoutMs);
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+
+    /**
+     * Starts building a request. Add the payload fields to the returned writer, then call send.
+     * @param type Type of the request.
+     * @return Writer for the request payload.
+     */
+    public FrameWriter request(MessageType type) {
+        return writer.begin(type);
+    }
+
+
+    /**
+     * Sends the request built with request() and reads the response.
+     * @return Type of the response. Its payload can be read from getResponse().
+     * @throws IOException If the request failed.
+     */
+    public MessageType send() throws IOException {
+        return send(TIMEOUT_MS);
+    }
+
+
+    private MessageType send(int readTimeoutMs) throws IOException {
+        try (Socket socket = connect(readTimeoutMs)) {
+            writer.writeTo(new BufferedOutputStream(socket.getOutputStream()));
+            return readResponse(new BufferedInputStream(socket.getInputStream()));
+        }
+    }
+
+
+    /**
+     * @return Reader holding the payload of the last response.
+     */
+    public FrameReader getResponse() {
+        return reader;
+    }
+
+
+    /**
+     * Requests the current billboard from the server.
+     * @param version Version token of the billboard already held, or an empty array if none.
+     * @return The type of the response from the server. The billboard itself is left unread in getResponse().
+     * @throws IOException If the request failed.
+     */
+    public MessageType requestCurrentBillboard(byte[] version) throws IOException {
+        request(MessageType.GET_CURRENT_BILLBOARD).putBytes(version);
+        return send();
+    }
+
 
-        InputStream inputStream = socket.getInputStream();
-        BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
-        System.out.println(inputStream.read());
+    /**
+     * Gets the version token of the billboard the server is currently showing.
+     * @return The version token, or an empty array if the server has no current billboard.
+     * @throws IOException If the request failed.
+     */
+    public byte[] getCurrentBillboardVersion() throws IOException {
+        if (requestCurrentBillboard(new byte[0]) == MessageType.OK) {
+            return reader.getBytes();
+        }
+        return new byte[0];
+    }
+
+
+    /**
+     * Logs in. The password is hashed before it is sent, so it never leaves the control panel.
+     * @param username The username.
+     * @param password The password the user typed.
+     * @return The type of the response from the server: OK with the session token and the user's permissions left
+     * unread in getResponse(), ERROR with the reason, or BUSY.
+     * @throws IOException If the request failed.
+     */
+    public MessageType login(String username, String password) throws IOException {
+        request(MessageType.LOGIN).putString(username).putBytes(Protocol.hashPassword(password));
+        return send();
+    }
+
+
+    /**
+     * Logs out, ending the session.
+     * @param sessionToken The token given at login.
+     * @throws IOException If the request failed.
+     */
+    public void logout(String sessionToken) throws IOException {
+        request(MessageType.LOGOUT).putString(sessionToken);
+        send();
+    }
+
+
+    /**
+     * Gets a picture the server stores as a blob, for showing a billboard that refers to it.
+     * @param hash Hash of the blob, as in the blob attribute of the picture.
+     * @return The blob, or null if the server does not hold it.
+     * @throws IOException If the request failed.
+     */
+    public byte[] getBlob(String hash) throws IOException {
+        request(MessageType.GET_BLOB).putString(hash);
+        if (send() == MessageType.OK) {
+            return reader.getBytes();
+        }
+        return null;
+    }
+
+
+    /**
+     * Lists a page of billboards, in name order.
+     * @param sessionToken The token given at login.
+     * @param after Name of the last billboard on the previous page, or the empty string for the first page.
+     * @param limit Maximum number of billboards to list.
+     * @return The type of the response from the server: OK with the total number of billboards and the page left
+     * unread in getResponse(), ERROR with the reason, or BUSY.
+     * @throws IOException If the request failed.
+     */
+    public MessageType listBillboardPage(String sessionToken, String after, int limit) throws IOException {
+        request(MessageType.LIST_BILLBOARD_PAGE).putString(sessionToken).putString(after).putInt(limit);
+        return send();
+    }
+
+
+    /**
+     * Gets a billboard rendered to a PNG image by the server, such as a thumbnail.
+     * @param name Name of the billboard.
+     * @param width Width of the image.
+     * @param height Height of the image.
+     * @param version Version of the render already held (empty if none), so an unchanged billboard is not sent again.
+     * @return The type of the response from the server: OK with the version, format, width, height and image left
+     * unread in getResponse(), NOT_MODIFIED, ERROR with the reason, or BUSY if the server has too many renders waiting.
+     * @throws IOException If the request failed.
+     */
+    public MessageType renderBillboard(String name, int width, int height, byte[] version) throws IOException {
+        request(MessageType.RENDER_BILLBOARD).putString(name).putInt(width).putInt(height)
+                .putInt(BillboardRenderer.FORMAT_PNG).putBytes(version);
+        return send();
+    }
+
+
+    /**
+     * Imports a zip of billboard XML files, one billboard per file named by the file (see BillboardImporter). The zip
+     * is streamed to the server as it is read, so it may be of any size. Waits for however long the server takes to
+     * import them.
+     * @param sessionToken The token given at login.
+     * @param zip Stream of the zip. It is read to its end but not closed.
+     * @return The type of the response from the server: OK with the counts and rejected files left unread in
+     * getResponse(), ERROR with the reason, or BUSY.
+     * @throws IOException If the request failed, or the zip could not be read.
+     */
+    public MessageType importBillboards(String sessionToken, InputStream zip) throws IOException {
+        request(MessageType.IMPORT_BILLBOARDS).putString(sessionToken);
+        try (Socket socket = connect(BULK_TIMEOUT_MS)) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            writer.writeTo(out);
+            MessageType response = readResponse(in);
+            if (response != MessageType.OK) {
+                return response;
+            }
+            try (ChunkedOutputStream chunks = new ChunkedOutputStream(out)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = zip.read(buffer)) >= 0) {
+                    chunks.write(buffer, 0, read);
+                }
+            }
+            return readResponse(in);
+        }
+    }
+
+
+    /**
+     * Exports every billboard as a zip of billboard XML files, which importBillboards takes back. The zip is written
+     * as it arrives, so it may be of any size.
+     * @param sessionToken The token given at login.
+     * @param zip Stream to write the zip to. It is not closed.
+     * @return The type of the response from the server: OK with the number of billboards exported left unread in
+     * getResponse(), or ERROR with the reason. A zip written before an ERROR is incomplete.
+     * @throws IOException If the request failed, or the zip could not be written.
+     */
+    public MessageType exportBillboards(String sessionToken, OutputStream zip) throws IOException {
+        request(MessageType.EXPORT_BILLBOARDS).putString(sessionToken);
+        try (Socket socket = connect(BULK_TIMEOUT_MS)) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            writer.writeTo(new BufferedOutputStream(socket.getOutputStream()));
+            MessageType response = readResponse(in);
+            if (response != MessageType.OK) {
+                return response;
+            }
+            InputStream chunks = new ChunkedInputStream(in);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = chunks.read(buffer)) >= 0) {
+                zip.write(buffer, 0, read);
+            }
+            return readResponse(in);
+        }
+    }
+
+
+    private MessageType readResponse(InputStream in) throws IOException {
+        MessageType response = reader.read(in);
+        if (response == null) {
+            throw new EOFException("Server closed the connection without responding");
+        }
+        return response;
+    }
 
-        //BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outputStream);
-        outputStream.write(42);
-        //bufferedOutputStream.flush();
 
-        socket.close();
+    public static void main(String[] args) throws IOException {
+        Client client = new Client("localhost", Protocol.DEFAULT_PORT);
+        System.out.println(client.requestCurrentBillboard(new byte[0]));
     }
 }
@@ -1,8 +1,15 @@
 package billboard.control_panel;
 
+import billboard.viewer.BillboardContent;
+
 import javax.swing.*;
 import javax.swing.border.Border;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Base64;
 
 public class CreateBillboard extends JFrame{
 
@@ -10,8 +17,14 @@ public class CreateBillboard extends JFrame{
 
     static JComboBox c1;
     static JComboBox c2;
-
-    //TODO: Users with the “Create Billboards” permission can create new billboards
+    static JTextField nameField;
+    static JTextField messageField;
+    static JTextArea infoArea;
+    static JTextField urlField;
+    static String pictureData;  //Base64 of a picture chosen from a file, or null
+    static BillboardPreview preview;
+
+    //Users with the “Create Billboards” permission can create new billboards; MainPanel only offers this to them
     static void createBillboard(){
 
         create_frame.setLayout(null);
@@ -20,7 +33,11 @@ public class CreateBillboard extends JFrame{
         JPanel name_panel = new JPanel();
         JPanel txt_panel = new JPanel();
         JPanel bg_panel = new JPanel();
-        JPanel preview_panel = new JPanel();
+        JPanel msg_panel = new JPanel();
+        JPanel info_panel = new JPanel();
+        JPanel pic_panel = new JPanel();
+        preview = new BillboardPreview(new Dimension(500, 500));
+        JPanel preview_panel = preview;
 
         create_frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
@@ -33,7 +50,7 @@ public class CreateBillboard extends JFrame{
 
         //setting billboard name
         JLabel billName = new JLabel("Billboard Name:");
-        JTextField nameField = new JTextField(15);
+        nameField = new JTextField(15);
 
 //        billName.setBounds(30,45,90,20);
 //        nameField.setBounds(130,45,150,20);
@@ -54,17 +71,57 @@ public class CreateBillboard extends JFrame{
         c2 = new JComboBox(bgColourList);
 //        c1.setBounds(130,120,90,20);
 
+        //setting billboard text
+        JLabel message = new JLabel("Message:");
+        messageField = new JTextField(15);
+        JLabel information = new JLabel("Information:");
+        infoArea = new JTextArea(6, 20);
+        infoArea.setLineWrap(true);
+        infoArea.setWrapStyleWord(true);
+
+        //setting picture: a URL, or a file that is embedded in the billboard
+        JLabel picture = new JLabel("Picture URL:");
+        urlField = new JTextField(12);
+        JButton browse = new JButton("File...");
+        browse.addActionListener(e -> choosePicture());
+
+        //redraw the preview whenever anything is edited; the preview waits for a pause in typing
+        DocumentListener edited = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) { updatePreview(); }
+            @Override
+            public void removeUpdate(DocumentEvent e) { updatePreview(); }
+            @Override
+            public void changedUpdate(DocumentEvent e) { updatePreview(); }
+        };
+        nameField.getDocument().addDocumentListener(edited);
+        messageField.getDocument().addDocumentListener(edited);
+        infoArea.getDocument().addDocumentListener(edited);
+        urlField.getDocument().addDocumentListener(edited);
+        c1.addActionListener(e -> updatePreview());
+        c2.addActionListener(e -> updatePreview());
+
         name_panel.add(billName);
         name_panel.add(nameField);
         txt_panel.add(txtColour);
         txt_panel.add(c1);
         bg_panel.add(bgColour);
         bg_panel.add(c2);
+        msg_panel.add(message);
+        msg_panel.add(messageField);
+        info_panel.add(information);
+        info_panel.add(new JScrollPane(infoArea));
+        pic_panel.add(picture);
+        pic_panel.add(urlField);
+        pic_panel.add(browse);
 
 
         creating_panel.add(name_panel);
         creating_panel.add(txt_panel);
         creating_panel.add(bg_panel);
+        creating_panel.add(msg_panel);
+        creating_panel.add(info_panel);
+        creating_panel.add(pic_panel);
 
 
 
@@ -93,6 +150,65 @@ public class CreateBillboard extends JFrame{
     }
 
 
+    /**
+     * Shows the billboard as it now stands in the preview, and its name in the title.
+     */
+    static void updatePreview() {
+        String name = nameField.getText().trim();
+        create_frame.setTitle(name.isEmpty() ? "Create Billboard Panel" : "Create Billboard Panel - " + name);
+
+        Color textColour = getColour((String) c1.getSelectedItem());
+        String url = urlField.getText().trim();
+        preview.update(new BillboardContent(getColour((String) c2.getSelectedItem()),
+                emptyToNull(messageField.getText()), textColour,
+                emptyToNull(url), url.isEmpty() ? pictureData : null, null,
+                emptyToNull(infoArea.getText()), textColour));
+    }
+
+
+    /**
+     * Lets the user pick a picture file, which is embedded in the billboard in place of any URL.
+     */
+    static void choosePicture() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(create_frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            pictureData = Base64.getEncoder().encodeToString(Files.readAllBytes(chooser.getSelectedFile().toPath()));
+            urlField.setText("");
+            updatePreview();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(create_frame, "Unable to read " + chooser.getSelectedFile());
+        }
+    }
+
+
+    /**
+     * @param name One of the colour names offered in the combo boxes.
+     * @return The colour.
+     */
+    static Color getColour(String name) {
+        switch (name) {
+            case "White":
+                return Color.WHITE;
+            case "Red":
+                return Color.RED;
+            case "Blue":
+                return Color.BLUE;
+            case "Yellow":
+                return Color.YELLOW;
+            default:
+                return Color.BLACK;
+        }
+    }
+
+
+    private static String emptyToNull(String value) {
+        return value.trim().isEmpty() ? null : value;
+    }
+
+
     public static void main(String[] arg){
         createBillboard();
     }
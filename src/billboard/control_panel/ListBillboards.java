@@ -0,0 +1,47 @@
+package billboard.control_panel;
+
+import billboard.server.Protocol;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+
+public class ListBillboards {
+
+    //Every logged in user can list the billboards; rows and thumbnails are loaded as they are scrolled into view
+    static void listBillboards(){
+
+        JFrame list_frame = new JFrame("List Billboards");
+        list_frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+
+        ThumbnailCache thumbnails = new ThumbnailCache(LoginScreen.SERVER_HOST, Protocol.DEFAULT_PORT);
+        BillboardListModel model = new BillboardListModel(LoginScreen.SERVER_HOST, Protocol.DEFAULT_PORT,
+                LoginScreen.sessionToken, thumbnails);
+
+        JTable table = new JTable(model);
+        table.setRowHeight(ThumbnailCache.THUMBNAIL_SIZE.height + 4);
+        table.getColumnModel().getColumn(0).setMinWidth(ThumbnailCache.THUMBNAIL_SIZE.width + 4);
+        table.getColumnModel().getColumn(0).setMaxWidth(ThumbnailCache.THUMBNAIL_SIZE.width + 4);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.setFillsViewportHeight(true);
+
+        //stop the background threads once the list is closed
+        list_frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                model.shutdown();
+                thumbnails.shutdown();
+            }
+        });
+
+        list_frame.add(new JScrollPane(table));
+
+        list_frame.setPreferredSize(new Dimension(500, 600));
+        list_frame.pack();
+        list_frame.setLocationRelativeTo(null);
+
+        //visibility
+        list_frame.setVisible(true);
+    }
+}
@@ -0,0 +1,115 @@
+package billboard.control_panel;
+
+import billboard.server.MessageType;
+import billboard.server.Protocol;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Simulates many viewers polling the billboard server at once, and reports the throughput and latency the server
+ * sustained. Each simulated viewer requests the current billboard once, then keeps polling with the version it
+ * received, as a real viewer would. Throughput and latency count only requests the server answered with the
+ * billboard or NOT_MODIFIED; requests it turned away as BUSY, and those that failed, are reported separately.
+ * <p>
+ * Usage: LoadGenerator [host] [port] [viewers] [requests per viewer]
+ */
+public class LoadGenerator {
+    public static void main(String[] args) throws InterruptedException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : Protocol.DEFAULT_PORT;
+        int viewers = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int requestsPerViewer = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+
+        byte[] version = fetchVersion(new Client(host, port));
+
+        long[][] latencies = new long[viewers][requestsPerViewer];
+        int[] answered = new int[viewers];     // Number of latencies recorded by each viewer
+        AtomicLong busy = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(viewers);
+
+        for (int v = 0; v < viewers; v++) {
+            final int viewerIndex = v;
+            final long[] viewerLatencies = latencies[v];
+            Thread viewer = new Thread(() -> {
+                Client client = new Client(host, port);
+                int count = 0;
+                try {
+                    start.await();
+                    for (int r = 0; r < requestsPerViewer; r++) {
+                        long begin = System.nanoTime();
+                        try {
+                            MessageType response = client.requestCurrentBillboard(version);
+                            if (response == MessageType.OK || response == MessageType.NOT_MODIFIED) {
+                                viewerLatencies[count++] = System.nanoTime() - begin;
+                            } else if (response == MessageType.BUSY) {
+                                busy.incrementAndGet();
+                            } else {
+                                failed.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                } finally {
+                    answered[viewerIndex] = count;  // Seen by main once the latch is counted down
+                    done.countDown();
+                }
+            }, "viewer-" + v);
+            viewer.setDaemon(true);
+            viewer.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        long[] all = IntStream.range(0, viewers)
+                .mapToObj(v -> Arrays.stream(latencies[v], 0, answered[v]))
+                .flatMapToLong(stream -> stream).sorted().toArray();
+        System.out.printf("Viewers: %d, requests: %d, answered: %d, time: %.2f s%n",
+                viewers, (long) viewers * requestsPerViewer, all.length, seconds);
+        System.out.printf("Busy: %d, failed: %d%n", busy.get(), failed.get());
+        if (all.length == 0) {
+            System.out.println("No requests were answered, so there is no throughput or latency to report");
+            return;
+        }
+        System.out.printf("Throughput: %.0f answered requests/s%n", all.length / seconds);
+        System.out.printf("Latency p50: %.2f ms, p99: %.2f ms, max: %.2f ms%n",
+                percentile(all, 0.50), percentile(all, 0.99), all[all.length - 1] / 1e6);
+    }
+
+
+    /**
+     * Gets the version token of the current billboard, so that the load is made of conditional polls.
+     * @param client Client connected to the server.
+     * @return The version token, or an empty array if the server could not provide it.
+     */
+    private static byte[] fetchVersion(Client client) {
+        try {
+            return client.getCurrentBillboardVersion();
+        } catch (IOException e) {
+            System.err.println("Unable to reach billboard server: " + e.getMessage());
+            return new byte[0];
+        }
+    }
+
+
+    /**
+     * Gets a percentile from sorted latencies.
+     * @param sorted Latencies in nanoseconds, sorted ascending.
+     * @param fraction Percentile as a fraction, such as 0.99.
+     * @return The latency at that percentile in milliseconds.
+     */
+    private static double percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
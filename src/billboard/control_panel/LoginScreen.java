@@ -1,16 +1,28 @@
 package billboard.control_panel;
 
+import billboard.objects.Permission;
+import billboard.server.MessageType;
+import billboard.server.Protocol;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 public class LoginScreen {
 
     private static JLabel headerLabel;
     private static JLabel statusLabel;
 
+    static final String SERVER_HOST = "localhost";
+
     public static boolean correctDetail = false;
+    public static String sessionToken;  // Sent with every request once logged in
+    public static Set<Permission> permissions = EnumSet.noneOf(Permission.class);   // Of the user logged in
     public static JFrame login_frame = new JFrame("Login Screen");
 
     public static void startLogInGUI(){
@@ -46,22 +58,49 @@ public class LoginScreen {
         statusLabel.setSize(350,100);
         headerLabel.setText("Button Demo");
 
-        //log in button listener
+        //log in button listener: the password is checked by the server, off the event dispatch thread
         loginB.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
                 String username = un.getText();
-                String password = pw.getText();
-                if(username.equals("test") && password.equals("12345")){ //TODO: link it with username, password DB to check
-                    statusLabel.setText("Ok Button is clicked here");
-                    correctDetail = true;
-
-                    login_frame.dispose();
-                    MainPanel.createMainPanel();
-                }
-                else{
-                    JOptionPane.showMessageDialog(null,"Wrong Password / Username");
-                }
+                String password = new String(pw.getPassword());
+                loginB.setEnabled(false);
+                new SwingWorker<String, Void>() {
+                    @Override
+                    protected String doInBackground() throws IOException {
+                        Client client = new Client(SERVER_HOST, Protocol.DEFAULT_PORT);
+                        MessageType response = client.login(username, password);
+                        if (response == MessageType.OK) {
+                            sessionToken = client.getResponse().getString();
+                            permissions = Permission.fromMask(client.getResponse().getInt());
+                            return null;
+                        } else if (response == MessageType.ERROR) {
+                            return client.getResponse().getString();
+                        }
+                        return "The server is busy, please try again";
+                    }
+
+                    @Override
+                    protected void done() {
+                        loginB.setEnabled(true);
+                        String failure;
+                        try {
+                            failure = get();
+                        } catch (InterruptedException | ExecutionException ex) {
+                            failure = "Unable to reach the server";
+                        }
+                        if (failure == null) {
+                            statusLabel.setText("Ok Button is clicked here");
+                            correctDetail = true;
+
+                            login_frame.dispose();
+                            MainPanel.createMainPanel();
+                        }
+                        else{
+                            JOptionPane.showMessageDialog(null, failure);
+                        }
+                    }
+                }.execute();
             }
         });
 
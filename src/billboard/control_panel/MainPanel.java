@@ -1,5 +1,7 @@
 package billboard.control_panel;
 
+import billboard.objects.Permission;
+
 import javax.swing.*;
 import javax.swing.border.Border;
 import java.awt.*;
@@ -37,8 +39,21 @@ public class MainPanel {
             }
         });
 
+        //listB button listener
+        listB.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                ListBillboards.listBillboards();
+            }
+        });
+
         //-----------------------------------------------------------------------
 
+        //only offer what the user logged in has permission to do; the server checks again on every request
+        createB.setEnabled(LoginScreen.permissions.contains(Permission.CREATE_BILLBOARDS));
+        scheduleB.setEnabled(LoginScreen.permissions.contains(Permission.SCHEDULE_BILLBOARDS));
+        editB.setEnabled(LoginScreen.permissions.contains(Permission.EDIT_USERS));
+
         main_panel.add(createB);
         main_panel.add(listB);
         main_panel.add(scheduleB);
@@ -0,0 +1,231 @@
+package billboard.control_panel;
+
+import billboard.server.FrameReader;
+import billboard.server.MessageType;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+
+/**
+ * Thumbnails of billboards for the billboard list. Thumbnails are rendered by the server, which renders each billboard
+ * once and keeps the result (see BillboardRenderer), and are fetched in the background as rows come into view. They
+ * are held in least-recently-used order, bounded by the bytes their pixels occupy, so scrolling through thousands of
+ * billboards never holds more than a screenful or so of recent thumbnails.
+ * <p>
+ * Each thumbnail is kept with the version of its render, and once it is older than REVALIDATE_MS it is checked again
+ * the next time its row is shown: the server answers NOT_MODIFIED unless the billboard has been edited, in which case
+ * the new render replaces the old. A billboard the server could not render is not asked for again until REVALIDATE_MS
+ * has passed, as the failure may have been passing or the billboard may have been fixed since, and one it was too
+ * busy to render is asked for again after RETRY_MS.
+ */
+public class ThumbnailCache {
+    static public final Dimension THUMBNAIL_SIZE = new Dimension(96, 54);
+    static private final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+    static private final int FETCH_THREADS = 2;
+    static private final long REVALIDATE_MS = 30 * 1000;
+    static private final int RETRY_MS = 1000;
+
+    private final String host;
+    private final int port;
+    private final long maxBytes;
+    private final ExecutorService fetchers;
+    private final ThreadLocal<Client> clients;
+    private final Set<String> fetching = ConcurrentHashMap.newKeySet();
+    // When each billboard that could not be rendered failed; not asked for again until REVALIDATE_MS has passed
+    private final Map<String, Long> failed = new ConcurrentHashMap<>();
+
+    // Thumbnails by billboard name, kept in access order. Guarded by this
+    private final LinkedHashMap<String, Thumbnail> thumbnails = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+
+
+    /**
+     * Creates a thumbnail cache with the default size.
+     * @param host Host name of the billboard server.
+     * @param port Port of the billboard server.
+     */
+    public ThumbnailCache(String host, int port) {
+        this(host, port, DEFAULT_MAX_BYTES);
+    }
+
+
+    /**
+     * Creates a thumbnail cache.
+     * @param host Host name of the billboard server.
+     * @param port Port of the billboard server.
+     * @param maxBytes Maximum number of bytes of thumbnail pixels to hold.
+     */
+    public ThumbnailCache(String host, int port, long maxBytes) {
+        this.host = host;
+        this.port = port;
+        this.maxBytes = maxBytes;
+        clients = ThreadLocal.withInitial(() -> new Client(host, port));
+        AtomicInteger threadNumber = new AtomicInteger();
+        fetchers = Executors.newFixedThreadPool(FETCH_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "thumbnail-fetcher-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Gets the thumbnail of a billboard, starting to fetch it if it is not held, or to check it if it was fetched
+     * more than REVALIDATE_MS ago.
+     * @param name Name of the billboard.
+     * @param onFetched Called on the event dispatch thread with the billboard name once a new thumbnail has been
+     * fetched, or once the server is ready to be asked again after being too busy.
+     * @return The thumbnail, or null if it is not held yet.
+     */
+    public ImageIcon get(String name, Consumer<String> onFetched) {
+        Thumbnail held;
+        synchronized (this) {
+            held = thumbnails.get(name);
+        }
+        if (held != null && System.currentTimeMillis() - held.checked < REVALIDATE_MS) {
+            return held.icon;
+        }
+        Long failedAt = failed.get(name);
+        if (failedAt != null) {
+            if (System.currentTimeMillis() - failedAt < REVALIDATE_MS) {
+                return null;
+            }
+            failed.remove(name, failedAt);
+        }
+        if (fetching.add(name)) {
+            try {
+                fetchers.execute(() -> fetch(name, held, onFetched));
+            } catch (RejectedExecutionException e) {
+                fetching.remove(name);
+            }
+        }
+        return held == null ? null : held.icon;
+    }
+
+
+    /**
+     * Stops fetching, when the list is closed.
+     */
+    public void shutdown() {
+        fetchers.shutdownNow();
+    }
+
+
+    /**
+     * Fetches a thumbnail from the server, or checks that the one held is still current.
+     * @param held Thumbnail held, or null if there is none.
+     */
+    private void fetch(String name, Thumbnail held, Consumer<String> onFetched) {
+        try {
+            Client client = clients.get();
+            MessageType response = client.renderBillboard(name, THUMBNAIL_SIZE.width, THUMBNAIL_SIZE.height,
+                    held == null ? new byte[0] : held.version);
+            if (response == MessageType.NOT_MODIFIED && held != null) {
+                held.checked = System.currentTimeMillis();
+                return;
+            }
+            if (response == MessageType.BUSY) {
+                retryLater(name, onFetched);
+                return;
+            }
+            BufferedImage image = null;
+            byte[] version = null;
+            if (response == MessageType.OK) {
+                FrameReader reader = client.getResponse();
+                version = reader.getBytes();
+                reader.getInt();    // Format, width and height are as requested
+                reader.getInt();
+                reader.getInt();
+                image = ImageIO.read(new ByteArrayInputStream(reader.getBytes()));
+            }
+            if (image == null) {
+                // Deleted, or not a billboard that can be shown
+                failed.put(name, System.currentTimeMillis());
+                remove(name);
+                SwingUtilities.invokeLater(() -> onFetched.accept(name));
+                return;
+            }
+            put(name, new Thumbnail(new ImageIcon(image), version), (long) image.getWidth() * image.getHeight() * 4);
+            SwingUtilities.invokeLater(() -> onFetched.accept(name));
+        } catch (IOException e) {
+            // Asked for again next time the row is shown
+            System.err.println("Unable to fetch the thumbnail of " + name + " from " + host + ":" + port);
+        } finally {
+            fetching.remove(name);
+        }
+    }
+
+
+    /**
+     * Asks for a thumbnail to be fetched again after RETRY_MS, by having its row shown again then.
+     */
+    private static void retryLater(String name, Consumer<String> onFetched) {
+        Timer retry = new Timer(RETRY_MS, e -> onFetched.accept(name));
+        retry.setRepeats(false);
+        retry.start();
+    }
+
+
+    /**
+     * Adds a thumbnail, evicting least recently used thumbnails until the bound is met.
+     */
+    private synchronized void put(String name, Thumbnail thumbnail, long size) {
+        Thumbnail previous = thumbnails.put(name, thumbnail);
+        if (previous != null) {
+            bytes -= getBytes(previous);
+        }
+        bytes += size;
+        Iterator<Map.Entry<String, Thumbnail>> eldest = thumbnails.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Thumbnail> entry = eldest.next();
+            if (entry.getKey().equals(name)) {
+                continue;
+            }
+            bytes -= getBytes(entry.getValue());
+            eldest.remove();
+        }
+    }
+
+
+    private synchronized void remove(String name) {
+        Thumbnail previous = thumbnails.remove(name);
+        if (previous != null) {
+            bytes -= getBytes(previous);
+        }
+    }
+
+
+    private static long getBytes(Thumbnail thumbnail) {
+        return (long) thumbnail.icon.getIconWidth() * thumbnail.icon.getIconHeight() * 4;
+    }
+
+
+    /**
+     * A thumbnail and the version of the render it came from.
+     */
+    private static class Thumbnail {
+        private final ImageIcon icon;
+        private final byte[] version;
+        private volatile long checked = System.currentTimeMillis();    // When the server last confirmed the version
+
+        Thumbnail(ImageIcon icon, byte[] version) {
+            this.icon = icon;
+            this.version = version;
+        }
+    }
+}
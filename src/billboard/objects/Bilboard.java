@@ -1,28 +1,53 @@
 package billboard.objects;
 
+
+/**
+ * A billboard as stored by the server: its unique name, the user who created it, and its XML, which holds the text,
+ * colours and picture.
+ */
 public class Bilboard {
-    /*
-    includes info like:
-    Billboard creator/user
-    text/info
-    bg  colour
-    etc
-     */
-}
+    private final String name;
+    private final String creator;
+    private final String xml;
 
-class Title extends Bilboard {
-    /*
-    text size
-    text colour
-    font type
+
+    /**
+     * Creates a billboard.
+     * @param name The unique name of the billboard.
+     * @param creator Username of the user who created the billboard.
+     * @param xml The billboard XML.
      */
+    public Bilboard(String name, String creator, String xml) {
+        this.name = name;
+        this.creator = creator;
+        this.xml = xml;
+    }
 
-}
 
-class Image extends Bilboard {
-    /*
-    Size
-    Type of image maybe or a way to convert it to preferred type?
-     */
+    public String getName() {
+        return name;
+    }
+
+    public String getCreator() {
+        return creator;
+    }
+
+    public String getXml() {
+        return xml;
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Bilboard)) {
+            return false;
+        }
+        Bilboard other = (Bilboard) o;
+        return name.equals(other.name) && creator.equals(other.creator) && xml.equals(other.xml);
+    }
 
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
 }
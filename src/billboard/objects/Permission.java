@@ -1,4 +1,88 @@
 package billboard.objects;
 
-public class Permission {
+import java.util.EnumSet;
+import java.util.Set;
+
+
+/**
+ * The permissions a user can be given. Each permission has a fixed bit, which is how a set of permissions is sent over
+ * the network and stored in the database.
+ */
+public enum Permission {
+    CREATE_BILLBOARDS("Create Billboards"),
+    EDIT_ALL_BILLBOARDS("Edit All Billboards"),
+    SCHEDULE_BILLBOARDS("Schedule Billboards"),
+    EDIT_USERS("Edit Users");
+
+    /** The mask with every permission's bit set. */
+    public static final int ALL_MASK = (1 << values().length) - 1;
+
+    private final String displayName;
+
+    Permission(String displayName) {
+        this.displayName = displayName;
+    }
+
+
+    /**
+     * @return The name of the permission as shown to users.
+     */
+    public String getDisplayName() {
+        return displayName;
+    }
+
+
+    /**
+     * @return The bit that represents this permission in a mask.
+     */
+    public int getBit() {
+        return 1 << ordinal();
+    }
+
+
+    /**
+     * Packs a set of permissions into a bit mask.
+     * @param permissions The permissions.
+     * @return The mask, with the bit of each permission in the set.
+     */
+    public static int toMask(Set<Permission> permissions) {
+        int mask = 0;
+        for (Permission permission : permissions) {
+            mask |= permission.getBit();
+        }
+        return mask;
+    }
+
+
+    /**
+     * Checks for a permission in a mask.
+     * @param mask The mask.
+     * @param permission The permission.
+     * @return True if the mask has the permission's bit.
+     */
+    public static boolean inMask(int mask, Permission permission) {
+        return (mask & permission.getBit()) != 0;
+    }
+
+
+    /**
+     * Unpacks a bit mask into a set of permissions. Bits that do not belong to a permission are ignored.
+     * @param mask The mask.
+     * @return The permissions whose bits are set.
+     */
+    public static EnumSet<Permission> fromMask(int mask) {
+        EnumSet<Permission> permissions = EnumSet.noneOf(Permission.class);
+        for (Permission permission : values()) {
+            if ((mask & permission.getBit()) != 0) {
+                permissions.add(permission);
+            }
+        }
+        return permissions;
+    }
+
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
 }
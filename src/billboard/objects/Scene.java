@@ -0,0 +1,90 @@
+package billboard.objects;
+
+
+/**
+ * One entry in the schedule: a billboard shown from a start time for a number of minutes, optionally repeating at a
+ * fixed interval. Scenes are identified by an id assigned when they are scheduled; a higher id was scheduled later.
+ */
+public class Scene {
+    private final long id;
+    private final String billboardName;
+    private final String creator;
+    private final long startTime;
+    private final int durationMinutes;
+    private final int repeatMinutes;
+
+
+    /**
+     * Creates a scene.
+     * @param id Identifier of the scene, or 0 if it has not been scheduled yet.
+     * @param billboardName Name of the billboard shown.
+     * @param creator Username of the user who scheduled the scene.
+     * @param startTime Time the billboard is first shown, in milliseconds since the epoch.
+     * @param durationMinutes How long the billboard is shown for each time.
+     * @param repeatMinutes Minutes between the starts of repeated showings, or 0 if the scene does not repeat.
+     */
+    public Scene(long id, String billboardName, String creator, long startTime, int durationMinutes,
+                 int repeatMinutes) {
+        this.id = id;
+        this.billboardName = billboardName;
+        this.creator = creator;
+        this.startTime = startTime;
+        this.durationMinutes = durationMinutes;
+        this.repeatMinutes = repeatMinutes;
+    }
+
+
+    public long getId() {
+        return id;
+    }
+
+    public String getBillboardName() {
+        return billboardName;
+    }
+
+    public String getCreator() {
+        return creator;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public int getDurationMinutes() {
+        return durationMinutes;
+    }
+
+    public int getRepeatMinutes() {
+        return repeatMinutes;
+    }
+
+    public boolean isRepeating() {
+        return repeatMinutes > 0;
+    }
+
+
+    /**
+     * @param id The identifier assigned when the scene was scheduled.
+     * @return A copy of this scene with the given id.
+     */
+    public Scene withId(long id) {
+        return new Scene(id, billboardName, creator, startTime, durationMinutes, repeatMinutes);
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Scene)) {
+            return false;
+        }
+        Scene other = (Scene) o;
+        return id == other.id && billboardName.equals(other.billboardName) && creator.equals(other.creator)
+                && startTime == other.startTime && durationMinutes == other.durationMinutes
+                && repeatMinutes == other.repeatMinutes;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
+}
@@ -1,6 +1,129 @@
 package billboard.objects;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+
+/**
+ * The schedule: the list of scenes, which is the time and length each billboard is displayed for.
+ * <p>
+ * When scenes overlap, the one scheduled most recently (the one with the highest id) is shown, and the earlier scene
+ * shows again once it finishes if it has not finished too. A schedule is compiled into a Timeline for a window of
+ * time to answer what is showing at any instant.
+ */
 public class Schedule {
-    //this will be the list of scenes, which is the time and length a billboard is displayed for
-}
+    static private final long MINUTE_MS = 60 * 1000;
+
+    private final List<Scene> scenes;
+
+
+    /**
+     * Creates a schedule.
+     * @param scenes The scheduled scenes.
+     */
+    public Schedule(List<Scene> scenes) {
+        this.scenes = Collections.unmodifiableList(new ArrayList<>(scenes));
+    }
+
+
+    /**
+     * @return The scheduled scenes. The list cannot be modified.
+     */
+    public List<Scene> getScenes() {
+        return scenes;
+    }
+
+
+    /**
+     * Compiles the schedule for a window of time. Every showing of every scene within the window is found, including
+     * the repeats of repeating scenes, then a sweep over the start and end of each showing picks the winning scene
+     * between each pair of neighbouring boundaries. This takes O(m log m) time for m showings.
+     * @param from Start of the window, in milliseconds since the epoch.
+     * @param to End of the window, exclusive.
+     * @return The timeline for the window.
+     */
+    public Timeline compile(long from, long to) {
+        List<Showing> showings = new ArrayList<>();
+        for (Scene scene : scenes) {
+            addShowings(scene, from, to, showings);
+        }
+        showings.sort(Comparator.comparingLong(showing -> showing.start));
 
+        TreeSet<Long> boundaries = new TreeSet<>();
+        for (Showing showing : showings) {
+            boundaries.add(showing.start);
+            boundaries.add(showing.end);
+        }
+
+        // Showings that have started, with the most recently scheduled first. Finished ones are removed lazily.
+        PriorityQueue<Showing> active = new PriorityQueue<>(
+                Comparator.comparingLong((Showing showing) -> showing.scene.getId()).reversed());
+        List<long[]> segments = new ArrayList<>();
+        List<Scene> segmentScenes = new ArrayList<>();
+        int next = 0;
+        Long boundary = boundaries.isEmpty() ? null : boundaries.first();
+        while (boundary != null) {
+            while (next < showings.size() && showings.get(next).start == boundary) {
+                active.add(showings.get(next++));
+            }
+            while (!active.isEmpty() && active.peek().end <= boundary) {
+                active.poll();
+            }
+            Long following = boundaries.higher(boundary);
+            if (!active.isEmpty() && following != null) {
+                segments.add(new long[] {boundary, following});
+                segmentScenes.add(active.peek().scene);
+            }
+            boundary = following;
+        }
+        return Timeline.fromSegments(from, to, segments, segmentScenes);
+    }
+
+
+    /**
+     * Adds the showings of a scene that overlap a window, clipped to the window.
+     */
+    private static void addShowings(Scene scene, long from, long to, List<Showing> showings) {
+        long duration = scene.getDurationMinutes() * MINUTE_MS;
+        if (duration <= 0) {
+            return;
+        }
+        if (!scene.isRepeating()) {
+            addClipped(scene, scene.getStartTime(), scene.getStartTime() + duration, from, to, showings);
+            return;
+        }
+        // Skip straight to the first repeat that has not finished by the start of the window
+        long period = scene.getRepeatMinutes() * MINUTE_MS;
+        long first = Math.max(0, Math.floorDiv(from - scene.getStartTime() - duration, period) + 1);
+        for (long start = scene.getStartTime() + first * period; start < to; start += period) {
+            addClipped(scene, start, start + duration, from, to, showings);
+        }
+    }
+
+
+    private static void addClipped(Scene scene, long start, long end, long from, long to, List<Showing> showings) {
+        if (end > from && start < to) {
+            showings.add(new Showing(scene, Math.max(start, from), Math.min(end, to)));
+        }
+    }
+
+
+    /**
+     * One showing of a scene.
+     */
+    private static class Showing {
+        private final Scene scene;
+        private final long start;
+        private final long end;
+
+        Showing(Scene scene, long start, long end) {
+            this.scene = scene;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package billboard.objects;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * The schedule compiled for a window of time into sorted, non-overlapping segments, each showing the one scene that
+ * wins at that time. Overlaps and repeats have already been resolved, so finding what is showing at any instant in the
+ * window is a binary search.
+ * @see Schedule#compile(long, long)
+ */
+public class Timeline {
+    private final long start;
+    private final long end;
+    private final long[] segmentStarts;
+    private final long[] segmentEnds;
+    private final Scene[] scenes;
+
+
+    /**
+     * Creates a timeline. The segments must be sorted and must not overlap.
+     * @param start Start of the window the timeline covers, in milliseconds since the epoch.
+     * @param end End of the window, exclusive.
+     * @param segmentStarts Start time of each segment.
+     * @param segmentEnds End time of each segment, exclusive.
+     * @param scenes Scene shown in each segment.
+     */
+    Timeline(long start, long end, long[] segmentStarts, long[] segmentEnds, Scene[] scenes) {
+        this.start = start;
+        this.end = end;
+        this.segmentStarts = segmentStarts;
+        this.segmentEnds = segmentEnds;
+        this.scenes = scenes;
+    }
+
+
+    /**
+     * @return Start of the window the timeline covers, in milliseconds since the epoch.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return End of the window the timeline covers, exclusive.
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return True if the time is within the window the timeline covers.
+     */
+    public boolean covers(long time) {
+        return time >= start && time < end;
+    }
+
+    public int getSegmentCount() {
+        return scenes.length;
+    }
+
+    public long getSegmentStart(int index) {
+        return segmentStarts[index];
+    }
+
+    public long getSegmentEnd(int index) {
+        return segmentEnds[index];
+    }
+
+    public Scene getSegmentScene(int index) {
+        return scenes[index];
+    }
+
+
+    /**
+     * Finds the scene showing at a time.
+     * @param time Time in milliseconds since the epoch. It should be within the window.
+     * @return The scene, or null if nothing is scheduled then.
+     */
+    public Scene getSceneAt(long time) {
+        int index = findSegment(time);
+        return index >= 0 && time < segmentEnds[index] ? scenes[index] : null;
+    }
+
+
+    /**
+     * Finds when what is showing at a time began: the start of its segment, or the end of the previous segment if
+     * nothing is showing.
+     * @param time Time in milliseconds since the epoch.
+     * @return The boundary at or before the time, no earlier than the start of the window.
+     */
+    public long getPreviousBoundary(long time) {
+        int index = findSegment(time);
+        if (index < 0) {
+            return start;
+        }
+        return time < segmentEnds[index] ? segmentStarts[index] : segmentEnds[index];
+    }
+
+
+    /**
+     * Finds the next time what is showing changes.
+     * @param time Time in milliseconds since the epoch.
+     * @return The first boundary after the time, no later than the end of the window.
+     */
+    public long getNextBoundary(long time) {
+        int index = findSegment(time);
+        if (index >= 0 && time < segmentEnds[index]) {
+            return segmentEnds[index];
+        }
+        return index + 1 < segmentStarts.length ? segmentStarts[index + 1] : end;
+    }
+
+
+    /**
+     * @return Index of the last segment starting at or before the time, or -1 if there is none.
+     */
+    private int findSegment(long time) {
+        int index = Arrays.binarySearch(segmentStarts, time);
+        return index >= 0 ? index : -index - 2;
+    }
+
+
+    /**
+     * Builds a timeline from segments collected in order, joining neighbouring segments that show the same scene.
+     */
+    static Timeline fromSegments(long start, long end, List<long[]> bounds, List<Scene> scenes) {
+        int count = 0;
+        long[] starts = new long[bounds.size()];
+        long[] ends = new long[bounds.size()];
+        Scene[] segmentScenes = new Scene[bounds.size()];
+        for (int i = 0; i < bounds.size(); i++) {
+            long[] segment = bounds.get(i);
+            if (count > 0 && ends[count - 1] == segment[0] && segmentScenes[count - 1] == scenes.get(i)) {
+                ends[count - 1] = segment[1];
+            } else {
+                starts[count] = segment[0];
+                ends[count] = segment[1];
+                segmentScenes[count] = scenes.get(i);
+                count++;
+            }
+        }
+        return new Timeline(start, end, Arrays.copyOf(starts, count), Arrays.copyOf(ends, count),
+                Arrays.copyOf(segmentScenes, count));
+    }
+}
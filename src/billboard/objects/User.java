@@ -1,8 +1,104 @@
 package billboard.objects;
 
+import java.util.Collections;
+import java.util.Set;
+
+
+/**
+ * A user of the billboard system: their username, their stored password hash and the permissions they have. Users are
+ * immutable; changing a user's password or permissions creates a new User.
+ * <p>
+ * The permissions are held as a bit mask (see Permission.getBit), the same form they are sent and stored in, so
+ * checking a permission is a single bit test.
+ */
 public class User {
-    /*
-    Name: first and last
-    Permission types
+    private final String username;
+    private final String passwordHash;
+    private final int permissionMask;
+
+
+    /**
+     * Creates a user.
+     * @param username The unique name the user logs in with.
+     * @param passwordHash The user's password as stored by the server. The plain password is never stored.
+     * @param permissions The permissions the user has.
+     */
+    public User(String username, String passwordHash, Set<Permission> permissions) {
+        this(username, passwordHash, Permission.toMask(permissions));
+    }
+
+
+    /**
+     * Creates a user.
+     * @param username The unique name the user logs in with.
+     * @param passwordHash The user's password as stored by the server. The plain password is never stored.
+     * @param permissionMask The permissions the user has, as a mask. Bits that do not belong to a permission are
+     *                       dropped.
+     */
+    public User(String username, String passwordHash, int permissionMask) {
+        this.username = username;
+        this.passwordHash = passwordHash;
+        this.permissionMask = permissionMask & Permission.ALL_MASK;
+    }
+
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPasswordHash() {
+        return passwordHash;
+    }
+
+    /**
+     * @return The user's permissions. The set cannot be modified.
      */
+    public Set<Permission> getPermissions() {
+        return Collections.unmodifiableSet(Permission.fromMask(permissionMask));
+    }
+
+    /**
+     * @return The user's permissions as a mask.
+     */
+    public int getPermissionMask() {
+        return permissionMask;
+    }
+
+    public boolean hasPermission(Permission permission) {
+        return (permissionMask & permission.getBit()) != 0;
+    }
+
+
+    /**
+     * @param permissions The new permissions.
+     * @return A copy of this user with different permissions.
+     */
+    public User withPermissions(Set<Permission> permissions) {
+        return new User(username, passwordHash, Permission.toMask(permissions));
+    }
+
+
+    /**
+     * @param passwordHash The new stored password hash.
+     * @return A copy of this user with a different password.
+     */
+    public User withPasswordHash(String passwordHash) {
+        return new User(username, passwordHash, permissionMask);
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof User)) {
+            return false;
+        }
+        User other = (User) o;
+        return username.equals(other.username) && passwordHash.equals(other.passwordHash)
+                && permissionMask == other.permissionMask;
+    }
+
+    @Override
+    public int hashCode() {
+        return username.hashCode();
+    }
 }
@@ -0,0 +1,158 @@
+package billboard.server;
+
+import billboard.objects.Permission;
+import billboard.objects.User;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Decides whether the user behind a session may do something. Each user's permissions are cached as a bit mask, so a
+ * check is a session lookup, a map lookup and a bit test, and the database is only read the first time a user is
+ * checked.
+ * <p>
+ * Changes to users must be made through this class, which writes them to the database and updates the cache before
+ * returning, so a permission that has been taken away is refused from the very next request. A user whose mask is
+ * being read from the database while an edit is made is not cached, so a read that started before the edit can never
+ * overwrite it.
+ */
+public class Authorizer {
+    private final Database database;
+    private final SessionStore sessions;
+    private final ConcurrentHashMap<String, Integer> masks = new ConcurrentHashMap<>();
+    private final AtomicLong edits = new AtomicLong();   // Incremented before every edit
+
+    // Statistics
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+
+    /**
+     * Creates an authorizer.
+     * @param database Database holding the users.
+     * @param sessions Sessions of logged in users.
+     */
+    public Authorizer(Database database, SessionStore sessions) {
+        this.database = database;
+        this.sessions = sessions;
+    }
+
+
+    /**
+     * Finds the user a session belongs to, extending the session.
+     * @param token The session token.
+     * @return The username, or null if the token is not a current session.
+     */
+    public String getUser(String token) {
+        return sessions.validate(token);
+    }
+
+
+    /**
+     * @param username A username.
+     * @return The user's permissions as a mask, or 0 if there is no such user.
+     * @throws DatabaseException If the user was not cached and could not be read.
+     */
+    public int getPermissionMask(String username) throws DatabaseException {
+        Integer cached = masks.get(username);
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+            return cached;
+        }
+        long editsBefore = edits.get();
+        User user = database.getUser(username);
+        loads.incrementAndGet();
+        int mask = user == null ? 0 : user.getPermissionMask();
+        if (edits.get() == editsBefore) {
+            masks.putIfAbsent(username, mask);
+        }
+        return mask;
+    }
+
+
+    /**
+     * @param username A username.
+     * @param permission A permission.
+     * @return True if the user exists and has the permission.
+     * @throws DatabaseException If the user was not cached and could not be read.
+     */
+    public boolean hasPermission(String username, Permission permission) throws DatabaseException {
+        return Permission.inMask(getPermissionMask(username), permission);
+    }
+
+
+    /**
+     * Adds a user.
+     * @param user The user.
+     * @return True if added, false if the username is taken.
+     * @throws DatabaseException If the user could not be written.
+     */
+    public boolean addUser(User user) throws DatabaseException {
+        edits.incrementAndGet();
+        boolean added = database.addUser(user);
+        if (added) {
+            masks.put(user.getUsername(), user.getPermissionMask());
+        }
+        return added;
+    }
+
+
+    /**
+     * Replaces a user's permissions. They apply from the next request the user makes.
+     * @param username The user.
+     * @param permissions The new permissions.
+     * @return True if changed, false if there is no such user.
+     * @throws DatabaseException If the permissions could not be written.
+     */
+    public boolean setPermissions(String username, Set<Permission> permissions) throws DatabaseException {
+        edits.incrementAndGet();
+        try {
+            boolean changed = database.setPermissions(username, permissions);
+            if (changed) {
+                masks.put(username, Permission.toMask(permissions));
+            } else {
+                masks.remove(username);
+            }
+            return changed;
+        } catch (DatabaseException e) {
+            // The write may or may not have happened; read it again next time
+            masks.remove(username);
+            throw e;
+        }
+    }
+
+
+    /**
+     * Deletes a user and ends their sessions.
+     * @param username The user.
+     * @return True if deleted, false if there is no such user.
+     * @throws DatabaseException If the user could not be deleted.
+     */
+    public boolean deleteUser(String username) throws DatabaseException {
+        edits.incrementAndGet();
+        try {
+            return database.deleteUser(username);
+        } finally {
+            masks.remove(username);
+            sessions.invalidateUser(username);
+        }
+    }
+
+
+    /**
+     * @return Number of checks answered from the cache.
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+
+    /**
+     * @return Number of times a user's permissions were read from the database.
+     */
+    public long getLoads() {
+        return loads.get();
+    }
+}
@@ -0,0 +1,770 @@
+package billboard.server;
+
+import billboard.objects.Bilboard;
+import billboard.viewer.BillboardContent;
+import billboard.viewer.BillboardParser;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.xml.stream.XMLStreamException;
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+
+/**
+ * Imports billboards in bulk from a directory or zip of billboard XML files, and exports them the same way. Each file
+ * holds one billboard, named by the file name without ".xml" (see getFileName).
+ * <p>
+ * Files are read a chunk at a time, and each chunk is checked on a fork-join pool, a file per task. A file is only
+ * accepted if the viewer's BillboardParser can read it as a billboard with something to display, and an embedded
+ * picture must decode to an image format ImageIO can read. The accepted billboards of a chunk are then saved through
+ * the ContentStore in one database batch, which moves their pictures into shared blobs so that a picture used by many
+ * billboards is stored once. The next chunk is read and checked while the last one is written. A rejected file is
+ * reported with the reason and the import carries on.
+ * <p>
+ * An export pages through the billboards by name (see Database.listBillboardPage), so it never holds more than a page
+ * of them. The pictures are put back into each page on the pool (see ContentStore.embedBlobs) while the page before
+ * is written, and the files are written in name order. An export imports back unchanged.
+ * <p>
+ * Usage: BillboardImporter import|export [directory or .zip] [--replace] [--creator username] [db.props path]
+ * <br>
+ * or: BillboardImporter sweep [db.props path], which deletes the blobs no billboard in the database refers to (see
+ * ContentStore.deleteUnreferenced).
+ * <p>
+ * The tool opens the content store itself, so it refuses to run while the server has the store open (see
+ * ContentStore); stop the server first, or import a zip through the server with IMPORT_BILLBOARDS. Billboards
+ * replaced while the server is stopped are picked up by its schedule when it starts again.
+ */
+public class BillboardImporter {
+    static public final int BATCH_SIZE = 200;
+    static public final int MAX_FILE_BYTES = 16 * 1024 * 1024;
+    static private final long MAX_CHUNK_BYTES = 64L * 1024 * 1024;    // Bounds the files held by a chunk
+    static private final int MAX_NAME_LENGTH = 128;     // Length of the billboards.name column
+    static private final int MAX_REJECTS_KEPT = 1000;
+    static private final String EXTENSION = ".xml";
+    static private final String DEFAULT_CREATOR = "admin";
+    static private final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final Database database;
+    private final ContentStore contentStore;
+    private final ForkJoinPool pool;
+
+
+    /**
+     * Creates an importer that checks files on as many threads as there are processors.
+     * @param database Database to import billboards into and export them from.
+     * @param contentStore Content store the billboards are saved through.
+     */
+    public BillboardImporter(Database database, ContentStore contentStore) {
+        this(database, contentStore, Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Creates an importer.
+     * @param database Database to import billboards into and export them from.
+     * @param contentStore Content store the billboards are saved through.
+     * @param parallelism Number of threads to check files and embed pictures on.
+     */
+    public BillboardImporter(Database database, ContentStore contentStore, int parallelism) {
+        this.database = database;
+        this.contentStore = contentStore;
+        // The pool's threads are daemon threads, and exit when idle
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+
+    /**
+     * Imports every billboard XML file in a directory, including its subdirectories, or in a zip file.
+     * @param source A directory, or a file ending in ".zip".
+     * @param creator Username to record as the creator of the billboards.
+     * @param replace True to replace billboards that already exist; otherwise their files are rejected.
+     * @param progress Called with the report after each batch is written, or null.
+     * @return The report of the import.
+     * @throws IOException If the source could not be read.
+     * @throws DatabaseException If a batch could not be written. The batches before it stay imported.
+     */
+    public Report importFrom(Path source, String creator, boolean replace, Consumer<Report> progress)
+            throws IOException, DatabaseException {
+        if (!Files.isDirectory(source)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(source))) {
+                return importZip(in, creator, replace, progress);
+            }
+        }
+        try (Stream<Path> walk = Files.walk(source)) {
+            Iterator<Path> files = walk.filter(file -> Files.isRegularFile(file) && isXmlFile(file.toString()))
+                    .iterator();
+            return importFiles(() -> {
+                try {
+                    if (!files.hasNext()) {
+                        return null;
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                Path file = files.next();
+                String name = source.relativize(file).toString();
+                if (Files.size(file) > MAX_FILE_BYTES) {
+                    return new SourceFile(name, null);
+                }
+                return new SourceFile(name, Files.readAllBytes(file));
+            }, creator, replace, progress);
+        }
+    }
+
+
+    /**
+     * Imports every billboard XML file in a zip, reading the zip as a stream. The stream is not closed.
+     * @param zip Stream positioned at the start of the zip.
+     * @param creator Username to record as the creator of the billboards.
+     * @param replace True to replace billboards that already exist; otherwise their files are rejected.
+     * @param progress Called with the report after each batch is written, or null.
+     * @return The report of the import.
+     * @throws IOException If the zip could not be read.
+     * @throws DatabaseException If a batch could not be written. The batches before it stay imported.
+     */
+    public Report importZip(InputStream zip, String creator, boolean replace, Consumer<Report> progress)
+            throws IOException, DatabaseException {
+        ZipInputStream entries = new ZipInputStream(zip, StandardCharsets.UTF_8);
+        byte[] buffer = new byte[8192];
+        return importFiles(() -> {
+            ZipEntry entry = entries.getNextEntry();
+            while (entry != null && (entry.isDirectory() || !isXmlFile(entry.getName()))) {
+                entry = entries.getNextEntry();
+            }
+            if (entry == null) {
+                return null;
+            }
+            // The sizes in a zip cannot be trusted, so the limit is applied to what is actually read
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            int read;
+            while ((read = entries.read(buffer)) > 0) {
+                if (data.size() + read > MAX_FILE_BYTES) {
+                    while (entries.read(buffer) > 0) {
+                        // Skip the rest of the entry
+                    }
+                    return new SourceFile(entry.getName(), null);
+                }
+                data.write(buffer, 0, read);
+            }
+            return new SourceFile(entry.getName(), data.toByteArray());
+        }, creator, replace, progress);
+    }
+
+
+    /**
+     * Exports every billboard to a directory, or to a zip file if the path ends in ".zip". Files already in the
+     * directory with the same names are replaced.
+     * @param target The directory or zip file. A directory is created if it does not exist.
+     * @param progress Called with the report after each page of billboards is written, or null.
+     * @return The report of the export.
+     * @throws IOException If the files could not be written.
+     * @throws DatabaseException If the billboards could not be read.
+     */
+    public Report exportTo(Path target, Consumer<Report> progress) throws IOException, DatabaseException {
+        if (isZipFile(target.toString())) {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target))) {
+                return exportZip(out, progress);
+            }
+        }
+        Files.createDirectories(target);
+        return exportFiles((name, data) -> Files.write(target.resolve(name), data), progress);
+    }
+
+
+    /**
+     * Exports every billboard as a zip, written as a stream. The stream is not closed.
+     * @param out Stream to write the zip to.
+     * @param progress Called with the report after each page of billboards is written, or null.
+     * @return The report of the export.
+     * @throws IOException If the zip could not be written.
+     * @throws DatabaseException If the billboards could not be read.
+     */
+    public Report exportZip(OutputStream out, Consumer<Report> progress) throws IOException, DatabaseException {
+        ZipOutputStream zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        Report report = exportFiles((name, data) -> {
+            zip.putNextEntry(new ZipEntry(name));
+            zip.write(data);
+            zip.closeEntry();
+        }, progress);
+        zip.finish();
+        zip.flush();
+        return report;
+    }
+
+
+    /**
+     * Gets the name of the file a billboard is exported to. Characters that are not safe in file names on every
+     * platform are written as %XX escapes of their UTF-8 bytes, which getBillboardName turns back.
+     * @param name Name of the billboard.
+     * @return The file name, ending in ".xml".
+     */
+    public static String getFileName(String name) {
+        StringBuilder file = new StringBuilder(name.length() + EXTENSION.length());
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_'
+                    || c == ' ' || (c == '.' && file.length() > 0)) {
+                file.append(c);
+            } else {
+                file.append('%').append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xf]);
+            }
+        }
+        return file.append(EXTENSION).toString();
+    }
+
+
+    /**
+     * Gets the name of the billboard a file holds: the file name without its directory or ".xml", with %XX escapes
+     * turned back into the characters they stand for.
+     * @param file Path of the file, with '/' or '\' between directories.
+     * @return Name of the billboard. Empty if the file name gives none.
+     */
+    public static String getBillboardName(String file) {
+        String name = file.substring(Math.max(file.lastIndexOf('/'), file.lastIndexOf('\\')) + 1);
+        if (isXmlFile(name)) {
+            name = name.substring(0, name.length() - EXTENSION.length());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            int high = i + 2 < name.length() ? Character.digit(name.charAt(i + 1), 16) : -1;
+            int low = i + 2 < name.length() ? Character.digit(name.charAt(i + 2), 16) : -1;
+            if (c == '%' && high >= 0 && low >= 0) {
+                bytes.write(high << 4 | low);
+                i += 2;
+            } else {
+                int end = Character.isHighSurrogate(c) && i + 1 < name.length() ? i + 2 : i + 1;
+                byte[] encoded = name.substring(i, end).getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+                i = end - 1;
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Reads, checks and writes the files of an import. While a batch is written the next chunk is being checked.
+     */
+    private Report importFiles(FileSource source, String creator, boolean replace, Consumer<Report> progress)
+            throws IOException, DatabaseException {
+        Report report = new Report();
+        Set<String> names = new HashSet<>();    // Billboards imported, so a second file with the same name is caught
+        Future<List<CheckedFile>> checking = check(readChunk(source, report), replace);
+        try {
+            while (checking != null) {
+                List<CheckedFile> checked = join(checking);
+                checking = check(readChunk(source, report), replace);
+                save(checked, creator, replace, names, report);
+                if (progress != null) {
+                    progress.accept(report);
+                }
+            }
+        } finally {
+            if (checking != null) {
+                checking.cancel(true);
+            }
+        }
+        report.finish();
+        return report;
+    }
+
+
+    /**
+     * Reads the next chunk of files: up to a batch of them, or fewer if they are large.
+     * @return The files, or an empty list if there are no more.
+     */
+    private List<SourceFile> readChunk(FileSource source, Report report) throws IOException {
+        List<SourceFile> chunk = new ArrayList<>(BATCH_SIZE);
+        long bytes = 0;
+        SourceFile file;
+        while (chunk.size() < BATCH_SIZE && bytes < MAX_CHUNK_BYTES && (file = source.next()) != null) {
+            chunk.add(file);
+            long size = file.data == null ? 0 : file.data.length;
+            bytes += size;
+            report.addFile(size);
+        }
+        return chunk;
+    }
+
+
+    /**
+     * Starts checking a chunk of files on the pool.
+     * @return The checked files, in the order of the chunk, or null if the chunk is empty.
+     */
+    private Future<List<CheckedFile>> check(List<SourceFile> chunk, boolean replace) {
+        if (chunk.isEmpty()) {
+            return null;
+        }
+        // A parallel stream started from a task runs on that task's pool
+        return pool.submit(() -> chunk.parallelStream().map(file -> check(file, replace))
+                .collect(Collectors.toList()));
+    }
+
+
+    /**
+     * Checks that a file holds a billboard that can be imported.
+     * @return The file, with the reason if it is rejected.
+     */
+    private CheckedFile check(SourceFile file, boolean replace) {
+        if (file.data == null) {
+            return new CheckedFile(file.name, null, null, "larger than " + MAX_FILE_BYTES / (1024 * 1024) + " MB");
+        }
+        String name = getBillboardName(file.name);
+        if (name.isEmpty()) {
+            return new CheckedFile(file.name, null, null, "the file name gives no billboard name");
+        }
+        if (name.length() > MAX_NAME_LENGTH) {
+            return new CheckedFile(file.name, null, null,
+                    "the billboard name is longer than " + MAX_NAME_LENGTH + " characters");
+        }
+        String xml = new String(file.data, StandardCharsets.UTF_8);
+        if (xml.startsWith("\uFEFF")) {
+            xml = xml.substring(1);
+        }
+
+        String reason;
+        try {
+            BillboardContent content = BillboardParser.read(new StringReader(xml));
+            if (content == null) {
+                reason = "not a billboard, or the billboard has nothing to display";
+            } else {
+                reason = checkPicture(content);
+            }
+        } catch (XMLStreamException e) {
+            reason = "malformed XML: " + e.getMessage().replace('\n', ' ');
+        } catch (IllegalArgumentException e) {
+            reason = "badly formed colour: " + e.getMessage();
+        }
+        if (reason == null && !replace) {
+            try {
+                if (database.getBillboard(name) != null) {
+                    reason = "there is already a billboard named " + name;
+                }
+            } catch (DatabaseException e) {
+                throw new CompletionException(e);
+            }
+        }
+        return new CheckedFile(file.name, name, xml, reason);
+    }
+
+
+    /**
+     * Checks that the picture of a billboard can be shown. Pictures at a URL are not fetched, as the viewer fetches
+     * them when it shows the billboard; only the URL is checked.
+     * @return The reason the picture cannot be shown, or null if it can.
+     */
+    private String checkPicture(BillboardContent content) {
+        if (content.getPictureUrl() != null) {
+            try {
+                new URL(content.getPictureUrl());
+            } catch (MalformedURLException e) {
+                return "the picture URL is malformed: " + content.getPictureUrl();
+            }
+        } else if (content.getPictureData() != null) {
+            byte[] picture;
+            try {
+                picture = Base64.getMimeDecoder().decode(content.getPictureData());
+            } catch (IllegalArgumentException e) {
+                return "the picture data is not valid Base64";
+            }
+            if (!isReadableImage(picture)) {
+                return "the picture data is not an image format that can be read";
+            }
+        } else if (content.getPictureBlob() != null && !contentStore.hasBlob(content.getPictureBlob())) {
+            return "the picture refers to blob " + content.getPictureBlob() + ", which is not stored here";
+        }
+        return null;
+    }
+
+
+    /**
+     * Saves the accepted files of a chunk in one batch, and records the rejected ones. Unless replacing, billboards
+     * created since their files were checked are not replaced, as the content store checks again as it saves.
+     */
+    private void save(List<CheckedFile> checked, String creator, boolean replace, Set<String> names, Report report)
+            throws DatabaseException {
+        List<Bilboard> batch = new ArrayList<>(checked.size());
+        List<String> batchFiles = new ArrayList<>(checked.size());
+        for (CheckedFile file : checked) {
+            if (file.reason != null) {
+                report.addReject(file.name, file.reason);
+            } else if (!names.add(file.billboardName)) {
+                report.addReject(file.name, "another file in the import is also named " + file.billboardName);
+            } else {
+                batch.add(new Bilboard(file.billboardName, creator, file.xml));
+                batchFiles.add(file.name);
+            }
+        }
+        if (replace) {
+            contentStore.saveAll(batch);
+            report.addBillboards(batch.size());
+            return;
+        }
+        Set<String> taken = contentStore.createAll(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            String name = batch.get(i).getName();
+            if (taken.contains(name)) {
+                names.remove(name);
+                report.addReject(batchFiles.get(i), "there is already a billboard named " + name);
+            }
+        }
+        report.addBillboards(batch.size() - taken.size());
+    }
+
+
+    /**
+     * Reads the billboards a page at a time and writes their files. While a page is written the next one is having
+     * its pictures embedded.
+     */
+    private Report exportFiles(FileSink sink, Consumer<Report> progress) throws IOException, DatabaseException {
+        Report report = new Report();
+        List<Bilboard> page = database.listBillboardPage("", BATCH_SIZE);
+        Future<List<SourceFile>> embedding = embed(page);
+        try {
+            while (embedding != null) {
+                List<SourceFile> files = join(embedding);
+                page = page.size() < BATCH_SIZE ? Collections.emptyList()
+                        : database.listBillboardPage(page.get(page.size() - 1).getName(), BATCH_SIZE);
+                embedding = embed(page);
+                for (SourceFile file : files) {
+                    sink.write(file.name, file.data);
+                    report.addFile(file.data.length);
+                }
+                report.addBillboards(files.size());
+                if (progress != null) {
+                    progress.accept(report);
+                }
+            }
+        } finally {
+            if (embedding != null) {
+                embedding.cancel(true);
+            }
+        }
+        report.finish();
+        return report;
+    }
+
+
+    /**
+     * Starts reading a page of billboards and embedding their pictures on the pool.
+     * @param page The page, as listed by name.
+     * @return The files of the billboards, in the order of the page, or null if the page is empty.
+     */
+    private Future<List<SourceFile>> embed(List<Bilboard> page) {
+        if (page.isEmpty()) {
+            return null;
+        }
+        return pool.submit(() -> page.parallelStream().map(listed -> {
+            Bilboard billboard;
+            try {
+                billboard = database.getBillboard(listed.getName());
+            } catch (DatabaseException e) {
+                throw new CompletionException(e);
+            }
+            if (billboard == null) {
+                return null;    // Deleted since the page was listed
+            }
+            String xml = contentStore.embedBlobs(billboard.getXml());
+            return new SourceFile(getFileName(billboard.getName()), xml.getBytes(StandardCharsets.UTF_8));
+        }).filter(Objects::nonNull).collect(Collectors.toList()));
+    }
+
+
+    /**
+     * Waits for work on the pool, passing on a database error it failed with.
+     */
+    private static <T> T join(Future<T> work) throws DatabaseException {
+        try {
+            return work.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            while (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof DatabaseException) {
+                throw (DatabaseException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+
+    private static boolean isReadableImage(byte[] data) {
+        // An in-memory stream, as ImageIO.createImageInputStream may cache to a temporary file
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+            return ImageIO.getImageReaders(in).hasNext();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    private static boolean isXmlFile(String name) {
+        return name.toLowerCase(Locale.ROOT).endsWith(EXTENSION);
+    }
+
+
+    private static boolean isZipFile(String name) {
+        return name.toLowerCase(Locale.ROOT).endsWith(".zip");
+    }
+
+
+    /**
+     * Progress and outcome of an import or export. Only updated by the thread running it.
+     */
+    public static class Report {
+        private final long startNanos = System.nanoTime();
+        private long endNanos = 0;
+        private int files = 0;
+        private long bytes = 0;
+        private int billboards = 0;
+        private int rejected = 0;
+        private final List<Reject> rejects = new ArrayList<>();
+
+
+        /**
+         * @return Number of files read by an import or written by an export.
+         */
+        public int getFiles() {
+            return files;
+        }
+
+        /**
+         * @return Number of bytes in the files.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return Number of billboards imported or exported.
+         */
+        public int getBillboards() {
+            return billboards;
+        }
+
+        /**
+         * @return Number of files rejected by an import.
+         */
+        public int getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return The rejected files with the reasons, up to the first thousand.
+         */
+        public List<Reject> getRejects() {
+            return Collections.unmodifiableList(rejects);
+        }
+
+        /**
+         * @return Seconds since the import or export started, or that it took once finished.
+         */
+        public double getElapsedSeconds() {
+            return ((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos) / 1e9;
+        }
+
+        /**
+         * @return Files read or written per second.
+         */
+        public double getFilesPerSecond() {
+            double seconds = getElapsedSeconds();
+            return seconds > 0 ? files / seconds : 0;
+        }
+
+
+        @Override
+        public String toString() {
+            return String.format("%d files, %d billboards, %d rejected in %.1f s (%.0f files/s, %.1f MB/s)", files,
+                    billboards, rejected, getElapsedSeconds(), getFilesPerSecond(),
+                    getElapsedSeconds() > 0 ? bytes / (1024.0 * 1024.0) / getElapsedSeconds() : 0);
+        }
+
+
+        private void addFile(long size) {
+            files++;
+            bytes += size;
+        }
+
+        private void addBillboards(int count) {
+            billboards += count;
+        }
+
+        private void addReject(String file, String reason) {
+            rejected++;
+            if (rejects.size() < MAX_REJECTS_KEPT) {
+                rejects.add(new Reject(file, reason));
+            }
+        }
+
+        private void finish() {
+            endNanos = System.nanoTime();
+        }
+    }
+
+
+    /**
+     * A file an import rejected.
+     */
+    public static class Reject {
+        private final String file;
+        private final String reason;
+
+        private Reject(String file, String reason) {
+            this.file = file;
+            this.reason = reason;
+        }
+
+        /**
+         * @return Path of the file in the directory or zip.
+         */
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * @return Why the file was rejected.
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return file + ": " + reason;
+        }
+    }
+
+
+    /**
+     * A file read for an import or embedded for an export.
+     */
+    private static class SourceFile {
+        final String name;
+        final byte[] data;      // Null if the file is too large
+
+        SourceFile(String name, byte[] data) {
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+
+    /**
+     * A file checked for an import.
+     */
+    private static class CheckedFile {
+        final String name;
+        final String billboardName;
+        final String xml;
+        final String reason;    // Null if the billboard can be imported
+
+        CheckedFile(String name, String billboardName, String xml, String reason) {
+            this.name = name;
+            this.billboardName = billboardName;
+            this.xml = xml;
+            this.reason = reason;
+        }
+    }
+
+
+    private interface FileSource {
+        /**
+         * @return The next file, or null if there are no more.
+         */
+        SourceFile next() throws IOException;
+    }
+
+
+    private interface FileSink {
+        void write(String name, byte[] data) throws IOException;
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        boolean sweep = args.length > 0 && args[0].equals("sweep");
+        if (!sweep && (args.length < 2 || !(args[0].equals("import") || args[0].equals("export")))) {
+            System.err.println("Usage: BillboardImporter import|export [directory or .zip] [--replace] "
+                    + "[--creator username] [db.props path]");
+            System.err.println("   or: BillboardImporter sweep [db.props path]");
+            return;
+        }
+        Path path = sweep ? null : Paths.get(args[1]);
+        boolean replace = false;
+        String creator = DEFAULT_CREATOR;
+        String propsPath = "db.props";
+        for (int i = sweep ? 1 : 2; i < args.length; i++) {
+            if (args[i].equals("--replace")) {
+                replace = true;
+            } else if (args[i].equals("--creator") && i + 1 < args.length) {
+                creator = args[++i];
+            } else {
+                propsPath = args[i];
+            }
+        }
+
+        Database database = new RealDatabase(RealDatabase.readProperties(Paths.get(propsPath)));
+        ContentStore contentStore;
+        try {
+            contentStore = new ContentStore(database);
+        } catch (DatabaseException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Stop the server before running this tool, or import through the server instead.");
+            database.close();
+            return;
+        }
+        try {
+            if (sweep) {
+                System.out.println("Deleted " + contentStore.deleteUnreferenced() + " unused blobs");
+                return;
+            }
+            BillboardImporter importer = new BillboardImporter(database, contentStore);
+            Consumer<Report> progress = System.out::println;
+            Report report = args[0].equals("import") ? importer.importFrom(path, creator, replace, progress)
+                    : importer.exportTo(path, progress);
+            System.out.println(args[0] + " finished: " + report);
+            for (Reject reject : report.getRejects()) {
+                System.out.println("  rejected " + reject);
+            }
+            if (report.getRejected() > report.getRejects().size()) {
+                System.out.println("  and " + (report.getRejected() - report.getRejects().size()) + " more");
+            }
+        } finally {
+            contentStore.close();
+            database.close();
+        }
+    }
+}
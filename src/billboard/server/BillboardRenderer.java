@@ -0,0 +1,343 @@
+package billboard.server;
+
+import billboard.viewer.BillboardLayout;
+import billboard.viewer.BillboardLoader;
+import billboard.viewer.BillboardPainter;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Renders billboards to images on the server, so that low-powered viewers can show a billboard without parsing it,
+ * fetching its picture or fitting its fonts; they only draw the image they are sent. Billboards are laid out and
+ * painted with the viewer's own BillboardLoader and BillboardPainter, so a rendered billboard looks exactly as it would
+ * in a viewer of the same size. Pictures are fetched by PictureFetcher rather than the viewer's caches, as anyone
+ * may ask for a render. Nothing needs a screen, so the server can run headless.
+ * <p>
+ * Renders run on a small pool of their own so they never hold up the request workers, and when its queue is full new
+ * renders are refused rather than queued without bound. Finished renders are kept in a least-recently-used cache
+ * bounded by their size in bytes, keyed by the version of the render: a hash of the billboard XML, the size and the
+ * format. Every viewer of the same size showing the same billboard is therefore sent the same cached image, and a
+ * render already under way is shared rather than repeated.
+ */
+public class BillboardRenderer {
+    /** Format of a PNG image. */
+    static public final int FORMAT_PNG = 0;
+    /** Format of raw pixels: 3 bytes of red, green and blue for each pixel, row by row from the top left. */
+    static public final int FORMAT_RAW = 1;
+    static public final int MAX_DIMENSION = 4096;
+    /** Largest encoded image that is sent, leaving room in the response frame for the fields around it. */
+    static public final int MAX_IMAGE_BYTES = Protocol.MAX_PAYLOAD_SIZE - 1024;
+    static private final long DEFAULT_CACHE_BYTES = 128L * 1024 * 1024;
+    static private final int DEFAULT_QUEUE = 32;
+    static private final long IDLE_MS = 60 * 1000;   // Render threads stop after this long without work
+
+    private final ContentStore contentStore;
+    private final ThreadPoolExecutor workers;
+    private final Map<String, CompletableFuture<Rendering>> rendering = new ConcurrentHashMap<>();
+
+    // Cache: version -> render, kept in access order. Guarded by itself
+    private final LinkedHashMap<String, Rendering> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxCacheBytes;
+    private long cacheBytes = 0;
+
+    // Statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong renders = new AtomicLong();
+    private final AtomicLong renderNanos = new AtomicLong();
+
+
+    /**
+     * Creates a renderer with one render thread per processor and the default cache size.
+     * @param contentStore Store of the pictures billboards refer to as blobs, or null if they embed their pictures.
+     */
+    public BillboardRenderer(ContentStore contentStore) {
+        this(contentStore, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE, DEFAULT_CACHE_BYTES);
+    }
+
+
+    /**
+     * Creates a renderer. Render threads are only started when there is something to render.
+     * @param contentStore Store of the pictures billboards refer to as blobs, or null if they embed their pictures.
+     * @param threadCount Number of billboards rendered at once.
+     * @param queueCapacity Number of renders that may wait for a thread before more are refused.
+     * @param maxCacheBytes Maximum number of bytes of rendered images to keep.
+     */
+    public BillboardRenderer(ContentStore contentStore, int threadCount, int queueCapacity, long maxCacheBytes) {
+        this.contentStore = contentStore;
+        this.maxCacheBytes = maxCacheBytes;
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threadCount, threadCount, IDLE_MS, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "billboard-renderer-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+
+    /**
+     * Works out the version of a render, without rendering it. A viewer that already holds this version need not be
+     * sent the image again.
+     * @param xml Billboard XML.
+     * @param width Width of the image.
+     * @param height Height of the image.
+     * @param format FORMAT_PNG or FORMAT_RAW.
+     * @return The version.
+     */
+    public static byte[] getVersion(String xml, int width, int height, int format) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((width + "x" + height + "/" + format + "\n").getBytes(StandardCharsets.UTF_8));
+            return digest.digest(xml.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Renders a billboard, from the cache if it has been rendered at this size before.
+     * @param xml Billboard XML as stored.
+     * @param width Width of the image, from 1 to MAX_DIMENSION.
+     * @param height Height of the image, from 1 to MAX_DIMENSION.
+     * @param format FORMAT_PNG or FORMAT_RAW.
+     * @return A future completed with the render, or completed exceptionally if the billboard could not be rendered.
+     * @throws IllegalArgumentException If the size or format is not valid, or a raw image of that size would be too
+     * large to send. A PNG image too large to send completes the future exceptionally.
+     * @throws RejectedExecutionException If too many renders are already waiting.
+     */
+    public CompletableFuture<Rendering> render(String xml, int width, int height, int format) {
+        if (width < 1 || height < 1 || width > MAX_DIMENSION || height > MAX_DIMENSION) {
+            throw new IllegalArgumentException("The size must be from 1x1 to " + MAX_DIMENSION + "x" + MAX_DIMENSION);
+        }
+        if (format != FORMAT_PNG && format != FORMAT_RAW) {
+            throw new IllegalArgumentException("Unknown image format " + format);
+        }
+        if (format == FORMAT_RAW && (long) width * height * 3 > MAX_IMAGE_BYTES) {
+            throw new IllegalArgumentException("A raw image of " + width + "x" + height + " is too large to send");
+        }
+        byte[] version = getVersion(xml, width, height, format);
+        String key = toHex(version);
+        synchronized (cache) {
+            Rendering cached = cache.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+
+        CompletableFuture<Rendering> created = new CompletableFuture<>();
+        CompletableFuture<Rendering> existing = rendering.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            workers.execute(() -> {
+                try {
+                    Rendering result = draw(xml, version, width, height, format);
+                    remember(key, result);
+                    created.complete(result);
+                } catch (RuntimeException e) {
+                    created.completeExceptionally(e);
+                } finally {
+                    rendering.remove(key, created);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rendering.remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+        return created;
+    }
+
+
+    /**
+     * Stops the render threads. Renders already started are abandoned.
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+
+    /**
+     * @return Number of renders answered from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of billboards rendered.
+     */
+    public long getRenders() {
+        return renders.get();
+    }
+
+    /**
+     * @return Average time taken to render a billboard, in nanoseconds.
+     */
+    public long getAverageRenderNanos() {
+        long count = renders.get();
+        return count == 0 ? 0 : renderNanos.get() / count;
+    }
+
+    /**
+     * @return Number of bytes of rendered images held.
+     */
+    public long getCacheBytes() {
+        synchronized (cache) {
+            return cacheBytes;
+        }
+    }
+
+
+    /**
+     * Lays out, paints and encodes a billboard on the calling thread.
+     */
+    private Rendering draw(String xml, byte[] version, int width, int height, int format) {
+        long start = System.nanoTime();
+        String fullXml = contentStore == null ? xml : contentStore.embedBlobs(xml);
+        BillboardLayout layout = BillboardLoader.prepareStill(fullXml, new Dimension(width, height),
+                PictureFetcher::fetch);
+        if (layout == null) {
+            throw new IllegalStateException("The billboard is either empty or invalid.");
+        }
+        BufferedImage image = BillboardPainter.render(layout);
+        byte[] data = format == FORMAT_PNG ? encodePng(image) : encodeRaw(image);
+        if (data.length > MAX_IMAGE_BYTES) {
+            throw new IllegalStateException("The image is too large to send; ask for a smaller size.");
+        }
+        renders.incrementAndGet();
+        renderNanos.addAndGet(System.nanoTime() - start);
+        return new Rendering(version, format, width, height, data);
+    }
+
+
+    /**
+     * Adds a render to the cache, evicting least recently used renders until the cache bound is met. Renders larger
+     * than the whole bound are not kept.
+     */
+    private void remember(String key, Rendering result) {
+        long size = result.getData().length;
+        if (size > maxCacheBytes) {
+            return;
+        }
+        synchronized (cache) {
+            Rendering previous = cache.put(key, result);
+            if (previous != null) {
+                cacheBytes -= previous.getData().length;
+            }
+            cacheBytes += size;
+            Iterator<Map.Entry<String, Rendering>> eldest = cache.entrySet().iterator();
+            while (cacheBytes > maxCacheBytes && eldest.hasNext()) {
+                Map.Entry<String, Rendering> entry = eldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+                cacheBytes -= entry.getValue().getData().length;
+                eldest.remove();
+            }
+        }
+    }
+
+
+    private static byte[] encodePng(BufferedImage image) {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", png);
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+        return png.toByteArray();
+    }
+
+
+    private static byte[] encodeRaw(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] row = new int[width];
+        byte[] raw = new byte[width * height * 3];
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int rgb : row) {
+                raw[i++] = (byte) (rgb >> 16);
+                raw[i++] = (byte) (rgb >> 8);
+                raw[i++] = (byte) rgb;
+            }
+        }
+        return raw;
+    }
+
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+
+    /**
+     * A rendered billboard.
+     */
+    public static class Rendering {
+        private final byte[] version;
+        private final int format;
+        private final int width;
+        private final int height;
+        private final byte[] data;
+
+        Rendering(byte[] version, int format, int width, int height, byte[] data) {
+            this.version = version;
+            this.format = format;
+            this.width = width;
+            this.height = height;
+            this.data = data;
+        }
+
+        public byte[] getVersion() {
+            return version;
+        }
+
+        public int getFormat() {
+            return format;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return The encoded image. Shared with every request for the same render, so must not be modified.
+         */
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package billboard.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Pushes change events to subscribed viewers, so they fetch the billboard or timeline as soon as it changes instead
+ * of finding out on their next poll. Every subscription is held open by a single event loop thread with a selector, so
+ * thousands of idle viewers cost a socket each rather than a thread each.
+ * <p>
+ * Changes are flags ORed into a pending set, and the set is sent a short COALESCE_MS after the first change, so a
+ * burst of edits reaches each viewer as one event. A viewer that is slow to read never holds up the others: further
+ * changes are merged into the one event it is still waiting for. An event with no flags is sent as a heartbeat when
+ * there has been nothing else to send, so both ends can tell when the connection has died.
+ */
+public class ChangeNotifier {
+    /** The billboard being shown has changed. */
+    static public final int BILLBOARD_CHANGED = 1;
+    /** The schedule, or a billboard in it, has changed. */
+    static public final int SCHEDULE_CHANGED = 2;
+
+    static public final long HEARTBEAT_INTERVAL_MS = 30 * 1000;
+    static private final long COALESCE_MS = 250;
+    static private final long WATCH_INTERVAL_MS = 1000;
+    // A subscriber that has not taken an event for this long is dropped
+    static private final long STALLED_MS = 2 * HEARTBEAT_INTERVAL_MS;
+    static private final int MAX_SUBSCRIBERS = 10000;
+
+    // Every possible event is encoded once; subscribers share the bytes
+    static private final byte[][] EVENT_FRAMES = encodeEventFrames(BILLBOARD_CHANGED | SCHEDULE_CHANGED);
+
+    private final CurrentBillboard currentBillboard;
+    private final Queue<SocketChannel> joining = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingChanges = new AtomicInteger();
+    private final ByteBuffer discard = ByteBuffer.allocate(256);
+    private Selector selector;
+    private Thread loop;
+    private ScheduledExecutorService watcher;
+    private volatile boolean running;
+
+    private byte[] watchedVersion;  // Only used by the watcher
+
+    // Statistics
+    private final AtomicLong eventsPublished = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private volatile int subscriberCount;
+
+
+    /**
+     * Creates a change notifier. Edits to the schedule are published as they are made, the current billboard is
+     * watched for changes, and changes can also be published to it directly.
+     * @param currentBillboard The current billboard.
+     * @param schedule The schedule engine, or null if the server is not following a schedule.
+     */
+    public ChangeNotifier(CurrentBillboard currentBillboard, ScheduleEngine schedule) {
+        this.currentBillboard = currentBillboard;
+        if (schedule != null) {
+            schedule.addChangeListener(() -> publish(SCHEDULE_CHANGED));
+        }
+    }
+
+
+    /**
+     * Starts the event loop and the watcher.
+     * @throws IOException If the selector could not be opened.
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        selector = Selector.open();
+        running = true;
+        loop = new Thread(this::runLoop, "change-notifier");
+        loop.setDaemon(true);
+        loop.start();
+
+        watchedVersion = currentBillboard.getVersion();
+        watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "change-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(this::watch, WATCH_INTERVAL_MS, WATCH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Stops the event loop and closes every subscription.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        watcher.shutdownNow();
+        selector.wakeup();
+        try {
+            loop.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Hands over a connection whose SUBSCRIBE request has been answered. From now on the connection belongs to the
+     * notifier, which closes it when the viewer goes away.
+     * @param channel The connection.
+     */
+    public void subscribe(SocketChannel channel) {
+        if (!running) {
+            close(channel);
+            return;
+        }
+        joining.add(channel);
+        selector.wakeup();
+        if (!running) {
+            // Stopped in the meantime; the loop will not pick it up
+            closeJoining();
+        }
+    }
+
+
+    /**
+     * Publishes changes. Changes published within COALESCE_MS of each other are sent as one event.
+     * @param changes The change flags, BILLBOARD_CHANGED and/or SCHEDULE_CHANGED.
+     */
+    public void publish(int changes) {
+        eventsPublished.incrementAndGet();
+        if (pendingChanges.getAndAccumulate(changes, (pending, added) -> pending | added) == 0 && running) {
+            selector.wakeup();
+        }
+    }
+
+
+    /**
+     * @return Number of viewers currently subscribed.
+     */
+    public int getSubscriberCount() {
+        return subscriberCount;
+    }
+
+
+    /**
+     * @return Number of times changes were published, before coalescing.
+     */
+    public long getEventsPublished() {
+        return eventsPublished.get();
+    }
+
+
+    /**
+     * @return Number of event frames sent to subscribers, including heartbeats.
+     */
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+
+    /**
+     * Checks whether the current billboard has changed since the last check, which catches the scheduled billboard
+     * changing over and edits to the billboard file. Reading the current billboard is usually a
+     * cached answer, so this is cheap.
+     */
+    private void watch() {
+        try {
+            byte[] version = currentBillboard.getVersion();
+            if (!Arrays.equals(version, watchedVersion)) {
+                watchedVersion = version;
+                publish(BILLBOARD_CHANGED);
+            }
+        } catch (RuntimeException e) {
+            // Keep the watcher alive; an exception would cancel all future checks
+            System.err.println("Change watch failed: " + e);
+        }
+    }
+
+
+    /**
+     * The event loop: accepts handed over connections, notices closed ones, and sends pending changes and heartbeats.
+     */
+    private void runLoop() {
+        long flushAt = Long.MAX_VALUE;
+        long heartbeatAt = System.currentTimeMillis() + HEARTBEAT_INTERVAL_MS;
+        try {
+            while (running) {
+                long now = System.currentTimeMillis();
+                if (flushAt == Long.MAX_VALUE && pendingChanges.get() != 0) {
+                    flushAt = now + COALESCE_MS;
+                }
+                long timeout = Math.min(flushAt, heartbeatAt) - now;
+                if (timeout > 0) {
+                    selector.select(timeout);
+                } else {
+                    selector.selectNow();
+                }
+
+                registerJoining();
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    handle(key);
+                }
+
+                now = System.currentTimeMillis();
+                if (now >= flushAt) {
+                    flushAt = Long.MAX_VALUE;
+                    broadcast(pendingChanges.getAndSet(0), now);
+                    heartbeatAt = now + HEARTBEAT_INTERVAL_MS;
+                } else if (now >= heartbeatAt) {
+                    broadcast(0, now);
+                    heartbeatAt = now + HEARTBEAT_INTERVAL_MS;
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("Change notifier failed: " + e);
+        } finally {
+            closeAll();
+        }
+    }
+
+
+    private void registerJoining() {
+        SocketChannel channel;
+        while ((channel = joining.poll()) != null) {
+            if (subscriberCount >= MAX_SUBSCRIBERS) {
+                close(channel);
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new Subscriber(channel));
+                subscriberCount++;
+            } catch (IOException e) {
+                close(channel);
+            }
+        }
+    }
+
+
+    /**
+     * Handles a ready subscription. Viewers send nothing after subscribing, so a readable channel has either been
+     * closed or sent something to be ignored; a writable one can take the rest of a partly sent event.
+     */
+    private void handle(SelectionKey key) {
+        Subscriber subscriber = (Subscriber) key.attachment();
+        try {
+            if (key.isReadable()) {
+                discard.clear();
+                if (subscriber.channel.read(discard) < 0) {
+                    drop(key);
+                    return;
+                }
+            }
+            if (key.isValid() && key.isWritable()) {
+                subscriber.flush(key, System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            drop(key);
+        }
+    }
+
+
+    /**
+     * Sends changes to every subscriber, or a heartbeat if there are none.
+     */
+    private void broadcast(int changes, long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid()) {
+                continue;
+            }
+            Subscriber subscriber = (Subscriber) key.attachment();
+            try {
+                if (subscriber.isStalled(now)) {
+                    drop(key);
+                } else {
+                    subscriber.send(key, changes, now);
+                }
+            } catch (IOException e) {
+                drop(key);
+            }
+        }
+    }
+
+
+    private void drop(SelectionKey key) {
+        key.cancel();
+        close(((Subscriber) key.attachment()).channel);
+        subscriberCount--;
+    }
+
+
+    private void closeAll() {
+        if (selector.isOpen()) {
+            for (SelectionKey key : selector.keys()) {
+                close(((Subscriber) key.attachment()).channel);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {}
+        }
+        subscriberCount = 0;
+        closeJoining();
+    }
+
+
+    private void closeJoining() {
+        SocketChannel channel;
+        while ((channel = joining.poll()) != null) {
+            close(channel);
+        }
+    }
+
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+
+
+    /**
+     * Encodes the EVENT frame for every combination of change flags.
+     */
+    private static byte[][] encodeEventFrames(int allChanges) {
+        byte[][] frames = new byte[allChanges + 1][];
+        FrameWriter writer = new FrameWriter();
+        for (int changes = 0; changes <= allChanges; changes++) {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            try {
+                writer.begin(MessageType.EVENT).putInt(changes).writeTo(frame);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            frames[changes] = frame.toByteArray();
+        }
+        return frames;
+    }
+
+
+    /**
+     * One subscribed viewer. At most one event is being written at a time; changes arriving meanwhile are merged and
+     * sent once it has gone.
+     */
+    private class Subscriber {
+        private final SocketChannel channel;
+        private ByteBuffer sending;         // The rest of the event being written, or null
+        private int waitingChanges;         // Changes to send once the current event has gone
+        private boolean waiting;
+        private long sendingSince;
+
+        Subscriber(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void send(SelectionKey key, int changes, long now) throws IOException {
+            if (sending != null) {
+                waitingChanges |= changes;
+                waiting = true;
+                return;
+            }
+            sending = ByteBuffer.wrap(EVENT_FRAMES[changes]);
+            sendingSince = now;
+            flush(key, now);
+        }
+
+        void flush(SelectionKey key, long now) throws IOException {
+            while (sending != null) {
+                channel.write(sending);
+                if (sending.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                framesSent.incrementAndGet();
+                sending = null;
+                if (waiting) {
+                    sending = ByteBuffer.wrap(EVENT_FRAMES[waitingChanges]);
+                    sendingSince = now;
+                    waitingChanges = 0;
+                    waiting = false;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        boolean isStalled(long now) {
+            return sending != null && now - sendingSince > STALLED_MS;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package billboard.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Reads a stream of bytes sent as chunks after a frame by a ChunkedOutputStream. The stream ends at the chunk of length
+ * 0; a chunk longer than Protocol.MAX_CHUNK_SIZE is refused. Closing the stream leaves the connection open.
+ * @see ChunkedOutputStream
+ */
+public class ChunkedInputStream extends InputStream {
+    private final InputStream in;
+    private int remaining = 0;     // Bytes left in the current chunk
+    private boolean ended = false;
+
+
+    /**
+     * @param in Stream of the connection to read from.
+     */
+    public ChunkedInputStream(InputStream in) {
+        this.in = in;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (remaining == 0) {
+            if (ended || !nextChunk()) {
+                return -1;
+            }
+        }
+        int count = in.read(b, off, Math.min(len, remaining));
+        if (count < 0) {
+            throw new EOFException("Connection closed part way through a chunk");
+        }
+        remaining -= count;
+        return count;
+    }
+
+
+    @Override
+    public void close() {
+        // The connection belongs to the caller
+    }
+
+
+    /**
+     * Reads the length of the next chunk.
+     * @return False if it is the chunk that ends the stream.
+     */
+    private boolean nextChunk() throws IOException {
+        int length = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed before the end of the chunked stream");
+            }
+            length = (length << 8) | b;
+        }
+        if (length < 0 || length > Protocol.MAX_CHUNK_SIZE) {
+            throw new ProtocolException("Invalid chunk length " + length);
+        }
+        remaining = length;
+        ended = length == 0;
+        return !ended;
+    }
+}
@@ -0,0 +1,92 @@
+package billboard.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * Writes a stream of bytes after a frame on the same connection, as chunks of a four byte big-endian length followed
+ * by that many bytes, ending with a chunk of length 0 (see Protocol). Used for transfers too large to send as one
+ * frame, such as imports and exports of billboards, so that neither side holds more than a chunk of them.
+ * Closing the stream ends it but leaves the connection open.
+ * @see ChunkedInputStream
+ */
+public class ChunkedOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final byte[] chunk = new byte[Protocol.MAX_CHUNK_SIZE];
+    private int size = 0;
+    private boolean finished = false;
+
+
+    /**
+     * @param out Stream of the connection to write to.
+     */
+    public ChunkedOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("The chunked stream has ended");
+        }
+        while (len > 0) {
+            int count = Math.min(len, chunk.length - size);
+            System.arraycopy(b, off, chunk, size, count);
+            size += count;
+            off += count;
+            len -= count;
+            if (size == chunk.length) {
+                writeChunk();
+            }
+        }
+    }
+
+
+    /**
+     * Sends the bytes written so far as a chunk, and flushes the connection.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (size > 0) {
+            writeChunk();
+        }
+        out.flush();
+    }
+
+
+    /**
+     * Sends the bytes still held and the chunk that ends the stream. The connection is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (size > 0) {
+            writeChunk();
+        }
+        writeLength(0);
+        out.flush();
+        finished = true;
+    }
+
+
+    private void writeChunk() throws IOException {
+        writeLength(size);
+        out.write(chunk, 0, size);
+        size = 0;
+    }
+
+
+    private void writeLength(int length) throws IOException {
+        out.write(new byte[] {(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+    }
+}
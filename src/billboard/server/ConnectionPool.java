@@ -0,0 +1,188 @@
+package billboard.server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A bounded pool of JDBC connections. At most a fixed number of connections are open at once; threads wanting more
+ * wait for one to be returned, up to a timeout, so a burst of requests cannot open unlimited connections. Connections
+ * are opened on demand and kept open once returned. Each connection keeps the statements prepared on it, so a
+ * statement is only prepared once per connection rather than on every use.
+ */
+class ConnectionPool {
+    static private final long BORROW_TIMEOUT_MS = 5000;
+    static private final long VALIDATE_AFTER_IDLE_MS = 30000;
+    static private final int VALIDATE_TIMEOUT_S = 2;
+
+    private final String url;
+    private final Properties credentials;
+    private final BlockingQueue<PooledConnection> idle;
+    private final Semaphore permits;
+    private volatile boolean closed = false;
+
+
+    /**
+     * Creates a connection pool. No connections are opened until they are needed.
+     * @param url JDBC URL of the database.
+     * @param credentials Connection properties, such as "user" and "password".
+     * @param maxConnections Maximum number of connections open at once.
+     */
+    ConnectionPool(String url, Properties credentials, int maxConnections) {
+        this.url = url;
+        this.credentials = credentials;
+        this.idle = new ArrayBlockingQueue<>(maxConnections);
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+
+    /**
+     * Borrows a connection, waiting for one to be returned if the pool is at its limit. The connection must be closed
+     * to return it to the pool.
+     * @return The connection.
+     * @throws DatabaseException If no connection became available in time, or one could not be opened.
+     */
+    PooledConnection borrow() throws DatabaseException {
+        if (closed) {
+            throw new DatabaseException("The database has been closed");
+        }
+        try {
+            if (!permits.tryAcquire(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new DatabaseException("Timed out waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("Interrupted waiting for a database connection");
+        }
+
+        try {
+            PooledConnection connection;
+            while ((connection = idle.poll()) != null) {
+                if (connection.isUsable()) {
+                    return connection;
+                }
+                connection.closeQuietly();
+            }
+            return new PooledConnection(DriverManager.getConnection(url, credentials));
+        } catch (SQLException e) {
+            permits.release();
+            throw new DatabaseException("Unable to connect to the database: " + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Closes every idle connection and stops lending connections. Connections currently borrowed are closed as they
+     * are returned.
+     */
+    void close() {
+        closed = true;
+        PooledConnection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.closeQuietly();
+        }
+    }
+
+
+    /**
+     * Takes back a borrowed connection. Connections that failed, or that come back after the pool was closed, are
+     * closed rather than kept.
+     */
+    private void release(PooledConnection connection) {
+        try {
+            if (closed || connection.broken || !idle.offer(connection)) {
+                connection.closeQuietly();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+
+    /**
+     * A connection borrowed from the pool, along with the statements prepared on it.
+     */
+    class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private long lastUsed = System.currentTimeMillis();
+        private boolean broken = false;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+
+        /**
+         * @return The underlying connection.
+         */
+        Connection getConnection() {
+            return connection;
+        }
+
+
+        /**
+         * Gets a prepared statement for some SQL, preparing it the first time it is used on this connection.
+         * @param sql The SQL statement.
+         * @return The prepared statement. Its parameters may still be set from its previous use.
+         * @throws SQLException If the statement could not be prepared.
+         */
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+
+        /**
+         * Marks the connection as failed, so it is closed rather than returned to the pool.
+         */
+        void markBroken() {
+            broken = true;
+        }
+
+
+        /**
+         * Returns the connection to the pool.
+         */
+        @Override
+        public void close() {
+            lastUsed = System.currentTimeMillis();
+            release(this);
+        }
+
+
+        /**
+         * Checks that a connection taken from the pool still works. Connections used recently are assumed to.
+         */
+        private boolean isUsable() {
+            if (System.currentTimeMillis() - lastUsed < VALIDATE_AFTER_IDLE_MS) {
+                return true;
+            }
+            try {
+                return connection.isValid(VALIDATE_TIMEOUT_S);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+
+        private void closeQuietly() {
+            try {
+                connection.close();     // Also closes its statements
+            } catch (SQLException ignored) {}
+        }
+    }
+}
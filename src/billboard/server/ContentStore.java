@@ -0,0 +1,496 @@
+package billboard.server;
+
+import billboard.objects.Bilboard;
+import billboard.viewer.BillboardContent;
+import billboard.viewer.BillboardParser;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+
+/**
+ * Stores billboards as small XML documents plus their pictures as separate blobs. A picture embedded in a billboard as
+ * Base64 data is moved into a blob named by the SHA-256 hash of its bytes, and the picture element refers to it with a
+ * blob attribute instead. A picture used by many billboards is therefore stored once, and viewers and control panels
+ * fetch each blob by hash only if they do not already hold it. Pictures linked by URL are left as they are.
+ * <p>
+ * Blobs are files in a directory, reference counted by the billboards that use them, and deleted when the last such
+ * billboard is edited or deleted. The counts are worked out from the billboards when the store is opened, so they
+ * cannot drift from the database. Blob files that no billboard refers to, such as those left by a crash between
+ * writing a blob and saving its billboard, are only deleted when asked with deleteUnreferenced(): opening a store
+ * deletes nothing, so a store opened on the wrong database, or one standing in for it, cannot lose pictures.
+ * Billboards must be saved and deleted through the store, and only one store may be open on a blob directory at a
+ * time: the store holds a lock on the directory until it is closed, and a second store, such as one opened by a tool
+ * while the server is running, is refused.
+ */
+public class ContentStore {
+    static public final String BLOB_ATTRIBUTE = "blob";
+    static private final String DEFAULT_DIRECTORY = System.getProperty("billboard.blobDir", "blobs");
+    static private final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+    static private final String LOCK_FILE = ".lock";
+
+    private final Database database;
+    private final Path directory;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final Map<String, Integer> references = new HashMap<>();  // Guarded by this
+
+    // Statistics, guarded by this
+    private long blobsWritten;
+    private long blobsShared;
+    private long blobsDeleted;
+
+
+    /**
+     * Opens the content store in the directory named by the billboard.blobDir system property, or "blobs".
+     * @param database Database holding the billboards.
+     * @throws DatabaseException If the billboards could not be read, or the directory could not be created.
+     */
+    public ContentStore(Database database) throws DatabaseException {
+        this(database, Paths.get(DEFAULT_DIRECTORY));
+    }
+
+
+    /**
+     * Opens the content store, counting the references to each blob.
+     * @param database Database holding the billboards.
+     * @param directory Directory holding the blobs.
+     * @throws DatabaseException If the billboards could not be read, the directory could not be created, or another
+     * content store has the directory open.
+     */
+    public ContentStore(Database database, Path directory) throws DatabaseException {
+        this.database = database;
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+            lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new DatabaseException("Unable to create the blob directory " + directory, e);
+        }
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            closeQuietly(lockChannel);
+            throw new DatabaseException("The blob directory " + directory
+                    + " is in use by another content store, such as a running server");
+        }
+        lock = acquired;
+        List<Bilboard> billboards;
+        try {
+            billboards = database.listBillboards();
+        } catch (DatabaseException e) {
+            close();
+            throw e;
+        }
+        for (Bilboard billboard : billboards) {
+            for (String hash : getBlobReferences(billboard.getXml())) {
+                references.merge(hash, 1, Integer::sum);
+            }
+        }
+    }
+
+
+    /**
+     * Saves a billboard, moving an embedded picture into a blob. Replaces any billboard with the same name.
+     * @param billboard The billboard, whose XML may embed its picture.
+     * @throws DatabaseException If the billboard or its picture could not be written.
+     */
+    public void save(Bilboard billboard) throws DatabaseException {
+        saveAll(Collections.singletonList(billboard));
+    }
+
+
+    /**
+     * Saves many billboards in a single database batch, moving embedded pictures into blobs. Replaces any billboards
+     * with the same names.
+     * @param billboards The billboards, whose XML may embed their pictures.
+     * @throws DatabaseException If the billboards or their pictures could not be written.
+     */
+    public synchronized void saveAll(Collection<Bilboard> billboards) throws DatabaseException {
+        List<Bilboard> stored = new ArrayList<>(billboards.size());
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        try {
+            for (Bilboard billboard : billboards) {
+                String xml = extractBlobs(billboard.getXml());
+                stored.add(new Bilboard(billboard.getName(), billboard.getCreator(), xml));
+                added.addAll(getBlobReferences(xml));
+                Bilboard previous = database.getBillboard(billboard.getName());
+                if (previous != null) {
+                    removed.addAll(getBlobReferences(previous.getXml()));
+                }
+            }
+            database.saveBillboards(stored);
+        } catch (DatabaseException e) {
+            // Blobs written for billboards that were never saved are not referred to by anything
+            for (String hash : added) {
+                if (!references.containsKey(hash)) {
+                    deleteBlob(hash);
+                }
+            }
+            throw e;
+        }
+        // Count the new references first, so a picture kept through an edit never drops to no references
+        for (String hash : added) {
+            references.merge(hash, 1, Integer::sum);
+        }
+        release(removed);
+    }
+
+
+    /**
+     * Saves a new billboard, moving an embedded picture into a blob, unless there is already a billboard with the same
+     * name. The check and the save happen under the store's lock, so of two requests creating the same name only one
+     * succeeds.
+     * @param billboard The billboard, whose XML may embed its picture.
+     * @return True if saved, false if there is already a billboard with that name.
+     * @throws DatabaseException If the billboard or its picture could not be written.
+     */
+    public boolean create(Bilboard billboard) throws DatabaseException {
+        return createAll(Collections.singletonList(billboard)).isEmpty();
+    }
+
+
+    /**
+     * Saves many new billboards in a single database batch, moving embedded pictures into blobs. Billboards whose
+     * names are already taken are skipped rather than replaced; see create().
+     * @param billboards The billboards, whose XML may embed their pictures.
+     * @return Names of the billboards skipped because there is already a billboard with that name.
+     * @throws DatabaseException If the billboards or their pictures could not be written.
+     */
+    public synchronized Set<String> createAll(Collection<Bilboard> billboards) throws DatabaseException {
+        Set<String> taken = new HashSet<>();
+        List<Bilboard> created = new ArrayList<>(billboards.size());
+        for (Bilboard billboard : billboards) {
+            if (database.getBillboard(billboard.getName()) != null) {
+                taken.add(billboard.getName());
+            } else {
+                created.add(billboard);
+            }
+        }
+        if (!created.isEmpty()) {
+            saveAll(created);
+        }
+        return taken;
+    }
+
+
+    /**
+     * Deletes a billboard, and any blobs no other billboard uses.
+     * @param name Name of the billboard.
+     * @return True if deleted, false if there is no such billboard.
+     * @throws DatabaseException If the billboard could not be deleted.
+     */
+    public synchronized boolean delete(String name) throws DatabaseException {
+        Bilboard previous = database.getBillboard(name);
+        if (previous == null || !database.deleteBillboard(name)) {
+            return false;
+        }
+        release(getBlobReferences(previous.getXml()));
+        return true;
+    }
+
+
+    /**
+     * Deletes the blob files no billboard in the database refers to. A maintenance action, run by hand with the
+     * BillboardImporter tool: every picture a billboard in another database uses is deleted too, so only run it
+     * against the database the blob directory belongs to. Only files named like a blob are deleted, so other files in
+     * the directory are left alone.
+     * @return Number of blob files deleted.
+     */
+    public synchronized long deleteUnreferenced() {
+        long deletedBefore = blobsDeleted;
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> HASH.matcher(file.getFileName().toString()).matches()
+                    && !references.containsKey(file.getFileName().toString()))
+                    .forEach(file -> {
+                        try {
+                            Files.delete(file);
+                            blobsDeleted++;
+                        } catch (IOException e) {
+                            System.err.println("Unable to delete unused blob " + file + ": " + e.getMessage());
+                        }
+                    });
+        } catch (IOException e) {
+            System.err.println("Unable to list blobs in " + directory + ": " + e.getMessage());
+        }
+        return blobsDeleted - deletedBefore;
+    }
+
+
+    /**
+     * Releases the blob directory, so another content store may open it. The store must not be used afterwards.
+     */
+    public synchronized void close() {
+        try {
+            lock.release();
+        } catch (IOException e) {
+            System.err.println("Unable to release the blob directory " + directory + ": " + e.getMessage());
+        }
+        closeQuietly(lockChannel);
+    }
+
+
+    /**
+     * Reads a blob.
+     * @param hash Lowercase hex SHA-256 hash of the blob.
+     * @return The blob, or null if there is no such blob.
+     */
+    public byte[] getBlob(String hash) {
+        if (!HASH.matcher(hash).matches()) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(directory.resolve(hash));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Unable to read blob " + hash + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * @param hash Lowercase hex SHA-256 hash of a blob.
+     * @return True if the blob is stored.
+     */
+    public boolean hasBlob(String hash) {
+        return HASH.matcher(hash).matches() && Files.exists(directory.resolve(hash));
+    }
+
+
+    /**
+     * Puts the pictures back into a stored billboard, for exporting it as a self-contained XML file.
+     * @param xml Billboard XML as stored, which may refer to blobs.
+     * @return The XML with each blob embedded as Base64 data. Returned unchanged if it refers to no blobs.
+     */
+    public String embedBlobs(String xml) {
+        if (getBlobReferences(xml).isEmpty()) {
+            return xml;
+        }
+        Document document = parse(xml);
+        Element picture = document == null ? null : getPicture(document);
+        if (picture == null) {
+            return xml;
+        }
+        byte[] blob = getBlob(picture.getAttribute(BLOB_ATTRIBUTE));
+        if (blob == null) {
+            return xml;
+        }
+        picture.removeAttribute(BLOB_ATTRIBUTE);
+        picture.setAttribute("data", Base64.getEncoder().encodeToString(blob));
+        return serialise(document, xml);
+    }
+
+
+    /**
+     * @return Number of distinct blobs referred to by billboards.
+     */
+    public synchronized int getBlobCount() {
+        return references.size();
+    }
+
+    /**
+     * @return Number of blob files written.
+     */
+    public synchronized long getBlobsWritten() {
+        return blobsWritten;
+    }
+
+    /**
+     * @return Number of pictures saved that were already stored as a blob.
+     */
+    public synchronized long getBlobsShared() {
+        return blobsShared;
+    }
+
+    /**
+     * @return Number of blob files deleted because nothing referred to them any longer.
+     */
+    public synchronized long getBlobsDeleted() {
+        return blobsDeleted;
+    }
+
+
+    /**
+     * Finds the blobs a billboard refers to. The XML is read with the viewer's BillboardParser, so a blob is counted
+     * exactly when a viewer showing the billboard would fetch it, however the attribute is quoted or spaced.
+     * @param xml Billboard XML as stored.
+     * @return Hash of the blob its picture refers to, or an empty list if it refers to none.
+     */
+    static List<String> getBlobReferences(String xml) {
+        BillboardContent content = BillboardParser.parse(xml);
+        String hash = content == null ? null : content.getPictureBlob();
+        if (hash == null || !HASH.matcher(hash).matches()) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(hash);
+    }
+
+
+    /**
+     * Moves an embedded picture into a blob, writing the blob unless it is already stored.
+     * @return The XML referring to the blob instead. Returned unchanged if the picture is not embedded, or the XML or
+     * its Base64 cannot be read; the viewer reports those when it shows the billboard.
+     */
+    private String extractBlobs(String xml) throws DatabaseException {
+        if (!xml.contains("data=")) {
+            return xml;
+        }
+        Document document = parse(xml);
+        Element picture = document == null ? null : getPicture(document);
+        if (picture == null || picture.getAttribute("data").isEmpty()) {
+            return xml;
+        }
+        byte[] blob;
+        try {
+            blob = Base64.getMimeDecoder().decode(picture.getAttribute("data"));
+        } catch (IllegalArgumentException e) {
+            return xml;
+        }
+        String hash = writeBlob(blob);
+        picture.removeAttribute("data");
+        picture.setAttribute(BLOB_ATTRIBUTE, hash);
+        return serialise(document, xml);
+    }
+
+
+    /**
+     * Writes a blob unless it is already stored. The blob is written beside its final name then moved into place, so
+     * a blob file is never seen half written.
+     * @return The hash of the blob.
+     */
+    private String writeBlob(byte[] blob) throws DatabaseException {
+        String hash = sha256(blob);
+        Path target = directory.resolve(hash);
+        if (Files.exists(target)) {
+            blobsShared++;
+            return hash;
+        }
+        Path temporary = directory.resolve(hash + ".tmp");
+        try {
+            Files.write(temporary, blob);
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new DatabaseException("Unable to write blob " + hash, e);
+        }
+        blobsWritten++;
+        return hash;
+    }
+
+
+    /**
+     * Drops references, deleting blobs that are no longer referred to.
+     */
+    private void release(List<String> hashes) {
+        for (String hash : hashes) {
+            Integer count = references.get(hash);
+            if (count == null || count <= 1) {
+                references.remove(hash);
+                deleteBlob(hash);
+            } else {
+                references.put(hash, count - 1);
+            }
+        }
+    }
+
+
+    private void deleteBlob(String hash) {
+        try {
+            if (Files.deleteIfExists(directory.resolve(hash))) {
+                blobsDeleted++;
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to delete blob " + hash + ": " + e.getMessage());
+        }
+    }
+
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+
+
+    private static Element getPicture(Document document) {
+        return (Element) document.getElementsByTagName("picture").item(0);
+    }
+
+
+    /**
+     * Parses billboard XML. DTDs are refused, since billboards never need them and they would let a billboard make the
+     * server read arbitrary files or URLs.
+     * @return The document, or null if the XML cannot be parsed.
+     */
+    private static Document parse(String xml) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setExpandEntityReferences(false);
+            return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * @return The document as XML, or the fallback if it cannot be written.
+     */
+    private static String serialise(Document document, String fallback) {
+        try {
+            document.setXmlStandalone(true);
+            TransformerFactory factory = TransformerFactory.newInstance();
+            factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            Transformer transformer = factory.newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            StringWriter xml = new StringWriter();
+            transformer.transform(new DOMSource(document), new StreamResult(xml));
+            return xml.toString();
+        } catch (Exception e) {
+            return fallback;
+        }
+    }
+
+
+    private static String sha256(byte[] bytes) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
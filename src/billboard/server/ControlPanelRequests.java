@@ -0,0 +1,359 @@
+package billboard.server;
+
+import billboard.objects.Bilboard;
+import billboard.objects.Permission;
+import billboard.objects.Scene;
+import billboard.objects.User;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.ZipException;
+
+
+/**
+ * Answers the requests a logged in control panel makes. Every one carries a session token, and is checked against the
+ * permissions of the user the session belongs to before anything is read or changed.
+ */
+public class ControlPanelRequests {
+    static public final int MAX_PAGE_SIZE = 500;
+
+    private final Database database;
+    private final ScheduleEngine schedule;
+    private final CredentialService credentials;
+    private final SessionStore sessions;
+    private final Authorizer authorizer;
+    private final ContentStore contentStore;
+    private final BillboardImporter importer;
+
+
+    /**
+     * Creates the control panel request handler.
+     * @param database Database holding the users, billboards and schedule.
+     * @param schedule The schedule engine, told whenever the schedule or a billboard changes.
+     * @param credentials Checks and hashes passwords.
+     * @param sessions Sessions of logged in users.
+     * @param contentStore Stores the billboards, with their pictures as shared blobs.
+     */
+    public ControlPanelRequests(Database database, ScheduleEngine schedule, CredentialService credentials,
+                                SessionStore sessions, ContentStore contentStore) {
+        this.database = database;
+        this.schedule = schedule;
+        this.credentials = credentials;
+        this.sessions = sessions;
+        this.authorizer = new Authorizer(database, sessions);
+        this.contentStore = contentStore;
+        this.importer = new BillboardImporter(database, contentStore);
+    }
+
+
+    public CredentialService getCredentials() {
+        return credentials;
+    }
+
+    public SessionStore getSessions() {
+        return sessions;
+    }
+
+    public Authorizer getAuthorizer() {
+        return authorizer;
+    }
+
+    public ContentStore getContentStore() {
+        return contentStore;
+    }
+
+
+    /**
+     * Answers an import or export of billboards, which carries the billboards as a chunked stream on the connection
+     * after the request (see Protocol), and writes its own responses to the connection. Imports need Create
+     * Billboards and exports Edit All Billboards, as they hold every user's billboards.
+     * @param type Type of the request.
+     * @param request The request, positioned at the session token.
+     * @param response Writer for the responses.
+     * @param in Stream of the connection, after the request.
+     * @param out Stream of the connection.
+     * @return True if the request was an import or export and has been answered.
+     * @throws IOException If the connection failed or the stream was malformed.
+     */
+    public boolean transfer(MessageType type, FrameReader request, FrameWriter response, InputStream in,
+                            OutputStream out) throws IOException {
+        if (type != MessageType.IMPORT_BILLBOARDS && type != MessageType.EXPORT_BILLBOARDS) {
+            return false;
+        }
+        String username = authorizer.getUser(request.getString());
+        try {
+            if (username == null) {
+                response.begin(MessageType.ERROR).putString("Not logged in, or the session has expired");
+            } else if (type == MessageType.IMPORT_BILLBOARDS) {
+                if (require(username, Permission.CREATE_BILLBOARDS, response)) {
+                    importBillboards(username, response, in, out);
+                }
+            } else if (require(username, Permission.EDIT_ALL_BILLBOARDS, response)) {
+                exportBillboards(response, out);
+            }
+        } catch (DatabaseException e) {
+            System.err.println("Database error answering " + type + ": " + e.getMessage());
+            response.begin(MessageType.ERROR).putString("The database could not be read or written");
+        }
+        response.writeTo(out);
+        return true;
+    }
+
+
+    /**
+     * Answers a control panel request.
+     * @param type Type of the request.
+     * @param request The request, positioned at the session token.
+     * @param response Writer for the response.
+     * @return True if the request was a control panel request and has been answered.
+     * @throws IOException If the request was malformed.
+     */
+    public boolean handle(MessageType type, FrameReader request, FrameWriter response) throws IOException {
+        switch (type) {
+            case REGISTER:
+            case SET_PERMISSIONS:
+            case LIST_BILLBOARDS:
+            case LIST_BILLBOARD_PAGE:
+            case CREATE_BILLBOARD:
+            case EDIT_BILLBOARD:
+            case SCHEDULE_BILLBOARD:
+                break;
+            default:
+                return false;
+        }
+
+        String username = authorizer.getUser(request.getString());
+        if (username == null) {
+            response.begin(MessageType.ERROR).putString("Not logged in, or the session has expired");
+            return true;
+        }
+        try {
+            switch (type) {
+                case REGISTER:
+                    register(username, request, response);
+                    break;
+                case SET_PERMISSIONS:
+                    setPermissions(username, request, response);
+                    break;
+                case LIST_BILLBOARDS:
+                    listBillboards(response);
+                    break;
+                case LIST_BILLBOARD_PAGE:
+                    listBillboardPage(request, response);
+                    break;
+                case CREATE_BILLBOARD:
+                    createBillboard(username, request, response);
+                    break;
+                case EDIT_BILLBOARD:
+                    editBillboard(username, request, response);
+                    break;
+                default:
+                    scheduleBillboard(username, request, response);
+            }
+        } catch (DatabaseException e) {
+            System.err.println("Database error answering " + type + ": " + e.getMessage());
+            response.begin(MessageType.ERROR).putString("The database could not be read or written");
+        }
+        return true;
+    }
+
+
+    private void register(String username, FrameReader request, FrameWriter response)
+            throws IOException, DatabaseException {
+        String newUsername = request.getString();
+        byte[] password = request.getBytes();
+        int permissions = request.getInt();
+        if (!require(username, Permission.EDIT_USERS, response)) {
+            return;
+        }
+        if (newUsername.isEmpty()) {
+            response.begin(MessageType.ERROR).putString("The username must not be empty");
+        } else if (authorizer.addUser(new User(newUsername, credentials.hashPassword(password), permissions))) {
+            response.begin(MessageType.OK);
+        } else {
+            response.begin(MessageType.ERROR).putString("There is already a user named " + newUsername);
+        }
+    }
+
+
+    private void setPermissions(String username, FrameReader request, FrameWriter response)
+            throws IOException, DatabaseException {
+        String target = request.getString();
+        int permissions = request.getInt();
+        if (!require(username, Permission.EDIT_USERS, response)) {
+            return;
+        }
+        if (target.equals(username) && !Permission.inMask(permissions, Permission.EDIT_USERS)) {
+            response.begin(MessageType.ERROR).putString("You cannot remove your own Edit Users permission");
+        } else if (authorizer.setPermissions(target, Permission.fromMask(permissions))) {
+            response.begin(MessageType.OK);
+        } else {
+            response.begin(MessageType.ERROR).putString("There is no user named " + target);
+        }
+    }
+
+
+    private void listBillboards(FrameWriter response) throws DatabaseException {
+        List<Bilboard> billboards = database.listBillboards();
+        response.begin(MessageType.OK).putInt(billboards.size());
+        for (Bilboard billboard : billboards) {
+            response.putString(billboard.getName());
+        }
+    }
+
+
+    private void listBillboardPage(FrameReader request, FrameWriter response) throws IOException, DatabaseException {
+        String after = request.getString();
+        int limit = request.getInt();
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            response.begin(MessageType.ERROR).putString("The page size must be from 1 to " + MAX_PAGE_SIZE);
+            return;
+        }
+        int total = database.countBillboards();
+        List<Bilboard> billboards = database.listBillboardPage(after, limit);
+        response.begin(MessageType.OK).putInt(total).putInt(billboards.size());
+        for (Bilboard billboard : billboards) {
+            response.putString(billboard.getName()).putString(billboard.getCreator());
+        }
+    }
+
+
+    private void createBillboard(String username, FrameReader request, FrameWriter response)
+            throws IOException, DatabaseException {
+        String name = request.getString();
+        String xml = request.getString();
+        if (!require(username, Permission.CREATE_BILLBOARDS, response)) {
+            return;
+        }
+        if (name.isEmpty()) {
+            response.begin(MessageType.ERROR).putString("The billboard name must not be empty");
+        } else if (contentStore.create(new Bilboard(name, username, xml))) {
+            response.begin(MessageType.OK);
+        } else {
+            response.begin(MessageType.ERROR).putString("There is already a billboard named " + name);
+        }
+    }
+
+
+    /**
+     * Replaces a billboard. Users with Edit All Billboards may edit any billboard; users with Create Billboards may
+     * edit their own.
+     */
+    private void editBillboard(String username, FrameReader request, FrameWriter response)
+            throws IOException, DatabaseException {
+        String name = request.getString();
+        String xml = request.getString();
+        Bilboard existing = database.getBillboard(name);
+        if (existing == null) {
+            response.begin(MessageType.ERROR).putString("There is no billboard named " + name);
+            return;
+        }
+        int mask = authorizer.getPermissionMask(username);
+        boolean allowed = Permission.inMask(mask, Permission.EDIT_ALL_BILLBOARDS)
+                || (existing.getCreator().equals(username) && Permission.inMask(mask, Permission.CREATE_BILLBOARDS));
+        if (!allowed) {
+            response.begin(MessageType.ERROR).putString("You may not edit billboard " + name);
+            return;
+        }
+        contentStore.save(new Bilboard(name, existing.getCreator(), xml));
+        schedule.scheduleChanged();
+        response.begin(MessageType.OK);
+    }
+
+
+    private void scheduleBillboard(String username, FrameReader request, FrameWriter response)
+            throws IOException, DatabaseException {
+        String name = request.getString();
+        long startTime = request.getLong();
+        int durationMinutes = request.getInt();
+        int repeatMinutes = request.getInt();
+        if (!require(username, Permission.SCHEDULE_BILLBOARDS, response)) {
+            return;
+        }
+        if (durationMinutes <= 0 || repeatMinutes < 0 || (repeatMinutes > 0 && repeatMinutes < durationMinutes)) {
+            response.begin(MessageType.ERROR)
+                    .putString("The duration must be positive, and a repeat no shorter than the duration");
+        } else if (database.getBillboard(name) == null) {
+            response.begin(MessageType.ERROR).putString("There is no billboard named " + name);
+        } else {
+            database.addScene(new Scene(0, name, username, startTime, durationMinutes, repeatMinutes));
+            schedule.scheduleChanged();
+            response.begin(MessageType.OK);
+        }
+    }
+
+
+    /**
+     * Imports a zip of billboards, as the user creating them. The request is answered with OK once it is accepted, and
+     * the zip then arrives as a chunked stream, which is imported as it is read, so the server never holds more than
+     * the importer's chunk of it. The import runs on the worker answering the request, while its files are checked on
+     * the importer's pool.
+     */
+    private void importBillboards(String username, FrameWriter response, InputStream in, OutputStream out)
+            throws IOException {
+        response.begin(MessageType.OK).writeTo(out);
+        ChunkedInputStream zip = new ChunkedInputStream(in);
+        BillboardImporter.Report report = null;
+        String failure = null;
+        try {
+            report = importer.importZip(zip, username, false, null);
+        } catch (ZipException e) {
+            failure = "The upload is not a readable zip file: " + e.getMessage();
+        } catch (DatabaseException e) {
+            System.err.println("Database error importing billboards: " + e.getMessage());
+            failure = "The database could not be written; the billboards before the failure were imported";
+        }
+        // The zip may end before the stream does, and the client is still sending it
+        byte[] skipped = new byte[8192];
+        while (zip.read(skipped) >= 0) {
+            // Discard the rest of the stream
+        }
+        if (failure != null) {
+            response.begin(MessageType.ERROR).putString(failure);
+            return;
+        }
+        response.begin(MessageType.OK).putInt(report.getFiles()).putInt(report.getBillboards())
+                .putInt(report.getRejected()).putInt(report.getRejects().size());
+        for (BillboardImporter.Reject reject : report.getRejects()) {
+            response.putString(reject.getFile()).putString(reject.getReason());
+        }
+    }
+
+
+    /**
+     * Exports every billboard as a zip. The request is answered with OK, then the zip is sent as a chunked stream as
+     * it is written, a page of billboards at a time, and the export ends with OK, or ERROR if it failed part way.
+     */
+    private void exportBillboards(FrameWriter response, OutputStream out) throws IOException {
+        response.begin(MessageType.OK).writeTo(out);
+        ChunkedOutputStream zip = new ChunkedOutputStream(new BufferedOutputStream(out));
+        BillboardImporter.Report report;
+        try {
+            report = importer.exportZip(zip, null);
+        } catch (DatabaseException e) {
+            System.err.println("Database error exporting billboards: " + e.getMessage());
+            zip.close();
+            response.begin(MessageType.ERROR).putString("The database could not be read; the export is incomplete");
+            return;
+        }
+        zip.close();
+        response.begin(MessageType.OK).putInt(report.getBillboards());
+    }
+
+
+    /**
+     * Checks that a user has a permission, answering with ERROR if they do not.
+     * @return True if the user has the permission.
+     */
+    private boolean require(String username, Permission permission, FrameWriter response)
+            throws DatabaseException {
+        if (authorizer.hasPermission(username, permission)) {
+            return true;
+        }
+        response.begin(MessageType.ERROR).putString("You need the " + permission.getDisplayName() + " permission");
+        return false;
+    }
+}
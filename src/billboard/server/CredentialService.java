@@ -0,0 +1,256 @@
+package billboard.server;
+
+import billboard.objects.Permission;
+import billboard.objects.User;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Checks user passwords. Verifying a PBKDF2 hash is deliberately slow, so it is done on a separate pool of verifier
+ * threads sized to the processors, with a bounded queue: a burst of logins waits for a verifier, or is turned away
+ * when the queue is full, rather than tying up the threads answering viewers.
+ * <p>
+ * A successful verification is remembered for CACHE_TTL_MS, so a user logging in again soon after skips the PBKDF2
+ * work. The cache holds a keyed MAC of the stored hash and the password rather than the password, and an entry only
+ * matches while the stored hash is unchanged, so changing a password invalidates it. Unknown usernames are verified
+ * against a dummy hash so they take as long as wrong passwords, and do not reveal which usernames exist.
+ */
+public class CredentialService {
+    static private final int DEFAULT_VERIFIERS = Runtime.getRuntime().availableProcessors();
+    static private final int QUEUE_CAPACITY = 256;
+    static private final long CACHE_TTL_MS = 5 * 60 * 1000;
+    static private final int CACHE_SIZE = 10000;
+
+    // Created when the server first runs with an empty user table
+    static private final String INITIAL_USERNAME = "admin";
+    static private final String INITIAL_PASSWORD = "password";
+
+    private final Database database;
+    private final PasswordHasher hasher;
+    private final ThreadPoolExecutor verifiers;
+    private final String dummyHash;
+    private final byte[] cacheKey = new byte[32];
+    private final Map<String, Verified> verified = new LinkedHashMap<>(16, 0.75f, true);   // Guarded by itself
+
+    // Statistics
+    private final AtomicLong hashesVerified = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong loginsRejected = new AtomicLong();
+
+
+    /**
+     * Creates a credential service with a verifier for each processor.
+     * @param database Database holding the users.
+     * @param hasher The password hasher, which sets the cost of new hashes.
+     */
+    public CredentialService(Database database, PasswordHasher hasher) {
+        this(database, hasher, DEFAULT_VERIFIERS);
+    }
+
+
+    /**
+     * Creates a credential service.
+     * @param database Database holding the users.
+     * @param hasher The password hasher, which sets the cost of new hashes.
+     * @param verifierCount Number of threads verifying passwords.
+     */
+    public CredentialService(Database database, PasswordHasher hasher, int verifierCount) {
+        this.database = database;
+        this.hasher = hasher;
+        AtomicInteger threadNumber = new AtomicInteger();
+        verifiers = new ThreadPoolExecutor(verifierCount, verifierCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "credential-verifier-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        SecureRandom random = new SecureRandom();
+        random.nextBytes(cacheKey);
+        byte[] dummyPassword = new byte[32];
+        random.nextBytes(dummyPassword);
+        dummyHash = hasher.hash(dummyPassword);
+    }
+
+
+    /**
+     * Checks a username and password on a verifier thread.
+     * @param username The username.
+     * @param password The password as sent by the client.
+     * @return Completes with the user if the password is correct, or null if it is not or there is no such user.
+     * Completes exceptionally with a DatabaseException if the user could not be read.
+     * @throws RejectedExecutionException If the verifiers are too far behind to take more logins.
+     */
+    public CompletableFuture<User> authenticate(String username, byte[] password) {
+        CompletableFuture<User> result = new CompletableFuture<>();
+        try {
+            verifiers.execute(() -> {
+                try {
+                    result.complete(check(username, password));
+                } catch (DatabaseException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loginsRejected.incrementAndGet();
+            throw e;
+        }
+        return result;
+    }
+
+
+    /**
+     * Hashes a new password for storage, on the calling thread.
+     * @param password The password as sent by the client.
+     * @return The stored form of the password.
+     */
+    public String hashPassword(byte[] password) {
+        return hasher.hash(password);
+    }
+
+
+    /**
+     * Adds an initial user with every permission if there are no users at all, so that someone can log in to a new
+     * installation and add the real users.
+     * @throws DatabaseException If the users could not be read or written.
+     */
+    public void createInitialUser() throws DatabaseException {
+        if (!database.listUsers().isEmpty()) {
+            return;
+        }
+        String passwordHash = hashPassword(Protocol.hashPassword(INITIAL_PASSWORD));
+        if (database.addUser(new User(INITIAL_USERNAME, passwordHash, EnumSet.allOf(Permission.class)))) {
+            System.out.println("Created user '" + INITIAL_USERNAME + "' with password '" + INITIAL_PASSWORD
+                    + "'. Change the password once you have logged in.");
+        }
+    }
+
+
+    /**
+     * Stops the verifier threads. Logins already queued are still checked.
+     */
+    public void shutdown() {
+        verifiers.shutdown();
+    }
+
+
+    /**
+     * @return Number of passwords checked by running PBKDF2.
+     */
+    public long getHashesVerified() {
+        return hashesVerified.get();
+    }
+
+
+    /**
+     * @return Number of logins checked against a recent successful login instead.
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+
+    /**
+     * @return Number of logins turned away because the verifiers were too far behind.
+     */
+    public long getLoginsRejected() {
+        return loginsRejected.get();
+    }
+
+
+    /**
+     * Checks a password, using a recent successful check of the same password if there is one, and re-hashes it if it
+     * was stored at a lower cost than is now used.
+     */
+    private User check(String username, byte[] password) throws DatabaseException {
+        User user = database.getUser(username);
+        String stored = user == null ? dummyHash : user.getPasswordHash();
+        byte[] fingerprint = fingerprint(stored, password);
+        long now = System.currentTimeMillis();
+        if (user != null && isCached(username, stored, fingerprint, now)) {
+            cacheHits.incrementAndGet();
+            return user;
+        }
+
+        hashesVerified.incrementAndGet();
+        if (!hasher.verify(password, stored) || user == null) {
+            return null;
+        }
+        if (hasher.needsRehash(stored)) {
+            String rehashed = hasher.hash(password);
+            if (database.setPasswordHash(username, rehashed)) {
+                user = user.withPasswordHash(rehashed);
+                stored = rehashed;
+                fingerprint = fingerprint(rehashed, password);
+            }
+        }
+        synchronized (verified) {
+            verified.put(username, new Verified(stored, fingerprint, now + CACHE_TTL_MS));
+            if (verified.size() > CACHE_SIZE) {
+                verified.remove(verified.keySet().iterator().next());
+            }
+        }
+        return user;
+    }
+
+
+    private boolean isCached(String username, String stored, byte[] fingerprint, long now) {
+        Verified entry;
+        synchronized (verified) {
+            entry = verified.get(username);
+        }
+        return entry != null && now < entry.expiresAt && entry.stored.equals(stored)
+                && MessageDigest.isEqual(entry.fingerprint, fingerprint);
+    }
+
+
+    /**
+     * MACs the stored hash and the password with a key that only exists in this process, so the cache is no help to
+     * anyone who obtains a copy of it.
+     */
+    private byte[] fingerprint(String stored, byte[] password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(cacheKey, "HmacSHA256"));
+            mac.update(stored.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(password);
+        } catch (GeneralSecurityException e) {
+            // Every Java platform is required to support HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * A recent successful login.
+     */
+    private static class Verified {
+        private final String stored;
+        private final byte[] fingerprint;
+        private final long expiresAt;
+
+        Verified(String stored, byte[] fingerprint, long expiresAt) {
+            this.stored = stored;
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
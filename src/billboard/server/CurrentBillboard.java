@@ -0,0 +1,165 @@
+package billboard.server;
+
+import billboard.objects.Bilboard;
+import billboard.objects.Scene;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+
+
+/**
+ * The billboard the server is currently showing, together with a version token that identifies its content. Viewers
+ * send back the last version they received, so the server can answer "not modified" without sending the billboard
+ * again. The token is a hash of the XML and is only recomputed when the billboard changes, not on every request.
+ * <p>
+ * The billboard either comes from a fixed XML file, or is whichever billboard the schedule says is showing. In the
+ * second case the billboard is only read from the database when the scheduled billboard changes or is edited.
+ */
+public class CurrentBillboard {
+    // The source file is checked for changes at most this often, rather than on every request
+    static private final long CHECK_INTERVAL_MS = 1000;
+
+    // File source
+    private final Path source;
+
+    // Schedule source
+    private final ScheduleEngine schedule;
+    private final Database database;
+    private String loadedBillboard;
+    private long loadedGeneration = -1;
+
+    private long sourceModified = -1;
+    private long lastChecked = 0;
+    private String xml;
+    private byte[] version;
+
+
+    /**
+     * Creates the current billboard from an XML file. The file is re-read when it is modified.
+     * @param source Path of the billboard XML file.
+     */
+    public CurrentBillboard(Path source) {
+        this.source = source;
+        this.schedule = null;
+        this.database = null;
+    }
+
+
+    /**
+     * Creates the current billboard from the schedule.
+     * @param schedule The schedule engine saying which billboard is showing.
+     * @param database Database holding the billboards.
+     */
+    public CurrentBillboard(ScheduleEngine schedule, Database database) {
+        this.source = null;
+        this.schedule = schedule;
+        this.database = database;
+    }
+
+
+    /**
+     * @return The version token of the current billboard, or null if no billboard could be read.
+     */
+    public synchronized byte[] getVersion() {
+        refresh();
+        return version == null ? null : version.clone();
+    }
+
+
+    /**
+     * @return The XML of the current billboard, or null if no billboard could be read.
+     */
+    public synchronized String getXml() {
+        refresh();
+        return xml;
+    }
+
+
+    /**
+     * Re-reads the billboard if its source has changed since it was last read.
+     */
+    private void refresh() {
+        if (schedule != null) {
+            refreshFromSchedule();
+        } else {
+            refreshFromFile();
+        }
+    }
+
+
+    /**
+     * Reads the scheduled billboard if a different one is now scheduled, or the schedule has been edited.
+     */
+    private void refreshFromSchedule() {
+        long generation = schedule.getGeneration();
+        Scene scene = schedule.getCurrentScene();
+        String name = scene == null ? null : scene.getBillboardName();
+        if (generation == loadedGeneration && Objects.equals(name, loadedBillboard)) {
+            return;
+        }
+
+        Bilboard billboard = null;
+        if (name != null) {
+            try {
+                billboard = database.getBillboard(name);
+            } catch (DatabaseException e) {
+                // Keep showing the current billboard and try again on the next request
+                System.err.println("Unable to read scheduled billboard " + name + ": " + e.getMessage());
+                return;
+            }
+        }
+        if (billboard == null) {
+            xml = null;
+            version = null;
+        } else if (!billboard.getXml().equals(xml)) {
+            xml = billboard.getXml();
+            version = hash(xml);
+        }
+        loadedBillboard = name;
+        loadedGeneration = generation;
+    }
+
+
+    /**
+     * Re-reads the billboard if the source file has changed since it was last read.
+     */
+    private void refreshFromFile() {
+        long now = System.currentTimeMillis();
+        if (version != null && now - lastChecked < CHECK_INTERVAL_MS) {
+            return;
+        }
+        lastChecked = now;
+        try {
+            long modified = Files.getLastModifiedTime(source).toMillis();
+            if (modified == sourceModified) {
+                return;
+            }
+            String newXml = new String(Files.readAllBytes(source), StandardCharsets.UTF_8);
+            xml = newXml;
+            version = hash(newXml);
+            sourceModified = modified;
+        } catch (IOException e) {
+            System.err.println("Unable to read current billboard: " + source);
+        }
+    }
+
+
+    /**
+     * Hashes the billboard XML with SHA-256.
+     * @param xml XML to hash.
+     * @return The 32 byte hash.
+     */
+    static byte[] hash(String xml) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(xml.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
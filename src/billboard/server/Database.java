@@ -1,5 +1,139 @@
 package billboard.server;
 
+import billboard.objects.Bilboard;
+import billboard.objects.Permission;
+import billboard.objects.Scene;
+import billboard.objects.Schedule;
+import billboard.objects.User;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Storage for the users, billboards and schedule of the billboard server. Implementations must be safe to use from
+ * many server worker threads at once.
+ * @see RealDatabase Stores everything in a JDBC database.
+ * @see StubDatabase Keeps everything in memory.
+ */
 public interface Database {
-    //RandomFunc()
+    // Users
+
+    /**
+     * @param username Name of the user.
+     * @return The user, or null if there is no user with that name.
+     */
+    User getUser(String username) throws DatabaseException;
+
+    /**
+     * @return Every user, ordered by username.
+     */
+    List<User> listUsers() throws DatabaseException;
+
+    /**
+     * Adds a new user.
+     * @param user The user to add.
+     * @return True if the user was added, false if a user with that name already exists.
+     */
+    boolean addUser(User user) throws DatabaseException;
+
+    /**
+     * Replaces the stored password hash of a user.
+     * @param username Name of the user.
+     * @param passwordHash The new stored password hash.
+     * @return True if the password was changed, false if there is no user with that name.
+     */
+    boolean setPasswordHash(String username, String passwordHash) throws DatabaseException;
+
+    /**
+     * Replaces the permissions of a user.
+     * @param username Name of the user.
+     * @param permissions The user's new permissions.
+     * @return True if the permissions were changed, false if there is no user with that name.
+     */
+    boolean setPermissions(String username, Set<Permission> permissions) throws DatabaseException;
+
+    /**
+     * Deletes a user. Billboards and scenes they created are kept.
+     * @param username Name of the user.
+     * @return True if the user was deleted, false if there is no user with that name.
+     */
+    boolean deleteUser(String username) throws DatabaseException;
+
+
+    // Billboards
+
+    /**
+     * @param name Name of the billboard.
+     * @return The billboard, or null if there is no billboard with that name.
+     */
+    Bilboard getBillboard(String name) throws DatabaseException;
+
+    /**
+     * @return Every billboard, ordered by name.
+     */
+    List<Bilboard> listBillboards() throws DatabaseException;
+
+    /**
+     * Lists billboards a page at a time, ordered by name, without reading their XML. A page starts after the last name
+     * on the previous page rather than at an offset, so every page costs the same however far into the list it is,
+     * and billboards added or deleted in the meantime do not shift the pages that follow.
+     * @param after Name of the last billboard on the previous page, or the empty string for the first page.
+     * @param limit Maximum number of billboards to list.
+     * @return The billboards, with empty XML.
+     */
+    List<Bilboard> listBillboardPage(String after, int limit) throws DatabaseException;
+
+    /**
+     * @return Number of billboards.
+     */
+    int countBillboards() throws DatabaseException;
+
+    /**
+     * Stores a billboard, replacing any billboard with the same name.
+     * @param billboard The billboard to store.
+     */
+    void saveBillboard(Bilboard billboard) throws DatabaseException;
+
+    /**
+     * Stores many billboards in one transaction, replacing any with the same names. Either all of them are stored or
+     * none are.
+     * @param billboards The billboards to store.
+     */
+    void saveBillboards(Collection<Bilboard> billboards) throws DatabaseException;
+
+    /**
+     * Deletes a billboard and every scene that shows it.
+     * @param name Name of the billboard.
+     * @return True if the billboard was deleted, false if there is no billboard with that name.
+     */
+    boolean deleteBillboard(String name) throws DatabaseException;
+
+
+    // Schedule
+
+    /**
+     * @return The schedule, with scenes in the order they were scheduled.
+     */
+    Schedule getSchedule() throws DatabaseException;
+
+    /**
+     * Adds a scene to the schedule.
+     * @param scene The scene to add. Its id is ignored.
+     * @return The scene with the id it was given.
+     */
+    Scene addScene(Scene scene) throws DatabaseException;
+
+    /**
+     * Removes a scene from the schedule.
+     * @param id Identifier of the scene.
+     * @return True if the scene was removed, false if there is no scene with that id.
+     */
+    boolean removeScene(long id) throws DatabaseException;
+
+    /**
+     * Releases any resources held by the database, such as open connections.
+     */
+    void close();
 }
@@ -0,0 +1,135 @@
+package billboard.server;
+
+import billboard.objects.Bilboard;
+import billboard.objects.Permission;
+import billboard.objects.Scene;
+import billboard.objects.User;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Checks that a Database implementation follows the Database contract, then measures it under concurrent load. Both
+ * implementations are run through the same checks, so they can be compared and kept consistent. Each load thread
+ * repeatedly saves a batch of billboards, reads them back, lists the billboards and schedules a scene.
+ * <p>
+ * Usage: DatabaseBenchmark [stub|real] [threads] [rounds per thread] [db.props path]
+ */
+public class DatabaseBenchmark {
+    static private final int BATCH_SIZE = 20;
+    static private final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<billboard><message>Benchmark billboard</message></billboard>";
+
+    public static void main(String[] args) throws Exception {
+        String kind = args.length > 0 ? args[0] : "stub";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        Database database;
+        if (kind.equals("real")) {
+            String propsPath = args.length > 3 ? args[3] : "db.props";
+            database = new RealDatabase(RealDatabase.readProperties(Paths.get(propsPath)));
+        } else {
+            database = new StubDatabase();
+        }
+
+        try {
+            checkContract(database);
+            System.out.println(kind + " database follows the contract");
+            runLoad(database, threads, rounds);
+        } finally {
+            database.close();
+        }
+    }
+
+
+    /**
+     * Checks the behaviour every Database implementation must share.
+     */
+    private static void checkContract(Database database) throws DatabaseException {
+        String username = "contract-user-" + System.nanoTime();
+        User user = new User(username, "hash", EnumSet.of(Permission.CREATE_BILLBOARDS));
+        check(database.addUser(user), "a new user is added");
+        check(!database.addUser(user), "a duplicate username is refused");
+        check(user.equals(database.getUser(username)), "a user reads back as written");
+        check(database.setPermissions(username, EnumSet.allOf(Permission.class)), "permissions are set");
+        check(database.getUser(username).hasPermission(Permission.EDIT_USERS), "permissions read back");
+        check(database.setPasswordHash(username, "other"), "the password is set");
+        check(database.getUser(username).getPasswordHash().equals("other"), "the password reads back");
+        check(!database.setPermissions(username + "-missing", EnumSet.noneOf(Permission.class)),
+                "permissions of a missing user are not set");
+
+        String name = "contract-billboard-" + System.nanoTime();
+        database.saveBillboard(new Bilboard(name, username, XML));
+        database.saveBillboard(new Bilboard(name, username, XML + " "));
+        check(database.getBillboard(name).getXml().equals(XML + " "), "saving a billboard replaces it");
+        Scene scene = database.addScene(new Scene(0, name, username, System.currentTimeMillis(), 30, 0));
+        check(scene.getId() > 0, "a scene is given an id");
+        check(database.getSchedule().getScenes().contains(scene), "the schedule holds the scene");
+        check(database.deleteBillboard(name), "the billboard is deleted");
+        check(database.getBillboard(name) == null, "a deleted billboard is gone");
+        check(!database.getSchedule().getScenes().contains(scene), "scenes of a deleted billboard are removed");
+        check(!database.removeScene(scene.getId()), "a removed scene cannot be removed again");
+
+        check(database.deleteUser(username), "the user is deleted");
+        check(database.getUser(username) == null, "a deleted user is gone");
+    }
+
+
+    /**
+     * Runs the load threads and reports the throughput.
+     */
+    private static void runLoad(Database database, int threads, int rounds) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            String prefix = "load-" + t + "-";
+            results.add(executor.submit(() -> {
+                List<Bilboard> batch = new ArrayList<>();
+                for (int round = 0; round < rounds; round++) {
+                    batch.clear();
+                    for (int i = 0; i < BATCH_SIZE; i++) {
+                        batch.add(new Bilboard(prefix + i, prefix, XML));
+                    }
+                    database.saveBillboards(batch);
+                    for (int i = 0; i < BATCH_SIZE; i++) {
+                        check(database.getBillboard(prefix + i) != null, "a saved billboard reads back");
+                    }
+                    database.listBillboards();
+                    Scene scene = database.addScene(new Scene(0, prefix + 0, prefix, 0, 1, 0));
+                    database.removeScene(scene.getId());
+                }
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    database.deleteBillboard(prefix + i);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        // Each round writes a batch, reads each billboard, lists, then adds and removes a scene
+        long operations = (long) threads * rounds * (BATCH_SIZE + 4);
+        System.out.printf("%d threads x %d rounds: %.2f s, %.0f operations/s%n",
+                threads, rounds, seconds, operations / seconds);
+    }
+
+
+    private static void check(boolean condition, String expectation) {
+        if (!condition) {
+            throw new IllegalStateException("Contract violated: expected that " + expectation);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package billboard.server;
+
+/**
+ * Thrown when the database cannot carry out an operation, such as when it cannot be reached or a statement fails.
+ * Operations that simply find nothing, such as looking up a user who does not exist, return null or false instead.
+ */
+public class DatabaseException extends Exception {
+    public DatabaseException(String message) {
+        super(message);
+    }
+
+    public DatabaseException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
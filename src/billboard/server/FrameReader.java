@@ -0,0 +1,252 @@
+package billboard.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Decodes frames in the wire protocol. A reader keeps one buffer that grows as the bytes of a frame arrive and is
+ * reused for every frame; trim() drops it once a large frame has been dealt with. A receiver that wants to check a
+ * frame before taking on its payload reads the header alone with readHeader(), and then the payload with
+ * readPayload(), optionally reading its leading session token first with readLeadingString().
+ * Fields are read in place from that buffer; fields the receiver does not need can be skipped or compared without
+ * being copied out. A reader is not thread safe; keep one per connection or per thread.
+ * @see Protocol
+ */
+public class FrameReader {
+    static private final int INITIAL_CAPACITY = 4096;
+    static private final int RETAINED_CAPACITY = 256 * 1024;   // Larger buffers are dropped by trim()
+
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private int payloadSize;    // Size of the payload of the frame whose header was read last
+
+
+    /**
+     * Reads the next frame from the stream into this reader.
+     * @param in Stream to read from.
+     * @return Type of the message received, or null if the stream ended cleanly before a frame started.
+     * @throws IOException If the stream failed or the frame does not follow the wire format.
+     */
+    public MessageType read(InputStream in) throws IOException {
+        MessageType type = readHeader(in);
+        if (type != null) {
+            readPayload(in);
+        }
+        return type;
+    }
+
+
+    /**
+     * Reads the header of the next frame, checking its payload size against the limit for its type, but none of its
+     * payload.
+     * @param in Stream to read from.
+     * @return Type of the message, or null if the stream ended cleanly before a frame started.
+     * @throws IOException If the stream failed or the header does not follow the wire format.
+     */
+    public MessageType readHeader(InputStream in) throws IOException {
+        buffer.clear();
+        if (!readFully(in, Protocol.HEADER_SIZE, true)) {
+            return null;
+        }
+
+        int version = buffer.get(0) & 0xFF;
+        if (version != Protocol.VERSION) {
+            throw new ProtocolException("Unsupported protocol version " + version);
+        }
+        MessageType type = MessageType.fromCode(buffer.get(1) & 0xFF);
+        if (type == null) {
+            throw new ProtocolException("Unknown message type " + (buffer.get(1) & 0xFF));
+        }
+        int size = buffer.getInt(2);
+        if (size < 0 || size > type.getMaxPayloadSize()) {
+            throw new ProtocolException("Invalid payload size " + size + " for " + type);
+        }
+        payloadSize = size;
+        buffer.clear();
+        return type;
+    }
+
+
+    /**
+     * Reads the first field of the payload of the frame whose header was just read, as a string, without reading the
+     * rest. The field is kept, so once readPayload() has been called it is read again as the first field.
+     * @param in Stream to read from.
+     * @param maxLength Longest string accepted, in bytes.
+     * @return The string.
+     * @throws IOException If the stream failed, or the field is longer than maxLength or than the payload.
+     */
+    public String readLeadingString(InputStream in, int maxLength) throws IOException {
+        if (buffer.position() != 0 || payloadSize < 4) {
+            throw new ProtocolException("Frame payload has no leading string");
+        }
+        readPayload(in, 4);
+        int length = buffer.getInt(0);
+        if (length < 0 || length > maxLength || length > payloadSize - 4) {
+            throw new ProtocolException("Invalid leading string length " + length);
+        }
+        readPayload(in, 4 + length);
+        return new String(buffer.array(), 4, length, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Reads the rest of the payload of the frame whose header was just read, ready for its fields to be read.
+     * @param in Stream to read from.
+     * @throws IOException If the stream failed or ended part way through.
+     */
+    public void readPayload(InputStream in) throws IOException {
+        readPayload(in, payloadSize);
+        buffer.flip();
+    }
+
+
+    /**
+     * Drops the buffer if a large frame grew it, so a reader kept between frames does not hold on to the memory. Any
+     * fields of the last frame not yet read are lost.
+     */
+    public void trim() {
+        if (buffer.capacity() > RETAINED_CAPACITY) {
+            buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+    }
+
+
+    public int getInt() throws ProtocolException {
+        require(4);
+        return buffer.getInt();
+    }
+
+
+    public long getLong() throws ProtocolException {
+        require(8);
+        return buffer.getLong();
+    }
+
+
+    /**
+     * Reads a length-prefixed byte array.
+     * @return A copy of the bytes.
+     * @throws ProtocolException If the payload ends early.
+     */
+    public byte[] getBytes() throws ProtocolException {
+        byte[] value = new byte[getFieldLength()];
+        buffer.get(value);
+        return value;
+    }
+
+
+    /**
+     * Reads a length-prefixed UTF-8 string, decoding it straight from the frame buffer.
+     * @return The string.
+     * @throws ProtocolException If the payload ends early.
+     */
+    public String getString() throws ProtocolException {
+        int length = getFieldLength();
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+
+    /**
+     * Skips over a length-prefixed string or byte array.
+     * @throws ProtocolException If the payload ends early.
+     */
+    public void skipField() throws ProtocolException {
+        int length = getFieldLength();
+        buffer.position(buffer.position() + length);
+    }
+
+
+    /**
+     * Reads a length-prefixed byte array and compares it with the expected bytes, without copying it out.
+     * @param expected Bytes to compare against.
+     * @return True if the field holds exactly the expected bytes.
+     * @throws ProtocolException If the payload ends early.
+     */
+    public boolean fieldEquals(byte[] expected) throws ProtocolException {
+        int length = getFieldLength();
+        int start = buffer.position();
+        buffer.position(start + length);
+        if (expected == null || length != expected.length) {
+            return false;
+        }
+        byte[] array = buffer.array();
+        for (int i = 0; i < length; i++) {
+            if (array[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Reads the length prefix of a field and checks the field fits in the remaining payload.
+     */
+    private int getFieldLength() throws ProtocolException {
+        int length = getInt();
+        if (length < 0) {
+            throw new ProtocolException("Negative field length " + length);
+        }
+        require(length);
+        return length;
+    }
+
+
+    private void require(int bytes) throws ProtocolException {
+        if (buffer.remaining() < bytes) {
+            throw new ProtocolException("Frame payload ended early");
+        }
+    }
+
+
+    /**
+     * Reads the payload into the buffer up to the given length, growing the buffer only as the bytes arrive. A header
+     * claiming a large payload therefore costs nothing until the payload is actually sent.
+     * @param in Stream to read from.
+     * @param length Number of bytes of the payload to have read.
+     * @throws IOException If the stream failed or ended part way through.
+     */
+    private void readPayload(InputStream in, int length) throws IOException {
+        while (buffer.position() < length) {
+            if (buffer.remaining() == 0) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.min(length, buffer.capacity() * 2));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            readFully(in, Math.min(length - buffer.position(), buffer.remaining()), false);
+        }
+    }
+
+
+    /**
+     * Reads exactly 'length' bytes from the stream into the buffer.
+     * @param in Stream to read from.
+     * @param length Number of bytes to read.
+     * @param eofAllowed Whether the stream may end cleanly before the first byte.
+     * @return False if the stream ended before the first byte and that was allowed.
+     * @throws IOException If the stream failed or ended part way through.
+     */
+    private boolean readFully(InputStream in, int length, boolean eofAllowed) throws IOException {
+        byte[] array = buffer.array();
+        int offset = buffer.position();
+        int read = 0;
+        while (read < length) {
+            int count = in.read(array, offset + read, length - read);
+            if (count < 0) {
+                if (read == 0 && eofAllowed) {
+                    return false;
+                }
+                throw new EOFException("Connection closed part way through a frame");
+            }
+            read += count;
+        }
+        buffer.position(offset + length);
+        return true;
+    }
+}
@@ -0,0 +1,141 @@
+package billboard.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Encodes frames in the wire protocol. A writer keeps one buffer that grows as needed and is reused for every frame
+ * until trim() drops it, and strings are encoded straight into it, so writing a message does not allocate per field.
+ * A writer is not thread safe; keep one per connection or per thread.
+ * @see Protocol
+ */
+public class FrameWriter {
+    static private final int INITIAL_CAPACITY = 4096;
+    static private final int RETAINED_CAPACITY = 256 * 1024;   // Larger buffers are dropped by trim()
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private MessageType type;
+
+
+    /**
+     * Starts a new frame, discarding anything written since the last one.
+     * @param type Type of the message.
+     * @return This writer, for chaining.
+     */
+    public FrameWriter begin(MessageType type) {
+        this.type = type;
+        buffer.clear();
+        buffer.position(Protocol.HEADER_SIZE);
+        return this;
+    }
+
+
+    public FrameWriter putInt(int value) {
+        ensureCapacity(4);
+        buffer.putInt(value);
+        return this;
+    }
+
+
+    public FrameWriter putLong(long value) {
+        ensureCapacity(8);
+        buffer.putLong(value);
+        return this;
+    }
+
+
+    /**
+     * Writes a length-prefixed byte array.
+     * @param value Bytes to write.
+     * @return This writer, for chaining.
+     */
+    public FrameWriter putBytes(byte[] value) {
+        ensureCapacity(4 + value.length);
+        buffer.putInt(value.length);
+        buffer.put(value);
+        return this;
+    }
+
+
+    /**
+     * Writes a length-prefixed UTF-8 string. The characters are encoded directly into the frame buffer.
+     * @param value String to write.
+     * @return This writer, for chaining.
+     */
+    public FrameWriter putString(String value) {
+        ensureCapacity(4 + value.length());
+        int lengthPosition = buffer.position();
+        buffer.position(lengthPosition + 4);
+
+        CharBuffer chars = CharBuffer.wrap(value);
+        encoder.reset();
+        while (encoder.encode(chars, buffer, true) == CoderResult.OVERFLOW) {
+            ensureCapacity(Math.max(16, chars.remaining() * 3));
+        }
+        while (encoder.flush(buffer) == CoderResult.OVERFLOW) {
+            ensureCapacity(16);
+        }
+
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+        return this;
+    }
+
+
+    /**
+     * Fills in the frame header and writes the whole frame to the stream in one call.
+     * @param out Stream to write to. It is flushed after the frame is written.
+     * @throws IOException If the frame is too large or the stream could not be written.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        int payloadSize = buffer.position() - Protocol.HEADER_SIZE;
+        if (payloadSize > Protocol.MAX_PAYLOAD_SIZE) {
+            throw new ProtocolException("Frame payload of " + payloadSize + " bytes is too large");
+        }
+        buffer.put(0, (byte) Protocol.VERSION);
+        buffer.put(1, (byte) type.getCode());
+        buffer.putInt(2, payloadSize);
+        out.write(buffer.array(), 0, buffer.position());
+        out.flush();
+    }
+
+
+    /**
+     * Drops the buffer if a large frame grew it, so a writer kept between frames does not hold on to the memory. Call
+     * once the frame has been written.
+     */
+    public void trim() {
+        if (buffer.capacity() > RETAINED_CAPACITY) {
+            buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+    }
+
+
+    /**
+     * Grows the buffer, if needed, so that at least 'extra' more bytes can be written.
+     * @param extra Number of bytes about to be written.
+     */
+    private void ensureCapacity(int extra) {
+        if (buffer.remaining() >= extra) {
+            return;
+        }
+        int required = buffer.position() + extra;
+        int capacity = buffer.capacity();
+        while (capacity < required) {
+            capacity *= 2;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+}
@@ -0,0 +1,148 @@
+package billboard.server;
+
+/**
+ * The catalogue of messages in the wire protocol, with the payload of each. Requests are sent by the control panel and
+ * the viewer; the server answers each with one of the response types. Viewers that subscribe are then sent events.
+ * <p>
+ * Requests carrying a session token are answered with ERROR if the session has expired or the user lacks the
+ * permission the request needs; otherwise with OK and the payload listed, or ERROR with the reason.
+ * <p>
+ * Request payloads are limited to Protocol.MAX_SMALL_PAYLOAD_SIZE, except for the requests that carry a billboard,
+ * whose session token the server checks before it reads the rest of the payload. Imports and exports, which carry
+ * many billboards, send them as a chunked stream after the frame instead.
+ */
+public enum MessageType {
+    // Requests
+    /** Payload: string username, bytes hashed password (see Protocol.hashPassword). Answered with OK, string session
+     * token and int permissions (see Permission.toMask), or ERROR. */
+    LOGIN(1),
+    /** Payload: string session token, string username, bytes hashed password, int permissions. Needs Edit Users. */
+    REGISTER(2),
+    /** Payload: bytes version of the billboard held. Answered with OK, bytes version and string XML, or NOT_MODIFIED. */
+    GET_CURRENT_BILLBOARD(3),
+    /** Payload: string session token. Answered with OK, int count and that many string billboard names. */
+    LIST_BILLBOARDS(4),
+    /** Payload: string session token, string billboard name, string XML. Needs Create Billboards. */
+    CREATE_BILLBOARD(5, Protocol.MAX_PAYLOAD_SIZE),
+    /** Payload: string session token, string billboard name, string XML. Needs Edit All Billboards, or Create
+     * Billboards for the user's own billboards. */
+    EDIT_BILLBOARD(6, Protocol.MAX_PAYLOAD_SIZE),
+    /** Payload: string session token, string billboard name, long start time (ms), int duration (minutes), int repeat
+     * interval (minutes, 0 for none). Needs Schedule Billboards. */
+    SCHEDULE_BILLBOARD(7),
+    /** Payload: bytes version of the timeline held. Answered with OK, bytes version, long window start (ms), long
+     * window end (ms), int count and that many segments of long start, long end, string billboard name and bytes
+     * content hash; NOT_MODIFIED; NOT_SCHEDULED if the server is not following a schedule; or ERROR if the schedule
+     * could not be read, which is worth asking again. */
+    GET_TIMELINE(8),
+    /** Payload: string billboard name. Answered with OK, bytes content hash and string XML. */
+    GET_BILLBOARD(9),
+    /** Empty payload. Answered with OK, after which the connection stays open and the server sends EVENT frames. */
+    SUBSCRIBE(10),
+    /** Payload: string session token. Ends the session. Answered with OK. */
+    LOGOUT(11),
+    /** Payload: string session token, string username, int permissions. Needs Edit Users. */
+    SET_PERMISSIONS(12),
+    /** Payload: string blob hash, as in the blob attribute of a picture (see ContentStore). Answered with OK and bytes
+     * blob, or ERROR if there is no such blob. */
+    GET_BLOB(13),
+    /** Payload: string billboard name (empty for the current billboard), int width, int height, int format (see
+     * BillboardRenderer), bytes version of the image held. Answered with OK, bytes version, int format, int width, int
+     * height and bytes image; NOT_MODIFIED; BUSY if too many renders are waiting; or ERROR. */
+    RENDER_BILLBOARD(14),
+    /** Payload: string session token, string name of the last billboard on the previous page (empty for the first
+     * page), int page size (at most ControlPanelRequests.MAX_PAGE_SIZE). Answered with OK, int total number of
+     * billboards, int count and that many billboards of string name and string creator, in name order. */
+    LIST_BILLBOARD_PAGE(15),
+    /** Payload: string session token. Needs Create Billboards. Answered with OK, after which the client sends a zip of
+     * billboard XML files (see BillboardImporter) as a chunked stream (see Protocol); billboards that already exist
+     * are not replaced. Once the stream ends, answered again with OK, int files read, int billboards imported, int
+     * files rejected, int count and that many rejects of string file and string reason; or ERROR. */
+    IMPORT_BILLBOARDS(16),
+    /** Payload: string session token. Needs Edit All Billboards. Answered with OK, then a zip of every billboard as
+     * an XML file sent as a chunked stream, then OK and int billboards exported, or ERROR if the export failed part
+     * way. */
+    EXPORT_BILLBOARDS(17),
+
+    // Responses
+    /** Payload depends on the request. */
+    OK(64),
+    /** Empty payload. The requester already has the current version. */
+    NOT_MODIFIED(65),
+    /** Payload: string reason. */
+    ERROR(66),
+    /** Empty payload. The server is overloaded; try again later. */
+    BUSY(67),
+    /** Empty payload. The server is not following a schedule; ask for the current billboard instead. */
+    NOT_SCHEDULED(68),
+
+    // Pushed by the server to subscribers
+    /** Payload: int change flags (see ChangeNotifier). Sent with no flags as a heartbeat. */
+    EVENT(96);
+
+    private static final int FIRST_RESPONSE_CODE = 64;
+    private static final MessageType[] BY_CODE = new MessageType[256];
+    static {
+        for (MessageType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final int code;
+    private final int maxPayloadSize;
+
+    MessageType(int code) {
+        this(code, code < FIRST_RESPONSE_CODE ? Protocol.MAX_SMALL_PAYLOAD_SIZE : Protocol.MAX_PAYLOAD_SIZE);
+    }
+
+    MessageType(int code, int maxPayloadSize) {
+        this.code = code;
+        this.maxPayloadSize = maxPayloadSize;
+    }
+
+
+    /**
+     * @return The byte that identifies this message type on the wire.
+     */
+    public int getCode() {
+        return code;
+    }
+
+
+    /**
+     * @return True if this is a request, which clients send, rather than a response or event, which only the server
+     * sends.
+     */
+    public boolean isRequest() {
+        return code < FIRST_RESPONSE_CODE;
+    }
+
+
+    /**
+     * @return The largest payload a frame of this type may carry. Requests are limited to
+     * Protocol.MAX_SMALL_PAYLOAD_SIZE, so they cannot make the server take on large frames, except those that carry
+     * billboards (see isLargeRequest()).
+     */
+    public int getMaxPayloadSize() {
+        return maxPayloadSize;
+    }
+
+
+    /**
+     * @return True if this is a request that may carry more than Protocol.MAX_SMALL_PAYLOAD_SIZE. Such a request
+     * starts with a session token, which the server checks before reading the rest.
+     */
+    public boolean isLargeRequest() {
+        return isRequest() && maxPayloadSize > Protocol.MAX_SMALL_PAYLOAD_SIZE;
+    }
+
+
+    /**
+     * Looks up a message type by its wire code.
+     * @param code The wire code.
+     * @return The message type, or null if the code is not in the catalogue.
+     */
+    public static MessageType fromCode(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
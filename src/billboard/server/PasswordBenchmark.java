@@ -0,0 +1,87 @@
+package billboard.server;
+
+import billboard.objects.Permission;
+import billboard.objects.User;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * Measures how many logins per second the credential service sustains at each PBKDF2 cost, to help choose the
+ * billboard.pbkdf2Iterations setting: as high as possible while the expected rate of logins can still be kept up with.
+ * At each cost, a set of users log in once each, which runs PBKDF2 for every login, then log in again, which is
+ * answered from the verification cache.
+ * <p>
+ * Usage: PasswordBenchmark [users] [verifier threads] [iteration counts...]
+ */
+public class PasswordBenchmark {
+    static private final int[] DEFAULT_COSTS = {10000, 100000, 310000, 600000};
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int verifiers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int[] costs = DEFAULT_COSTS;
+        if (args.length > 2) {
+            costs = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) {
+                costs[i - 2] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.printf("%d users, %d verifier threads%n", users, verifiers);
+        System.out.printf("%12s %14s %16s %16s%n", "iterations", "ms per hash", "logins/s", "cached logins/s");
+        for (int cost : costs) {
+            run(cost, users, verifiers);
+        }
+    }
+
+
+    private static void run(int iterations, int userCount, int verifierCount) throws Exception {
+        PasswordHasher hasher = new PasswordHasher(iterations);
+        Database database = new StubDatabase();
+        CredentialService credentials = new CredentialService(database, hasher, verifierCount);
+        byte[] password = Protocol.hashPassword("benchmark password");
+        for (int i = 0; i < userCount; i++) {
+            database.addUser(new User("user" + i, hasher.hash(password), EnumSet.noneOf(Permission.class)));
+        }
+
+        long begin = System.nanoTime();
+        hasher.verify(password, database.getUser("user0").getPasswordHash());
+        double hashMs = (System.nanoTime() - begin) / 1e6;
+
+        double loginsPerSecond = logIn(credentials, userCount, password);
+        double cachedPerSecond = logIn(credentials, userCount, password);
+        System.out.printf("%12d %14.1f %16.1f %16.0f%n", iterations, hashMs, loginsPerSecond, cachedPerSecond);
+        credentials.shutdown();
+    }
+
+
+    /**
+     * Logs every user in at once and waits for all of them.
+     * @return Logins per second.
+     */
+    private static double logIn(CredentialService credentials, int userCount, byte[] password) throws Exception {
+        List<CompletableFuture<User>> logins = new ArrayList<>();
+        long begin = System.nanoTime();
+        for (int i = 0; i < userCount; i++) {
+            while (true) {
+                try {
+                    logins.add(credentials.authenticate("user" + i, password));
+                    break;
+                } catch (RejectedExecutionException e) {
+                    Thread.sleep(1);   // The queue is full; a real client would be told BUSY and retry
+                }
+            }
+        }
+        for (CompletableFuture<User> login : logins) {
+            if (login.get() == null) {
+                throw new IllegalStateException("A correct password was refused");
+            }
+        }
+        return userCount / ((System.nanoTime() - begin) / 1e9);
+    }
+}
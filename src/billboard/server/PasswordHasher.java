@@ -0,0 +1,151 @@
+package billboard.server;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+
+/**
+ * Hashes passwords for storage with PBKDF2-HMAC-SHA256 and a random salt per password. The stored form records the
+ * iteration count and salt alongside the hash, as "pbkdf2-sha256$iterations$salt$hash", so the cost can be raised
+ * later without invalidating existing passwords; those are re-hashed at the new cost the next time they are verified.
+ * <p>
+ * The password given is whatever the client sends, which is already a SHA-256 hash of what the user typed, so the
+ * plain password never reaches the server.
+ */
+public class PasswordHasher {
+    static public final int DEFAULT_ITERATIONS = Integer.getInteger("billboard.pbkdf2Iterations", 310000);
+    static private final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    static private final String PREFIX = "pbkdf2-sha256";
+    static private final int SALT_BYTES = 16;
+    static private final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+
+    /**
+     * Creates a password hasher using DEFAULT_ITERATIONS, which is set by the billboard.pbkdf2Iterations system
+     * property.
+     */
+    public PasswordHasher() {
+        this(DEFAULT_ITERATIONS);
+    }
+
+
+    /**
+     * Creates a password hasher.
+     * @param iterations Number of PBKDF2 iterations for new hashes. Each doubling doubles the time taken to hash or
+     *                   verify a password, for the server and for anyone guessing passwords alike.
+     */
+    public PasswordHasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Iteration count must be positive: " + iterations);
+        }
+        this.iterations = iterations;
+    }
+
+
+    public int getIterations() {
+        return iterations;
+    }
+
+
+    /**
+     * Hashes a password with a new random salt.
+     * @param password The password as sent by the client.
+     * @return The stored form of the password.
+     */
+    public String hash(byte[] password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + "$" + iterations + "$" + base64.encodeToString(salt) + "$"
+                + base64.encodeToString(derive(password, salt, iterations));
+    }
+
+
+    /**
+     * Checks a password against its stored form. The comparison takes the same time however much of the hash matches.
+     * @param password The password as sent by the client.
+     * @param stored The stored form, as returned by hash.
+     * @return True if the password matches. False if it does not, or the stored form is not one this class wrote.
+     */
+    public boolean verify(byte[] password, String stored) {
+        Stored parsed = Stored.parse(stored);
+        if (parsed == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(derive(password, parsed.salt, parsed.iterations), parsed.hash);
+    }
+
+
+    /**
+     * @param stored The stored form of a password.
+     * @return True if the password should be hashed again, because it was hashed with fewer iterations than are now
+     * used or is not in a form this class wrote.
+     */
+    public boolean needsRehash(String stored) {
+        Stored parsed = Stored.parse(stored);
+        return parsed == null || parsed.iterations < iterations;
+    }
+
+
+    /**
+     * Runs PBKDF2. The password bytes are turned into hex characters, since PBEKeySpec takes characters.
+     */
+    private static byte[] derive(byte[] password, byte[] salt, int iterations) {
+        char[] chars = new char[password.length * 2];
+        for (int i = 0; i < password.length; i++) {
+            chars[2 * i] = Character.forDigit((password[i] >> 4) & 0xF, 16);
+            chars[2 * i + 1] = Character.forDigit(password[i] & 0xF, 16);
+        }
+        PBEKeySpec spec = new PBEKeySpec(chars, salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            // Every Java 8 platform supports PBKDF2WithHmacSHA256
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+
+    /**
+     * The parts of a stored password.
+     */
+    private static class Stored {
+        private final int iterations;
+        private final byte[] salt;
+        private final byte[] hash;
+
+        private Stored(int iterations, byte[] salt, byte[] hash) {
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+        }
+
+        static Stored parse(String stored) {
+            if (stored == null) {
+                return null;
+            }
+            String[] parts = stored.split("\\$");
+            if (parts.length != 4 || !parts[0].equals(PREFIX)) {
+                return null;
+            }
+            try {
+                int iterations = Integer.parseInt(parts[1]);
+                Base64.Decoder base64 = Base64.getDecoder();
+                return iterations < 1 ? null : new Stored(iterations, base64.decode(parts[2]), base64.decode(parts[3]));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package billboard.server;
+
+import billboard.viewer.BillboardContent;
+import billboard.viewer.BillboardIO;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.Iterator;
+
+
+/**
+ * Fetches and decodes billboard pictures for the server's renderer. The viewer's ImageCache trusts the billboard it
+ * is showing, but the server renders any stored billboard for anyone who asks, so a picture is only fetched here when
+ * that cannot be used to read the server's files or reach the network behind it, or to exhaust its memory:
+ * <ul>
+ *     <li>URLs must be http or https, and by default must not name a loopback, private or link-local address.
+ *     Redirects are not followed, as they would skip that check.</li>
+ *     <li>At most MAX_PICTURE_BYTES are read, from a URL or decoded from Base64.</li>
+ *     <li>The width and height of the image are read from its header and checked before it is decoded.</li>
+ * </ul>
+ * Pictures that break these rules are left out of the render, as pictures that cannot be fetched are in the viewer.
+ */
+public class PictureFetcher {
+    static public final int MAX_PICTURE_BYTES = 8 * 1024 * 1024;
+    static public final int MAX_PICTURE_DIMENSION = 8192;
+    static public final long MAX_PICTURE_PIXELS = 4096L * 4096;
+    static private final int TIMEOUT_MS = 5000;
+    static private final boolean ALLOW_PRIVATE_ADDRESSES = Boolean.getBoolean("billboard.renderPrivateUrls");
+
+
+    private PictureFetcher() {}
+
+
+    /**
+     * Gets the picture of a billboard. Blobs must already have been embedded (see ContentStore.embedBlobs); a picture
+     * still referring to a blob is one the store does not hold.
+     * @param content The billboard content.
+     * @return The decoded picture. Returns null if there is no picture, or it could not or may not be fetched.
+     */
+    public static Image fetch(BillboardContent content) {
+        if (content.getPictureUrl() != null) {
+            byte[] encoded = download(content.getPictureUrl());
+            return encoded == null ? null : decode(encoded, content.getPictureUrl());
+        }
+        if (content.getPictureData() != null) {
+            CharSequence data = content.getPictureData();
+            if ((long) data.length() * 3 / 4 > MAX_PICTURE_BYTES) {
+                System.err.println("Not rendering an embedded picture of " + data.length() + " characters: too large");
+                return null;
+            }
+            byte[] encoded = BillboardIO.decodeBase64(data);
+            return encoded == null ? null : decode(encoded, "embedded picture");
+        }
+        if (content.getPictureBlob() != null) {
+            System.err.println("Not rendering blob " + content.getPictureBlob() + ": it is not stored here");
+        }
+        return null;
+    }
+
+
+    /**
+     * Downloads a picture over http or https, refusing other schemes, private addresses and redirects.
+     * @return The encoded picture, or null if it could not or may not be fetched.
+     */
+    private static byte[] download(String location) {
+        HttpURLConnection connection = null;
+        try {
+            URL url = new URL(location);
+            String protocol = url.getProtocol().toLowerCase();
+            if (!protocol.equals("http") && !protocol.equals("https")) {
+                System.err.println("Not rendering " + location + ": only http and https pictures are fetched");
+                return null;
+            }
+            if (!ALLOW_PRIVATE_ADDRESSES && isPrivate(url.getHost())) {
+                System.err.println("Not rendering " + location + ": it is on a private address");
+                return null;
+            }
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setInstanceFollowRedirects(false);
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                System.err.println("Not rendering " + location + ": the server answered " + status);
+                return null;
+            }
+            if (connection.getContentLengthLong() > MAX_PICTURE_BYTES) {
+                System.err.println("Not rendering " + location + ": " + connection.getContentLengthLong()
+                        + " bytes is too large");
+                return null;
+            }
+            try (InputStream in = connection.getInputStream()) {
+                return readLimited(in, location);
+            }
+        } catch (IOException | ClassCastException e) {
+            System.err.println("Unable to fetch " + location + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+
+    /**
+     * @return True if any address of the host is loopback, private, link-local, unspecified or multicast.
+     */
+    private static boolean isPrivate(String host) throws IOException {
+        for (InetAddress address : InetAddress.getAllByName(host)) {
+            if (address.isLoopbackAddress() || address.isSiteLocalAddress() || address.isLinkLocalAddress()
+                    || address.isAnyLocalAddress() || address.isMulticastAddress()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Reads a stream to its end, giving up once more than MAX_PICTURE_BYTES have been read.
+     * @return The bytes, or null if there were too many.
+     */
+    private static byte[] readLimited(InputStream in, String location) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (out.size() + read > MAX_PICTURE_BYTES) {
+                System.err.println("Not rendering " + location + ": more than " + MAX_PICTURE_BYTES + " bytes");
+                return null;
+            }
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Decodes a picture, after checking the size its header gives.
+     * @return The image, or null if it could not be decoded or is too large.
+     */
+    private static Image decode(byte[] encoded, String source) {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                System.err.println("Unable to form image from " + source + ": unrecognised image format");
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (width > MAX_PICTURE_DIMENSION || height > MAX_PICTURE_DIMENSION
+                        || (long) width * height > MAX_PICTURE_PIXELS) {
+                    System.err.println("Not rendering " + source + ": " + width + "x" + height + " is too large");
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Unable to form image from " + source + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package billboard.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Wire format shared by the server, the control panel and the viewer.
+ * <p>
+ * Every message is sent as a frame: a one byte protocol version, a one byte message type (see MessageType) and a four
+ * byte big-endian payload length, followed by the payload. Payload fields are written back to back in the order listed
+ * for each message type. Integers are big-endian; strings and byte arrays are a four byte length followed by the UTF-8
+ * or raw bytes.
+ * <p>
+ * Transfers too large for a frame, such as imports and exports of billboards, follow a frame on the same connection
+ * as a chunked stream: chunks of a four byte big-endian length, at most MAX_CHUNK_SIZE, followed by that many bytes,
+ * ending with a chunk of length 0.
+ * @see FrameWriter
+ * @see FrameReader
+ * @see ChunkedOutputStream
+ */
+public class Protocol {
+    public static final int DEFAULT_PORT = 8000;
+
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 6;
+    public static final int MAX_PAYLOAD_SIZE = 32 * 1024 * 1024;
+    public static final int MAX_SMALL_PAYLOAD_SIZE = 64 * 1024;     // See MessageType.getMaxPayloadSize
+    public static final int MAX_CHUNK_SIZE = 64 * 1024;     // See ChunkedOutputStream
+
+    private Protocol() {}
+
+
+    /**
+     * Hashes a password the way clients do before sending it, so the plain password never leaves the client.
+     * @param password The password the user typed.
+     * @return The SHA-256 hash of the UTF-8 password.
+     */
+    public static byte[] hashPassword(String password) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
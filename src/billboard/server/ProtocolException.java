@@ -0,0 +1,13 @@
+package billboard.server;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a frame received from the network does not follow the wire format, such as an unsupported protocol
+ * version, an unknown message type or a payload that is too large.
+ */
+public class ProtocolException extends IOException {
+    public ProtocolException(String message) {
+        super(message);
+    }
+}
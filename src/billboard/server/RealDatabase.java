@@ -1,4 +1,448 @@
 package billboard.server;
 
+import billboard.objects.Bilboard;
+import billboard.objects.Permission;
+import billboard.objects.Scene;
+import billboard.objects.Schedule;
+import billboard.objects.User;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A Database stored in a JDBC database, by default an embedded H2 database file. The JDBC driver is not bundled with
+ * the server and must be on the classpath.
+ * <p>
+ * Connections come from a bounded ConnectionPool, and each statement is prepared once per connection. Writes of
+ * several rows are batched into one transaction. The SQL sticks to what H2, SQLite and Derby all accept, so any of
+ * them can be used by changing the URL in the properties file.
+ * <p>
+ * The properties file holds:
+ * <ul>
+ *     <li>jdbc.url - JDBC URL of the database (default jdbc:h2:./billboard_db)</li>
+ *     <li>jdbc.username and jdbc.password - credentials, if the database needs them</li>
+ *     <li>pool.size - maximum number of open connections (default 8)</li>
+ * </ul>
+ */
 public class RealDatabase implements Database {
+    // Configuration constants
+    static private final String DEFAULT_PROPERTIES_FILE = "db.props";
+    static private final String DEFAULT_URL = "jdbc:h2:./billboard_db";
+    static private final int DEFAULT_POOL_SIZE = 8;
+    static private final String INTEGRITY_VIOLATION_STATE = "23";   // SQLState class for duplicate keys
+
+    // Schema: name and definition of each table. Tables are looked up in the connection's metadata rather than
+    // created with IF NOT EXISTS, which Derby does not accept
+    static private final String[][] TABLES = {
+            {"users", "CREATE TABLE users (username VARCHAR(64) PRIMARY KEY, "
+                    + "password_hash VARCHAR(255) NOT NULL, permissions INT NOT NULL)"},
+            {"billboards", "CREATE TABLE billboards (name VARCHAR(128) PRIMARY KEY, "
+                    + "creator VARCHAR(64) NOT NULL, xml CLOB NOT NULL)"},
+            {"scenes", "CREATE TABLE scenes (id BIGINT PRIMARY KEY, billboard VARCHAR(128) NOT NULL, "
+                    + "creator VARCHAR(64) NOT NULL, start_time BIGINT NOT NULL, duration INT NOT NULL, "
+                    + "repeat_interval INT NOT NULL)"}
+    };
+
+    // Statements
+    static private final String SELECT_USER =
+            "SELECT username, password_hash, permissions FROM users WHERE username = ?";
+    static private final String SELECT_USERS =
+            "SELECT username, password_hash, permissions FROM users ORDER BY username";
+    static private final String INSERT_USER =
+            "INSERT INTO users (username, password_hash, permissions) VALUES (?, ?, ?)";
+    static private final String UPDATE_PASSWORD = "UPDATE users SET password_hash = ? WHERE username = ?";
+    static private final String UPDATE_PERMISSIONS = "UPDATE users SET permissions = ? WHERE username = ?";
+    static private final String DELETE_USER = "DELETE FROM users WHERE username = ?";
+    static private final String SELECT_BILLBOARD = "SELECT name, creator, xml FROM billboards WHERE name = ?";
+    static private final String SELECT_BILLBOARDS = "SELECT name, creator, xml FROM billboards ORDER BY name";
+    static private final String SELECT_BILLBOARD_PAGE =
+            "SELECT name, creator FROM billboards WHERE name > ? ORDER BY name";
+    static private final String COUNT_BILLBOARDS = "SELECT COUNT(*) FROM billboards";
+    static private final String INSERT_BILLBOARD = "INSERT INTO billboards (name, creator, xml) VALUES (?, ?, ?)";
+    static private final String DELETE_BILLBOARD = "DELETE FROM billboards WHERE name = ?";
+    static private final String SELECT_SCENES = "SELECT id, billboard, creator, start_time, duration, "
+            + "repeat_interval FROM scenes ORDER BY id";
+    static private final String INSERT_SCENE = "INSERT INTO scenes (id, billboard, creator, start_time, duration, "
+            + "repeat_interval) VALUES (?, ?, ?, ?, ?, ?)";
+    static private final String DELETE_SCENE = "DELETE FROM scenes WHERE id = ?";
+    static private final String DELETE_SCENES_OF_BILLBOARD = "DELETE FROM scenes WHERE billboard = ?";
+    static private final String SELECT_MAX_SCENE_ID = "SELECT MAX(id) FROM scenes";
+
+    private final ConnectionPool pool;
+    private final AtomicLong nextSceneId;
+
+
+    /**
+     * Opens the database described by db.props in the working directory, or the default database if there is no such
+     * file.
+     * @throws DatabaseException If the database could not be opened.
+     */
+    public RealDatabase() throws DatabaseException {
+        this(readProperties(Paths.get(DEFAULT_PROPERTIES_FILE)));
+    }
+
+
+    /**
+     * Opens a database, creating its tables if they do not exist yet.
+     * @param properties Database properties, as described for the properties file.
+     * @throws DatabaseException If the database could not be opened.
+     */
+    public RealDatabase(Properties properties) throws DatabaseException {
+        Properties credentials = new Properties();
+        if (properties.getProperty("jdbc.username") != null) {
+            credentials.setProperty("user", properties.getProperty("jdbc.username"));
+        }
+        if (properties.getProperty("jdbc.password") != null) {
+            credentials.setProperty("password", properties.getProperty("jdbc.password"));
+        }
+        int poolSize;
+        try {
+            poolSize = Integer.parseInt(properties.getProperty("pool.size", String.valueOf(DEFAULT_POOL_SIZE)));
+        } catch (NumberFormatException e) {
+            throw new DatabaseException("Invalid pool.size: " + properties.getProperty("pool.size"));
+        }
+        pool = new ConnectionPool(properties.getProperty("jdbc.url", DEFAULT_URL), credentials, poolSize);
+
+        createTables();
+        nextSceneId = new AtomicLong(execute("read the schedule", connection -> {
+            try (ResultSet result = connection.prepare(SELECT_MAX_SCENE_ID).executeQuery()) {
+                return result.next() ? result.getLong(1) + 1 : 1;
+            }
+        }));
+    }
+
+
+    /**
+     * Reads database properties from a file.
+     * @param path Path of the properties file.
+     * @return The properties, which are empty if the file does not exist.
+     * @throws DatabaseException If the file exists but could not be read.
+     */
+    public static Properties readProperties(Path path) throws DatabaseException {
+        Properties properties = new Properties();
+        if (!Files.exists(path)) {
+            return properties;
+        }
+        try (InputStream input = Files.newInputStream(path)) {
+            properties.load(input);
+        } catch (IOException e) {
+            throw new DatabaseException("Unable to read database properties from " + path, e);
+        }
+        return properties;
+    }
+
+
+    @Override
+    public User getUser(String username) throws DatabaseException {
+        return execute("get user " + username, connection -> {
+            PreparedStatement select = connection.prepare(SELECT_USER);
+            select.setString(1, username);
+            try (ResultSet result = select.executeQuery()) {
+                return result.next() ? readUser(result) : null;
+            }
+        });
+    }
+
+    @Override
+    public List<User> listUsers() throws DatabaseException {
+        return execute("list users", connection -> {
+            List<User> users = new ArrayList<>();
+            try (ResultSet result = connection.prepare(SELECT_USERS).executeQuery()) {
+                while (result.next()) {
+                    users.add(readUser(result));
+                }
+            }
+            return users;
+        });
+    }
+
+    @Override
+    public boolean addUser(User user) throws DatabaseException {
+        return execute("add user " + user.getUsername(), connection -> {
+            PreparedStatement insert = connection.prepare(INSERT_USER);
+            insert.setString(1, user.getUsername());
+            insert.setString(2, user.getPasswordHash());
+            insert.setInt(3, user.getPermissionMask());
+            try {
+                return insert.executeUpdate() == 1;
+            } catch (SQLException e) {
+                if (e.getSQLState() != null && e.getSQLState().startsWith(INTEGRITY_VIOLATION_STATE)) {
+                    return false;   // The username is taken
+                }
+                throw e;
+            }
+        });
+    }
+
+    @Override
+    public boolean setPasswordHash(String username, String passwordHash) throws DatabaseException {
+        return execute("set the password of " + username, connection -> {
+            PreparedStatement update = connection.prepare(UPDATE_PASSWORD);
+            update.setString(1, passwordHash);
+            update.setString(2, username);
+            return update.executeUpdate() == 1;
+        });
+    }
+
+    @Override
+    public boolean setPermissions(String username, Set<Permission> permissions) throws DatabaseException {
+        return execute("set the permissions of " + username, connection -> {
+            PreparedStatement update = connection.prepare(UPDATE_PERMISSIONS);
+            update.setInt(1, Permission.toMask(permissions));
+            update.setString(2, username);
+            return update.executeUpdate() == 1;
+        });
+    }
+
+    @Override
+    public boolean deleteUser(String username) throws DatabaseException {
+        return execute("delete user " + username, connection -> {
+            PreparedStatement delete = connection.prepare(DELETE_USER);
+            delete.setString(1, username);
+            return delete.executeUpdate() == 1;
+        });
+    }
+
+
+    @Override
+    public Bilboard getBillboard(String name) throws DatabaseException {
+        return execute("get billboard " + name, connection -> {
+            PreparedStatement select = connection.prepare(SELECT_BILLBOARD);
+            select.setString(1, name);
+            try (ResultSet result = select.executeQuery()) {
+                return result.next() ? readBillboard(result) : null;
+            }
+        });
+    }
+
+    @Override
+    public List<Bilboard> listBillboards() throws DatabaseException {
+        return execute("list billboards", connection -> {
+            List<Bilboard> billboards = new ArrayList<>();
+            try (ResultSet result = connection.prepare(SELECT_BILLBOARDS).executeQuery()) {
+                while (result.next()) {
+                    billboards.add(readBillboard(result));
+                }
+            }
+            return billboards;
+        });
+    }
+
+    @Override
+    public List<Bilboard> listBillboardPage(String after, int limit) throws DatabaseException {
+        return execute("list billboards after " + after, connection -> {
+            PreparedStatement select = connection.prepare(SELECT_BILLBOARD_PAGE);
+            select.setString(1, after);
+            // setMaxRows rather than LIMIT, which not every database accepts
+            select.setMaxRows(limit);
+            List<Bilboard> billboards = new ArrayList<>(limit);
+            try (ResultSet result = select.executeQuery()) {
+                while (result.next()) {
+                    billboards.add(new Bilboard(result.getString(1), result.getString(2), ""));
+                }
+            }
+            return billboards;
+        });
+    }
+
+    @Override
+    public int countBillboards() throws DatabaseException {
+        return execute("count billboards", connection -> {
+            try (ResultSet result = connection.prepare(COUNT_BILLBOARDS).executeQuery()) {
+                return result.next() ? result.getInt(1) : 0;
+            }
+        });
+    }
+
+    @Override
+    public void saveBillboard(Bilboard billboard) throws DatabaseException {
+        saveBillboards(Collections.singletonList(billboard));
+    }
+
+    @Override
+    public void saveBillboards(Collection<Bilboard> billboards) throws DatabaseException {
+        if (billboards.isEmpty()) {
+            return;
+        }
+        transaction("save " + billboards.size() + " billboards", connection -> {
+            // Replace by deleting then inserting, which can be batched, unlike a check for each row
+            PreparedStatement delete = connection.prepare(DELETE_BILLBOARD);
+            PreparedStatement insert = connection.prepare(INSERT_BILLBOARD);
+            for (Bilboard billboard : billboards) {
+                delete.setString(1, billboard.getName());
+                delete.addBatch();
+                insert.setString(1, billboard.getName());
+                insert.setString(2, billboard.getCreator());
+                insert.setString(3, billboard.getXml());
+                insert.addBatch();
+            }
+            delete.executeBatch();
+            insert.executeBatch();
+            return null;
+        });
+    }
+
+    @Override
+    public boolean deleteBillboard(String name) throws DatabaseException {
+        return transaction("delete billboard " + name, connection -> {
+            PreparedStatement deleteScenes = connection.prepare(DELETE_SCENES_OF_BILLBOARD);
+            deleteScenes.setString(1, name);
+            deleteScenes.executeUpdate();
+            PreparedStatement delete = connection.prepare(DELETE_BILLBOARD);
+            delete.setString(1, name);
+            return delete.executeUpdate() == 1;
+        });
+    }
+
+
+    @Override
+    public Schedule getSchedule() throws DatabaseException {
+        return execute("read the schedule", connection -> {
+            List<Scene> scenes = new ArrayList<>();
+            try (ResultSet result = connection.prepare(SELECT_SCENES).executeQuery()) {
+                while (result.next()) {
+                    scenes.add(new Scene(result.getLong(1), result.getString(2), result.getString(3),
+                            result.getLong(4), result.getInt(5), result.getInt(6)));
+                }
+            }
+            return new Schedule(scenes);
+        });
+    }
+
+    @Override
+    public Scene addScene(Scene scene) throws DatabaseException {
+        Scene scheduled = scene.withId(nextSceneId.getAndIncrement());
+        return execute("schedule billboard " + scene.getBillboardName(), connection -> {
+            PreparedStatement insert = connection.prepare(INSERT_SCENE);
+            insert.setLong(1, scheduled.getId());
+            insert.setString(2, scheduled.getBillboardName());
+            insert.setString(3, scheduled.getCreator());
+            insert.setLong(4, scheduled.getStartTime());
+            insert.setInt(5, scheduled.getDurationMinutes());
+            insert.setInt(6, scheduled.getRepeatMinutes());
+            insert.executeUpdate();
+            return scheduled;
+        });
+    }
+
+    @Override
+    public boolean removeScene(long id) throws DatabaseException {
+        return execute("remove scene " + id, connection -> {
+            PreparedStatement delete = connection.prepare(DELETE_SCENE);
+            delete.setLong(1, id);
+            return delete.executeUpdate() == 1;
+        });
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+
+    private void createTables() throws DatabaseException {
+        execute("create the tables", connection -> {
+            DatabaseMetaData metadata = connection.getConnection().getMetaData();
+            try (Statement statement = connection.getConnection().createStatement()) {
+                for (String[] table : TABLES) {
+                    if (!tableExists(metadata, table[0])) {
+                        statement.execute(table[1]);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+
+    /**
+     * Looks a table up in the database metadata, which holds unquoted names in upper case (H2, Derby) or as written
+     * (SQLite).
+     */
+    private static boolean tableExists(DatabaseMetaData metadata, String name) throws SQLException {
+        for (String stored : new String[] {name, name.toUpperCase(Locale.ROOT)}) {
+            try (ResultSet tables = metadata.getTables(null, null, stored, new String[] {"TABLE"})) {
+                if (tables.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    private static User readUser(ResultSet result) throws SQLException {
+        return new User(result.getString(1), result.getString(2), result.getInt(3));
+    }
+
+
+    private static Bilboard readBillboard(ResultSet result) throws SQLException {
+        return new Bilboard(result.getString(1), result.getString(2), result.getString(3));
+    }
+
+
+    /**
+     * Runs some work on a pooled connection in auto-commit mode.
+     * @param description What the work does, for error messages.
+     * @param work The work to run.
+     * @return The result of the work.
+     * @throws DatabaseException If no connection was available or the work failed.
+     */
+    private <T> T execute(String description, Work<T> work) throws DatabaseException {
+        try (ConnectionPool.PooledConnection connection = pool.borrow()) {
+            try {
+                return work.run(connection);
+            } catch (SQLException e) {
+                connection.markBroken();
+                throw new DatabaseException("Unable to " + description + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+
+    /**
+     * Runs some work on a pooled connection in a single transaction, which is rolled back if the work fails.
+     * @param description What the work does, for error messages.
+     * @param work The work to run.
+     * @return The result of the work.
+     * @throws DatabaseException If no connection was available or the work failed.
+     */
+    private <T> T transaction(String description, Work<T> work) throws DatabaseException {
+        return execute(description, connection -> {
+            connection.getConnection().setAutoCommit(false);
+            try {
+                T result = work.run(connection);
+                connection.getConnection().commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                // Roll back before auto-commit is restored, which would otherwise commit the partial work
+                connection.getConnection().rollback();
+                throw e;
+            } finally {
+                connection.getConnection().setAutoCommit(true);
+            }
+        });
+    }
+
+
+    private interface Work<T> {
+        T run(ConnectionPool.PooledConnection connection) throws SQLException;
+    }
 }
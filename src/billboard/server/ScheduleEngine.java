@@ -0,0 +1,175 @@
+package billboard.server;
+
+import billboard.objects.Scene;
+import billboard.objects.Timeline;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Answers which scene is showing now, for every viewer request, without touching the database. The schedule is read
+ * and compiled into a Timeline covering the next COMPILE_WINDOW_MS, and each answer is cached until the next time the
+ * timeline says it changes. Almost every request is therefore answered by a single read of the cached answer; a
+ * binary search is only needed at a boundary, and the database is only read when the window runs out or the schedule
+ * is edited.
+ */
+public class ScheduleEngine {
+    static private final long COMPILE_WINDOW_MS = 24L * 60 * 60 * 1000;
+    static private final long RETRY_MS = 5000;  // How long a failed schedule read is trusted for
+
+    private final Database database;
+    private Timeline timeline;              // Guarded by this
+    private volatile Answer answer;         // Read without locking
+    private volatile long generation = 0;   // Incremented whenever the schedule or a billboard changes
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+
+    // Statistics
+    private final AtomicLong cachedAnswers = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong compilations = new AtomicLong();
+
+
+    /**
+     * Creates a schedule engine. The schedule is first read when it is needed.
+     * @param database Database holding the schedule.
+     */
+    public ScheduleEngine(Database database) {
+        this.database = database;
+    }
+
+
+    /**
+     * @return The scene showing now, or null if nothing is scheduled.
+     */
+    public Scene getCurrentScene() {
+        return getSceneAt(System.currentTimeMillis());
+    }
+
+
+    /**
+     * Finds the scene showing at a time.
+     * @param time Time in milliseconds since the epoch.
+     * @return The scene, or null if nothing is scheduled then.
+     */
+    public Scene getSceneAt(long time) {
+        Answer cached = answer;
+        if (cached != null && time >= cached.from && time < cached.until) {
+            cachedAnswers.incrementAndGet();
+            return cached.scene;
+        }
+        return lookUp(time);
+    }
+
+
+    /**
+     * Discards the compiled schedule, so the next request reads it again. Call this whenever a scene is added or
+     * removed, or a scheduled billboard is edited or deleted.
+     */
+    public void scheduleChanged() {
+        synchronized (this) {
+            timeline = null;
+            answer = null;
+            generation++;
+        }
+        for (Runnable listener : changeListeners) {
+            listener.run();
+        }
+    }
+
+
+    /**
+     * Adds a listener run after every call to scheduleChanged, on the thread that called it.
+     * @param listener The listener. It should return quickly.
+     */
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+
+
+    /**
+     * @return A number that changes every time scheduleChanged is called, so that holders of data derived from the
+     * schedule can tell when it is stale.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+
+    /**
+     * @return Number of requests answered from the cached answer.
+     */
+    public long getCachedAnswerCount() {
+        return cachedAnswers.get();
+    }
+
+
+    /**
+     * @return Number of requests that had to search the timeline.
+     */
+    public long getLookupCount() {
+        return lookups.get();
+    }
+
+
+    /**
+     * @return Number of times the schedule was read and compiled.
+     */
+    public long getCompilationCount() {
+        return compilations.get();
+    }
+
+
+    /**
+     * Gets the compiled timeline covering a time, compiling a new one if needed.
+     * @param time Time in milliseconds since the epoch.
+     * @return The timeline. Returns null if the schedule could not be read.
+     */
+    public synchronized Timeline getTimeline(long time) {
+        if (timeline == null || !timeline.covers(time)) {
+            try {
+                timeline = database.getSchedule().compile(time, time + COMPILE_WINDOW_MS);
+                compilations.incrementAndGet();
+            } catch (DatabaseException e) {
+                System.err.println("Unable to read the schedule: " + e.getMessage());
+                return null;
+            }
+        }
+        return timeline;
+    }
+
+
+    /**
+     * Searches the timeline and caches the answer until the next boundary.
+     */
+    private synchronized Scene lookUp(long time) {
+        lookups.incrementAndGet();
+        Timeline current = getTimeline(time);
+        if (current == null) {
+            // Keep showing what was showing until the database can be read again
+            Scene previous = answer == null ? null : answer.scene;
+            answer = new Answer(previous, time, time + RETRY_MS);
+            return previous;
+        }
+        Scene scene = current.getSceneAt(time);
+        answer = new Answer(scene, current.getPreviousBoundary(time), current.getNextBoundary(time));
+        return scene;
+    }
+
+
+    /**
+     * The scene showing for a span of time in which it does not change.
+     */
+    private static class Answer {
+        private final Scene scene;
+        private final long from;
+        private final long until;
+
+        Answer(Scene scene, long from, long until) {
+            this.scene = scene;
+            this.from = from;
+            this.until = until;
+        }
+    }
+}
@@ -1,7 +1,639 @@
 package billboard.server;
 
+import billboard.objects.Bilboard;
+import billboard.objects.User;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The billboard server. Connections from viewers and control panels are accepted on a single thread and handed to a
+ * fixed pool of worker threads through a bounded queue. When the queue is full the server does not let work pile up:
+ * the connection is answered straight away with a BUSY response and closed, so the requests that are accepted keep a
+ * predictable latency and clients can back off and retry.
+ * <p>
+ * A viewer that sends SUBSCRIBE keeps its connection open; once answered, the connection is handed from the worker to
+ * the change notifier, which pushes change events to it without tying up a worker. Likewise a LOGIN request is handed
+ * to the credential service's verifier threads, which answer it once the password has been checked, and a
+ * RENDER_BILLBOARD request to the billboard renderer's threads, which hand the answer back to a worker once the
+ * billboard has been rendered.
+ */
 public class Server {
-    public static void main(String[] args) {
+    // Configuration constants
+    static private final int DEFAULT_WORKERS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    static private final int DEFAULT_QUEUE_CAPACITY = 1024;
+    static private final int ACCEPT_BACKLOG = 1024;
+    static private final int SOCKET_TIMEOUT_MS = 5000;
+
+    static private final byte[] BUSY_FRAME = encodeBusyFrame();
+
+    // Frame buffers are reused by each worker thread across connections
+    static private final ThreadLocal<FrameReader> READERS = ThreadLocal.withInitial(FrameReader::new);
+    static private final ThreadLocal<FrameWriter> WRITERS = ThreadLocal.withInitial(FrameWriter::new);
+
+    private final CurrentBillboard currentBillboard;
+    private final TimelinePublisher timelinePublisher;  // Null when there is no schedule to publish
+    private final ChangeNotifier changeNotifier;        // Null when subscriptions are not offered
+    private final ControlPanelRequests controlPanel;    // Null when logins are not offered
+    private final CredentialService credentials;        // Null when logins are not offered
+    private final SessionStore sessions;                // Null when logins are not offered
+    private final ContentStore contentStore;            // Null when logins are not offered
+    private final BillboardRenderer renderer;
+    private final ThreadPoolExecutor workers;
+    private volatile ServerSocket serverSocket;
+
+    // Statistics
+    private final AtomicLong requestsHandled = new AtomicLong();
+    private final AtomicLong requestsRejected = new AtomicLong();
+
+
+    /**
+     * Creates a server with the default worker pool size and queue capacity.
+     * @param currentBillboard Source of the billboard currently being shown.
+     */
+    public Server(CurrentBillboard currentBillboard) {
+        this(currentBillboard, null, null, null, DEFAULT_WORKERS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+
+    /**
+     * Creates a server that also publishes the schedule, pushes changes to viewers and serves the control panel, with
+     * the default worker pool size and queue capacity.
+     * @param currentBillboard Source of the billboard currently being shown.
+     * @param timelinePublisher Source of the timeline sent to viewers, or null if there is no schedule.
+     * @param changeNotifier Notifier for subscribed viewers. It is started and stopped with the server.
+     * @param controlPanel Logs users in and answers their requests, or null if there are no users. Its sessions are
+     *                     started and stopped with the server.
+     */
+    public Server(CurrentBillboard currentBillboard, TimelinePublisher timelinePublisher,
+                  ChangeNotifier changeNotifier, ControlPanelRequests controlPanel) {
+        this(currentBillboard, timelinePublisher, changeNotifier, controlPanel, DEFAULT_WORKERS,
+                DEFAULT_QUEUE_CAPACITY);
+    }
+
+
+    /**
+     * Creates a server.
+     * @param currentBillboard Source of the billboard currently being shown.
+     * @param timelinePublisher Source of the timeline sent to viewers, or null if there is no schedule.
+     * @param changeNotifier Notifier for subscribed viewers, or null to refuse subscriptions.
+     * @param controlPanel Logs users in and answers their requests, or null if there are no users.
+     * @param workerCount Number of threads handling requests.
+     * @param queueCapacity Number of accepted connections that may wait for a worker before new ones are rejected.
+     */
+    public Server(CurrentBillboard currentBillboard, TimelinePublisher timelinePublisher,
+                  ChangeNotifier changeNotifier, ControlPanelRequests controlPanel, int workerCount,
+                  int queueCapacity) {
+        this.currentBillboard = currentBillboard;
+        this.timelinePublisher = timelinePublisher;
+        this.changeNotifier = changeNotifier;
+        this.controlPanel = controlPanel;
+        this.credentials = controlPanel == null ? null : controlPanel.getCredentials();
+        this.sessions = controlPanel == null ? null : controlPanel.getSessions();
+        this.contentStore = controlPanel == null ? null : controlPanel.getContentStore();
+        this.renderer = new BillboardRenderer(contentStore);
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, "server-worker-" + threadNumber.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+        workers.prestartAllCoreThreads();
+    }
+
+
+    /**
+     * Accepts connections on the given port until the server is stopped.
+     * @param port Port to listen on.
+     * @throws IOException If the server socket could not be opened.
+     */
+    public void run(int port) throws IOException {
+        // Opened as a channel so accepted connections have channels that can be handed to the change notifier
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        serverSocket = channel.socket();
+        try {
+            if (changeNotifier != null) {
+                changeNotifier.start();
+            }
+            if (sessions != null) {
+                sessions.start();
+            }
+            while (!serverSocket.isClosed()) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (serverSocket.isClosed()) {
+                        break;  // The server socket was closed by stop()
+                    }
+                    throw e;
+                }
+                dispatch(socket);
+            }
+        } finally {
+            serverSocket.close();
+            workers.shutdown();
+            renderer.shutdown();
+            if (changeNotifier != null) {
+                changeNotifier.stop();
+            }
+            if (credentials != null) {
+                credentials.shutdown();
+                sessions.stop();
+            }
+        }
+    }
+
+
+    /**
+     * Stops accepting connections. Requests already queued are still answered.
+     */
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ignored) {}
+    }
+
+
+    /**
+     * @return Number of requests answered by a worker.
+     */
+    public long getRequestsHandled() {
+        return requestsHandled.get();
+    }
+
+
+    /**
+     * @return Number of connections turned away because the request queue was full.
+     */
+    public long getRequestsRejected() {
+        return requestsRejected.get();
+    }
+
+
+    /**
+     * Hands a connection to the worker pool, or rejects it with BUSY if the queue is full.
+     * @param socket The client connection.
+     */
+    private void dispatch(Socket socket) {
+        try {
+            workers.execute(() -> serve(socket));
+        } catch (RejectedExecutionException e) {
+            requestsRejected.incrementAndGet();
+            try (Socket rejected = socket) {
+                rejected.setSoLinger(true, 0);
+                rejected.getOutputStream().write(BUSY_FRAME);
+            } catch (IOException ignored) {}
+        }
+    }
+
+
+    /**
+     * Answers a request on a worker thread and closes the connection, unless it was handed over to the change
+     * notifier.
+     * @param socket The client connection.
+     */
+    private void serve(Socket socket) {
+        boolean handedOver = false;
+        try {
+            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            handedOver = handleConnection(socket);
+            requestsHandled.incrementAndGet();
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+        } finally {
+            if (!handedOver) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {}
+            }
+            // The worker keeps its reader and writer, but not the memory of an unusually large frame
+            READERS.get().trim();
+            WRITERS.get().trim();
+        }
+    }
+
+
+    /**
+     * Reads a request frame from the connection and writes the response frame.
+     * @param socket The client connection.
+     * @return True if the connection was handed over to the change notifier and must be left open.
+     * @throws IOException If the connection failed or the request did not follow the wire format.
+     */
+    boolean handleConnection(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        FrameReader request = READERS.get();
+        FrameWriter response = WRITERS.get();
+
+        // Check the frame from its header, and the session of a large request from its token, before the server
+        // takes on the payload
+        MessageType type = request.readHeader(in);
+        if (type == null) {
+            return false;
+        }
+        if (!type.isRequest()) {
+            throw new ProtocolException(type + " is not a request");
+        }
+        if (type.isLargeRequest() && !isLoggedIn(request.readLeadingString(in, Protocol.MAX_SMALL_PAYLOAD_SIZE))) {
+            response.begin(MessageType.ERROR).putString("Not logged in, or the session has expired").writeTo(out);
+            return false;
+        }
+        request.readPayload(in);
+        switch (type) {
+            case GET_CURRENT_BILLBOARD:
+                sendCurrentBillboard(request, response);
+                break;
+            case GET_TIMELINE:
+                sendTimeline(request, response);
+                break;
+            case GET_BILLBOARD:
+                sendBillboard(request, response);
+                break;
+            case GET_BLOB:
+                sendBlob(request, response);
+                break;
+            case RENDER_BILLBOARD:
+                return startRender(socket, request, response);
+            case LOGIN:
+                if (credentials != null) {
+                    return startLogin(socket, request, response);
+                }
+                response.begin(MessageType.ERROR).putString("Logins are not offered");
+                break;
+            case LOGOUT:
+                if (sessions != null) {
+                    sessions.invalidate(request.getString());
+                }
+                response.begin(MessageType.OK);
+                break;
+            case SUBSCRIBE:
+                if (changeNotifier != null && socket.getChannel() != null) {
+                    response.begin(MessageType.OK).writeTo(out);
+                    changeNotifier.subscribe(socket.getChannel());
+                    return true;
+                }
+                response.begin(MessageType.ERROR).putString("Subscriptions are not offered");
+                break;
+            case IMPORT_BILLBOARDS:
+            case EXPORT_BILLBOARDS:
+                if (controlPanel != null) {
+                    // The billboards follow as a chunked stream, and the responses are written as it goes
+                    controlPanel.transfer(type, request, response, in, out);
+                    return false;
+                }
+                response.begin(MessageType.ERROR).putString("Unsupported request: " + type);
+                break;
+            default:
+                if (controlPanel == null || !controlPanel.handle(type, request, response)) {
+                    response.begin(MessageType.ERROR).putString("Unsupported request: " + type);
+                }
+        }
+        response.writeTo(out);
+        return false;
+    }
+
+
+    /**
+     * @param sessionToken A session token.
+     * @return True if the token belongs to a session that has not expired.
+     */
+    private boolean isLoggedIn(String sessionToken) {
+        return controlPanel != null && controlPanel.getAuthorizer().getUser(sessionToken) != null;
+    }
+
+
+    /**
+     * Sends the current billboard, or just a "not modified" response if the viewer already has the current version.
+     * @param request The request, positioned at the version of the billboard the viewer holds.
+     * @param response Writer for the response.
+     * @throws IOException If the request was malformed.
+     */
+    private void sendCurrentBillboard(FrameReader request, FrameWriter response) throws IOException {
+        byte[] version;
+        String xml;
+        synchronized (currentBillboard) {
+            version = currentBillboard.getVersion();
+            xml = currentBillboard.getXml();
+        }
+        if (version == null) {
+            response.begin(MessageType.ERROR).putString("No billboard is currently showing");
+        } else if (request.fieldEquals(version)) {
+            response.begin(MessageType.NOT_MODIFIED);
+        } else {
+            response.begin(MessageType.OK).putBytes(version).putString(xml);
+        }
+    }
+
+
+    /**
+     * Hands a login to the verifier threads, which answer it and close the connection once the password has been
+     * checked. If they are too far behind, the login is answered with BUSY straight away.
+     * @param socket The client connection.
+     * @param request The request, positioned at the username.
+     * @param response Writer for the BUSY response.
+     * @return True if the connection was handed over and must be left open.
+     * @throws IOException If the request was malformed or the BUSY response could not be sent.
+     */
+    private boolean startLogin(Socket socket, FrameReader request, FrameWriter response) throws IOException {
+        String username = request.getString();
+        byte[] password = request.getBytes();
+        try {
+            credentials.authenticate(username, password)
+                    .whenComplete((user, error) -> finishLogin(socket, user, error));
+            return true;
+        } catch (RejectedExecutionException e) {
+            response.begin(MessageType.BUSY).writeTo(socket.getOutputStream());
+            return false;
+        }
+    }
+
+
+    /**
+     * Answers a login once the password has been checked, then closes the connection.
+     */
+    private void finishLogin(Socket socket, User user, Throwable error) {
+        FrameWriter response = WRITERS.get();
+        if (error != null) {
+            System.err.println("Login failed: " + error.getMessage());
+            response.begin(MessageType.ERROR).putString("Unable to check the password");
+        } else if (user == null) {
+            response.begin(MessageType.ERROR).putString("Wrong username or password");
+        } else {
+            response.begin(MessageType.OK)
+                    .putString(sessions.create(user.getUsername()))
+                    .putInt(user.getPermissionMask());
+        }
+        try (Socket connection = socket) {
+            response.writeTo(connection.getOutputStream());
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+        } finally {
+            response.trim();
+        }
+    }
+
+
+    /**
+     * Hands a render to the billboard renderer, which answers it and closes the connection once the billboard has been
+     * rendered. Requests that can be answered straight away, because the viewer already has the image or the request
+     * cannot be rendered, are answered here.
+     * @param socket The client connection.
+     * @param request The request, positioned at the billboard name.
+     * @param response Writer for a response sent straight away.
+     * @return True if the connection was handed over and must be left open.
+     * @throws IOException If the request was malformed or a response could not be sent.
+     */
+    private boolean startRender(Socket socket, FrameReader request, FrameWriter response) throws IOException {
+        String name = request.getString();
+        int width = request.getInt();
+        int height = request.getInt();
+        int format = request.getInt();
+        String xml = null;
+        if (name.isEmpty()) {
+            synchronized (currentBillboard) {
+                if (currentBillboard.getVersion() != null) {
+                    xml = currentBillboard.getXml();
+                }
+            }
+        } else if (timelinePublisher != null) {
+            try {
+                Bilboard billboard = timelinePublisher.getBillboard(name);
+                xml = billboard == null ? null : billboard.getXml();
+            } catch (DatabaseException e) {
+                response.begin(MessageType.ERROR).putString("Unable to read the billboard: " + e.getMessage());
+                response.writeTo(socket.getOutputStream());
+                return false;
+            }
+        }
+
+        if (xml == null) {
+            response.begin(MessageType.ERROR)
+                    .putString(name.isEmpty() ? "No billboard is currently showing" : "No billboard named " + name);
+        } else if (request.fieldEquals(BillboardRenderer.getVersion(xml, width, height, format))) {
+            response.begin(MessageType.NOT_MODIFIED);
+        } else {
+            try {
+                renderer.render(xml, width, height, format)
+                        .whenComplete((rendering, error) -> replyToRender(socket, rendering, error));
+                return true;
+            } catch (IllegalArgumentException e) {
+                response.begin(MessageType.ERROR).putString(e.getMessage());
+            } catch (RejectedExecutionException e) {
+                response.begin(MessageType.BUSY);
+            }
+        }
+        response.writeTo(socket.getOutputStream());
+        return false;
+    }
+
+
+    /**
+     * Hands the answer to a render back to the request workers, so a viewer slow to read a large image holds up a
+     * worker rather than a render thread. If the workers are overloaded the viewer is told the server is busy.
+     */
+    private void replyToRender(Socket socket, BillboardRenderer.Rendering rendering, Throwable error) {
+        try {
+            workers.execute(() -> finishRender(socket, rendering, error));
+        } catch (RejectedExecutionException e) {
+            requestsRejected.incrementAndGet();
+            try (Socket rejected = socket) {
+                rejected.setSoLinger(true, 0);
+                rejected.getOutputStream().write(BUSY_FRAME);
+            } catch (IOException ignored) {}
+        }
+    }
+
+
+    /**
+     * Answers a render once the billboard has been rendered, then closes the connection. Runs on a request worker.
+     */
+    private void finishRender(Socket socket, BillboardRenderer.Rendering rendering, Throwable error) {
+        FrameWriter response = WRITERS.get();
+        if (error != null) {
+            Throwable cause = error.getCause() != null ? error.getCause() : error;
+            response.begin(MessageType.ERROR).putString("Unable to render the billboard: " + cause.getMessage());
+        } else {
+            response.begin(MessageType.OK)
+                    .putBytes(rendering.getVersion())
+                    .putInt(rendering.getFormat())
+                    .putInt(rendering.getWidth())
+                    .putInt(rendering.getHeight())
+                    .putBytes(rendering.getData());
+        }
+        try (Socket connection = socket) {
+            response.writeTo(connection.getOutputStream());
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+        } finally {
+            response.trim();
+        }
+    }
+
+
+    /**
+     * Sends the timeline of what to show over the coming hours, or just a "not modified" response if the viewer
+     * already has the current version.
+     * @param request The request, positioned at the version of the timeline the viewer holds.
+     * @param response Writer for the response.
+     * @throws IOException If the request was malformed.
+     */
+    private void sendTimeline(FrameReader request, FrameWriter response) throws IOException {
+        if (timelinePublisher == null) {
+            response.begin(MessageType.NOT_SCHEDULED);
+            return;
+        }
+        TimelinePublisher.Published timeline;
+        try {
+            timeline = timelinePublisher.getTimeline(System.currentTimeMillis());
+        } catch (DatabaseException e) {
+            response.begin(MessageType.ERROR).putString("Unable to read the schedule: " + e.getMessage());
+            return;
+        }
+        byte[] version = timeline.getVersion();
+        if (request.fieldEquals(version)) {
+            response.begin(MessageType.NOT_MODIFIED);
+            return;
+        }
+        response.begin(MessageType.OK)
+                .putBytes(version)
+                .putLong(timeline.getStart())
+                .putLong(timeline.getEnd())
+                .putInt(timeline.getSegments().size());
+        for (TimelinePublisher.Segment segment : timeline.getSegments()) {
+            response.putLong(segment.getStart())
+                    .putLong(segment.getEnd())
+                    .putString(segment.getBillboardName())
+                    .putBytes(segment.getContentHash());
+        }
+    }
+
+
+    /**
+     * Sends a billboard by name, for a viewer fetching the billboards in its timeline ahead of time.
+     * @param request The request, positioned at the billboard name.
+     * @param response Writer for the response.
+     * @throws IOException If the request was malformed.
+     */
+    private void sendBillboard(FrameReader request, FrameWriter response) throws IOException {
+        String name = request.getString();
+        if (timelinePublisher == null) {
+            response.begin(MessageType.ERROR).putString("The server is not following a schedule");
+            return;
+        }
+        try {
+            Bilboard billboard = timelinePublisher.getBillboard(name);
+            if (billboard == null) {
+                response.begin(MessageType.ERROR).putString("No billboard named " + name);
+            } else {
+                response.begin(MessageType.OK)
+                        .putBytes(CurrentBillboard.hash(billboard.getXml()))
+                        .putString(billboard.getXml());
+            }
+        } catch (DatabaseException e) {
+            response.begin(MessageType.ERROR).putString("Unable to read the billboard: " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Sends a picture by the hash of its contents, for a viewer or control panel showing a billboard that refers to it.
+     * @param request The request, positioned at the blob hash.
+     * @param response Writer for the response.
+     * @throws IOException If the request was malformed.
+     */
+    private void sendBlob(FrameReader request, FrameWriter response) throws IOException {
+        String hash = request.getString();
+        byte[] blob = contentStore == null ? null : contentStore.getBlob(hash);
+        if (blob == null) {
+            response.begin(MessageType.ERROR).putString("No blob " + hash);
+        } else {
+            response.begin(MessageType.OK).putBytes(blob);
+        }
+    }
+
+
+    /**
+     * Encodes the BUSY response once, since it is sent when the server can least afford the work.
+     */
+    private static byte[] encodeBusyFrame() {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(Protocol.HEADER_SIZE);
+        try {
+            new FrameWriter().begin(MessageType.BUSY).writeTo(frame);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return frame.toByteArray();
+    }
+
+
+    /**
+     * Runs the server. With a billboard XML path as the argument, that billboard is always shown; otherwise the
+     * billboard shown follows the schedule in the database described by db.props.
+     */
+    public static void main(String[] args) throws IOException {
         System.out.println("I am the billboard server.");
+        // Billboards are rendered for viewers in image mode without a screen
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        Server server;
+        if (args.length > 0) {
+            CurrentBillboard currentBillboard = new CurrentBillboard(Paths.get(args[0]));
+            server = new Server(currentBillboard, null, new ChangeNotifier(currentBillboard, null), null);
+        } else {
+            Database database = openDatabase();
+            ScheduleEngine schedule = new ScheduleEngine(database);
+            CurrentBillboard currentBillboard = new CurrentBillboard(schedule, database);
+            CredentialService credentials = new CredentialService(database, new PasswordHasher());
+            try {
+                credentials.createInitialUser();
+            } catch (DatabaseException e) {
+                System.err.println("Unable to check for users: " + e.getMessage());
+            }
+            ContentStore contentStore;
+            try {
+                // An in-memory stand-in must not share, or sweep, the blobs of the real database
+                contentStore = database instanceof StubDatabase
+                        ? new ContentStore(database, Files.createTempDirectory("billboard-blobs"))
+                        : new ContentStore(database);
+            } catch (DatabaseException e) {
+                System.err.println("Unable to open the content store: " + e.getMessage());
+                return;
+            }
+            server = new Server(currentBillboard, new TimelinePublisher(schedule, database),
+                    new ChangeNotifier(currentBillboard, schedule),
+                    new ControlPanelRequests(database, schedule, credentials, new SessionStore(), contentStore));
+        }
+        server.run(Protocol.DEFAULT_PORT);
+    }
+
+
+    /**
+     * Opens the database described by db.props, falling back to an empty in-memory database if it cannot be opened.
+     */
+    private static Database openDatabase() {
+        try {
+            return new RealDatabase();
+        } catch (DatabaseException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Using an in-memory database; nothing will be saved.");
+            return new StubDatabase();
+        }
     }
 }
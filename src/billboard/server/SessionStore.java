@@ -0,0 +1,299 @@
+package billboard.server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * The sessions of logged in users. A login is given an opaque random token, and every later control panel request
+ * carries it, so requests are checked with a map lookup rather than a password hash or a database query. A session
+ * expires after SESSION_TTL_MS without use; each use pushes the expiry back.
+ * <p>
+ * Sessions are keyed by the SHA-256 hash of the token, not the token itself. The lookup therefore takes the same
+ * time however much of a guessed token is right, and the sessions saved to disk cannot be used as tokens by anyone
+ * who reads the file. Expired sessions are swept in the background, and the sessions are saved every SNAPSHOT_MS and
+ * on shutdown, then loaded again on start, so users stay logged in across a server restart.
+ */
+public class SessionStore {
+    static public final long SESSION_TTL_MS = 24L * 60 * 60 * 1000;
+    static private final long TOUCH_GRANULARITY_MS = 60 * 1000;  // Expiry is only moved when this much has passed
+    static private final long SWEEP_INTERVAL_MS = 60 * 1000;
+    static private final long SNAPSHOT_MS = 60 * 1000;
+    static private final int TOKEN_BYTES = 32;
+    static private final int SNAPSHOT_FORMAT = 1;
+    static private final String DEFAULT_PATH = System.getProperty("billboard.sessionFile", "sessions.dat");
+
+    private final Map<Key, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final Path snapshotFile;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private ScheduledExecutorService sweeper;
+
+
+    /**
+     * Creates a session store saved to the file named by the billboard.sessionFile system property, or sessions.dat.
+     */
+    public SessionStore() {
+        this(Paths.get(DEFAULT_PATH));
+    }
+
+
+    /**
+     * Creates a session store.
+     * @param snapshotFile File the sessions are saved to, or null to keep them in memory only.
+     */
+    public SessionStore(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+
+    /**
+     * Loads the saved sessions and starts sweeping and saving in the background.
+     */
+    public synchronized void start() {
+        if (sweeper != null) {
+            return;
+        }
+        load();
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        sweeper.scheduleWithFixedDelay(this::saveIfChanged, SNAPSHOT_MS, SNAPSHOT_MS, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Stops the background work and saves the sessions.
+     */
+    public synchronized void stop() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+        dirty.set(true);
+        saveIfChanged();
+    }
+
+
+    /**
+     * Starts a session.
+     * @param username The user who logged in.
+     * @return The session token to give the user.
+     */
+    public String create(String username) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(Key.of(token), new Session(username, System.currentTimeMillis() + SESSION_TTL_MS));
+        dirty.set(true);
+        return token;
+    }
+
+
+    /**
+     * Checks a session token and extends the session.
+     * @param token The token given at login.
+     * @return The user the session belongs to, or null if the token is not a current session.
+     */
+    public String validate(String token) {
+        if (token == null) {
+            return null;
+        }
+        Key key = Key.of(token);
+        Session session = sessions.get(key);
+        if (session == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= session.expiresAt) {
+            sessions.remove(key, session);
+            dirty.set(true);
+            return null;
+        }
+        if (now + SESSION_TTL_MS - session.expiresAt >= TOUCH_GRANULARITY_MS) {
+            session.expiresAt = now + SESSION_TTL_MS;
+            dirty.set(true);
+        }
+        return session.username;
+    }
+
+
+    /**
+     * Ends a session, when the user logs out.
+     * @param token The token given at login.
+     * @return True if the token was a session.
+     */
+    public boolean invalidate(String token) {
+        boolean removed = token != null && sessions.remove(Key.of(token)) != null;
+        if (removed) {
+            dirty.set(true);
+        }
+        return removed;
+    }
+
+
+    /**
+     * Ends every session of a user, when the user is deleted or their password is changed.
+     * @param username The user.
+     * @return Number of sessions ended.
+     */
+    public int invalidateUser(String username) {
+        int removed = 0;
+        for (Iterator<Session> iterator = sessions.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().username.equals(username)) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            dirty.set(true);
+        }
+        return removed;
+    }
+
+
+    /**
+     * @return Number of sessions held, including expired sessions not yet swept.
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+
+    /**
+     * Removes expired sessions.
+     */
+    void sweep() {
+        long now = System.currentTimeMillis();
+        if (sessions.values().removeIf(session -> now >= session.expiresAt)) {
+            dirty.set(true);
+        }
+    }
+
+
+    /**
+     * Saves the sessions if they have changed since they were last saved. The file is written beside the snapshot
+     * file then moved over it, so a server stopped part way through writing still finds the previous snapshot.
+     */
+    private synchronized void saveIfChanged() {
+        if (snapshotFile == null || !dirty.getAndSet(false)) {
+            return;
+        }
+        Path temporary = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temporary)))) {
+                out.writeInt(SNAPSHOT_FORMAT);
+                for (Map.Entry<Key, Session> entry : sessions.entrySet()) {
+                    Session session = entry.getValue();
+                    out.writeBoolean(true);
+                    out.write(entry.getKey().hash);
+                    out.writeUTF(session.username);
+                    out.writeLong(session.expiresAt);
+                }
+                out.writeBoolean(false);
+            }
+            Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty.set(true);
+            System.err.println("Unable to save sessions to " + snapshotFile + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Loads the sessions saved by the last run, leaving out any that have expired since.
+     */
+    private void load() {
+        if (snapshotFile == null || !Files.isRegularFile(snapshotFile)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_FORMAT) {
+                return;
+            }
+            while (in.readBoolean()) {
+                byte[] hash = new byte[Key.HASH_BYTES];
+                in.readFully(hash);
+                String username = in.readUTF();
+                long expiresAt = in.readLong();
+                if (expiresAt > now) {
+                    sessions.put(new Key(hash), new Session(username, expiresAt));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to load sessions from " + snapshotFile + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * A logged in user and when their session expires.
+     */
+    private static class Session {
+        private final String username;
+        private volatile long expiresAt;
+
+        Session(String username, long expiresAt) {
+            this.username = username;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+
+    /**
+     * The SHA-256 hash of a session token.
+     */
+    private static class Key {
+        static final int HASH_BYTES = 32;
+
+        private final byte[] hash;
+        private final int hashCode;
+
+        Key(byte[] hash) {
+            this.hash = hash;
+            // The hash is already uniformly distributed, so its first bytes make a good hash code
+            this.hashCode = (hash[0] & 0xFF) << 24 | (hash[1] & 0xFF) << 16 | (hash[2] & 0xFF) << 8 | (hash[3] & 0xFF);
+        }
+
+        static Key of(String token) {
+            try {
+                return new Key(MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8)));
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform is required to support SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && MessageDigest.isEqual(hash, ((Key) other).hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
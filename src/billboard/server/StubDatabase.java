@@ -1,4 +1,129 @@
 package billboard.server;
 
+import billboard.objects.Bilboard;
+import billboard.objects.Permission;
+import billboard.objects.Scene;
+import billboard.objects.Schedule;
+import billboard.objects.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A Database held entirely in memory, for running the server without a database and for development. It follows the
+ * same contract as RealDatabase, but nothing survives a restart.
+ */
 public class StubDatabase implements Database {
+    // Sorted maps, so listings come out in the documented order
+    private final Map<String, User> users = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Bilboard> billboards = new ConcurrentSkipListMap<>();
+    private final Map<Long, Scene> scenes = new ConcurrentSkipListMap<>();
+    private final AtomicLong nextSceneId = new AtomicLong(1);
+
+
+    @Override
+    public User getUser(String username) {
+        return users.get(username);
+    }
+
+    @Override
+    public List<User> listUsers() {
+        return new ArrayList<>(users.values());
+    }
+
+    @Override
+    public boolean addUser(User user) {
+        return users.putIfAbsent(user.getUsername(), user) == null;
+    }
+
+    @Override
+    public boolean setPasswordHash(String username, String passwordHash) {
+        return users.computeIfPresent(username, (name, user) -> user.withPasswordHash(passwordHash)) != null;
+    }
+
+    @Override
+    public boolean setPermissions(String username, Set<Permission> permissions) {
+        return users.computeIfPresent(username, (name, user) -> user.withPermissions(permissions)) != null;
+    }
+
+    @Override
+    public boolean deleteUser(String username) {
+        return users.remove(username) != null;
+    }
+
+
+    @Override
+    public Bilboard getBillboard(String name) {
+        return billboards.get(name);
+    }
+
+    @Override
+    public List<Bilboard> listBillboards() {
+        return new ArrayList<>(billboards.values());
+    }
+
+    @Override
+    public List<Bilboard> listBillboardPage(String after, int limit) {
+        List<Bilboard> page = new ArrayList<>(limit);
+        for (Bilboard billboard : billboards.tailMap(after, false).values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(new Bilboard(billboard.getName(), billboard.getCreator(), ""));
+        }
+        return page;
+    }
+
+    @Override
+    public int countBillboards() {
+        return billboards.size();
+    }
+
+    @Override
+    public void saveBillboard(Bilboard billboard) {
+        billboards.put(billboard.getName(), billboard);
+    }
+
+    @Override
+    public synchronized void saveBillboards(Collection<Bilboard> billboards) {
+        for (Bilboard billboard : billboards) {
+            saveBillboard(billboard);
+        }
+    }
+
+    @Override
+    public synchronized boolean deleteBillboard(String name) {
+        if (billboards.remove(name) == null) {
+            return false;
+        }
+        scenes.values().removeIf(scene -> scene.getBillboardName().equals(name));
+        return true;
+    }
+
+
+    @Override
+    public Schedule getSchedule() {
+        return new Schedule(new ArrayList<>(scenes.values()));
+    }
+
+    @Override
+    public Scene addScene(Scene scene) {
+        Scene scheduled = scene.withId(nextSceneId.getAndIncrement());
+        scenes.put(scheduled.getId(), scheduled);
+        return scheduled;
+    }
+
+    @Override
+    public boolean removeScene(long id) {
+        return scenes.remove(id) != null;
+    }
+
+    @Override
+    public void close() {}
 }
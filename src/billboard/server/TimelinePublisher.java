@@ -0,0 +1,184 @@
+package billboard.server;
+
+import billboard.objects.Bilboard;
+import billboard.objects.Timeline;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Publishes the schedule for the next HORIZON_MS to viewers, so they can switch billboards on their own at the right
+ * instants and keep playing while the server is unreachable. Each segment names its billboard and the hash of the
+ * billboard's XML, so a viewer can tell which billboards it already holds.
+ * <p>
+ * The published timeline is built once and shared by every viewer until the schedule changes or the window needs
+ * extending. It carries a version token, so viewers that are up to date get a "not modified" answer.
+ */
+public class TimelinePublisher {
+    static private final long HORIZON_MS = 12L * 60 * 60 * 1000;
+    static private final long REBUILD_INTERVAL_MS = 60L * 60 * 1000;
+
+    private final ScheduleEngine schedule;
+    private final Database database;
+    private Published published;    // Guarded by this
+
+
+    /**
+     * Creates a timeline publisher.
+     * @param schedule The schedule engine, which says when the schedule has changed.
+     * @param database Database holding the schedule and billboards.
+     */
+    public TimelinePublisher(ScheduleEngine schedule, Database database) {
+        this.schedule = schedule;
+        this.database = database;
+    }
+
+
+    /**
+     * Gets the timeline to send to viewers, building it if the schedule has changed or it is due for extending.
+     * @param now Current time in milliseconds since the epoch.
+     * @return The timeline.
+     * @throws DatabaseException If the schedule had to be read and could not be.
+     */
+    public synchronized Published getTimeline(long now) throws DatabaseException {
+        long generation = schedule.getGeneration();
+        if (published == null || published.generation != generation || now >= published.rebuildAt) {
+            published = build(now, generation);
+        }
+        return published;
+    }
+
+
+    /**
+     * Gets a billboard for a viewer that is missing it.
+     * @param name Name of the billboard.
+     * @return The billboard, or null if there is no billboard with that name.
+     * @throws DatabaseException If the billboard could not be read.
+     */
+    public Bilboard getBillboard(String name) throws DatabaseException {
+        return database.getBillboard(name);
+    }
+
+
+    /**
+     * Compiles the schedule for the horizon and looks up the content hash of each billboard in it. Segments whose
+     * billboard no longer exists are left out.
+     */
+    private Published build(long now, long generation) throws DatabaseException {
+        Timeline timeline = database.getSchedule().compile(now, now + HORIZON_MS);
+        Map<String, byte[]> hashes = new HashMap<>();
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < timeline.getSegmentCount(); i++) {
+            String name = timeline.getSegmentScene(i).getBillboardName();
+            if (!hashes.containsKey(name)) {
+                Bilboard billboard = database.getBillboard(name);
+                hashes.put(name, billboard == null ? null : CurrentBillboard.hash(billboard.getXml()));
+            }
+            byte[] hash = hashes.get(name);
+            if (hash != null) {
+                segments.add(new Segment(timeline.getSegmentStart(i), timeline.getSegmentEnd(i), name, hash));
+            }
+        }
+        return new Published(timeline.getStart(), timeline.getEnd(), segments, generation, now + REBUILD_INTERVAL_MS);
+    }
+
+
+    /**
+     * A timeline as sent to viewers.
+     */
+    public static class Published {
+        private final long start;
+        private final long end;
+        private final List<Segment> segments;
+        private final byte[] version;
+        private final long generation;
+        private final long rebuildAt;
+
+        private Published(long start, long end, List<Segment> segments, long generation, long rebuildAt) {
+            this.start = start;
+            this.end = end;
+            this.segments = segments;
+            this.generation = generation;
+            this.rebuildAt = rebuildAt;
+            this.version = hash(start, end, segments);
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public List<Segment> getSegments() {
+            return segments;
+        }
+
+        /**
+         * @return Version token identifying the content of the timeline.
+         */
+        public byte[] getVersion() {
+            return version.clone();
+        }
+
+        private static byte[] hash(long start, long end, List<Segment> segments) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                digest.update((start + ":" + end).getBytes(StandardCharsets.UTF_8));
+                for (Segment segment : segments) {
+                    digest.update((";" + segment.start + ":" + segment.end + ":" + segment.billboardName.length()
+                            + ":" + segment.billboardName).getBytes(StandardCharsets.UTF_8));
+                    digest.update(segment.contentHash);
+                }
+                return digest.digest();
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform is required to support SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+
+    /**
+     * A span of the published timeline showing one billboard.
+     */
+    public static class Segment {
+        private final long start;
+        private final long end;
+        private final String billboardName;
+        private final byte[] contentHash;
+
+        private Segment(long start, long end, String billboardName, byte[] contentHash) {
+            this.start = start;
+            this.end = end;
+            this.billboardName = billboardName;
+            this.contentHash = contentHash;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public String getBillboardName() {
+            return billboardName;
+        }
+
+        /**
+         * @return SHA-256 hash of the billboard XML.
+         */
+        public byte[] getContentHash() {
+            return contentHash.clone();
+        }
+    }
+}
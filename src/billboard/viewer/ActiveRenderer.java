@@ -0,0 +1,333 @@
+package billboard.viewer;
+
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.awt.image.VolatileImage;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Renders billboards straight into a window's BufferStrategy from a dedicated thread, bypassing Swing's layout and
+ * paint machinery. Everything on the billboard except an animated picture is painted once into a VolatileImage
+ * layer, so each frame is a single blit of that layer plus, for animations, one pre-scaled frame.
+ * <p>
+ * The layer is repainted only when the billboard changes or its contents are lost. When the billboard changes, the
+ * outgoing layer is kept and faded out over the new one, so the switch needs no extra painting. The renderer runs at
+ * the transition frame rate while fading, at ANIMATED_FPS while a picture is animating, and otherwise just refreshes
+ * the screen a few times a second. Frame times are measured from the start of drawing to the buffer being shown, and
+ * reported every REPORT_INTERVAL_MS.
+ * @see BillboardFrame Uses this renderer when the billboard.activeRender system property is true.
+ */
+public class ActiveRenderer {
+    static private final int BUFFERS = 2;
+    static private final int ANIMATED_FPS = 60;
+    static private final long STATIC_FRAME_MS = 250;
+    static private final long REPORT_INTERVAL_MS = 60000;
+
+    private final Window window;
+    private final BillboardTransition transition;
+    private volatile BillboardLayout layout;
+    private volatile boolean running = false;
+    private Thread thread;
+
+    // Owned by the render thread
+    private VolatileImage layer;
+    private BillboardLayout layerLayout;
+    private long layerStartTime;    // When the layer's billboard was first drawn, to time its animation
+    private VolatileImage outgoingLayer;
+    private BillboardLayout outgoingLayout;
+
+    // Statistics
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong totalFrameNanos = new AtomicLong();
+    private volatile long lastFrameNanos = 0;
+    private volatile long maxFrameNanos = 0;
+
+
+    /**
+     * Creates an active renderer for a window. The window should ignore repaints, as the renderer draws all of it.
+     * @param window Window to render into.
+     * @param transition Timing of the fades between billboards.
+     */
+    public ActiveRenderer(Window window, BillboardTransition transition) {
+        this.window = window;
+        this.transition = transition;
+    }
+
+
+    /**
+     * Creates the window's buffer strategy and starts rendering. The window must be displayable.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        window.createBufferStrategy(BUFFERS);
+        running = true;
+        thread = new Thread(this::run, "billboard-render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Stops rendering and waits for the render thread to finish its frame.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+
+    /**
+     * Shows a billboard from the next frame on.
+     * @param layout The billboard layout. Its display size should match the window.
+     */
+    public void setBillboardLayout(BillboardLayout layout) {
+        this.layout = layout;
+    }
+
+
+    /**
+     * @return Number of frames rendered.
+     */
+    public long getFrameCount() {
+        return frames.get();
+    }
+
+
+    /**
+     * @return Time taken by the most recent frame, in nanoseconds.
+     */
+    public long getLastFrameTime() {
+        return lastFrameNanos;
+    }
+
+
+    /**
+     * @return Average time taken per frame, in nanoseconds.
+     */
+    public long getAverageFrameTime() {
+        long count = frames.get();
+        return count == 0 ? 0 : totalFrameNanos.get() / count;
+    }
+
+
+    /**
+     * @return Longest time taken by a frame, in nanoseconds.
+     */
+    public long getMaxFrameTime() {
+        return maxFrameNanos;
+    }
+
+
+    /**
+     * Render loop: draws a frame, then sleeps until the next one is due.
+     */
+    private void run() {
+        long nextReport = AnimationTimer.now() + REPORT_INTERVAL_MS;
+        while (running) {
+            long frameStart = AnimationTimer.now();
+            BillboardLayout current = layout;
+            try {
+                renderFrame(current);
+            } catch (IllegalStateException e) {
+                // The buffer strategy went away, such as while the window was being disposed
+                System.err.println("Render frame skipped: " + e.getMessage());
+            }
+
+            long now = AnimationTimer.now();
+            if (now >= nextReport) {
+                report();
+                nextReport = now + REPORT_INTERVAL_MS;
+            }
+            long frameMs;
+            if (outgoingLayer != null) {
+                frameMs = transition.getFrameInterval();
+            } else if (current != null && current.getAnimation() != null) {
+                frameMs = 1000 / ANIMATED_FPS;
+            } else {
+                frameMs = STATIC_FRAME_MS;
+            }
+            try {
+                Thread.sleep(Math.max(1, frameStart + frameMs - now));
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        endTransition();
+        if (layer != null) {
+            layer.flush();
+            layer = null;
+        }
+    }
+
+
+    /**
+     * Draws one frame into the back buffer and shows it, redrawing if the buffer contents are lost on the way.
+     * @param layout The billboard to draw, or null if there is none yet.
+     */
+    private void renderFrame(BillboardLayout layout) {
+        BufferStrategy strategy = window.getBufferStrategy();
+        if (strategy == null) {
+            return;
+        }
+        long begin = System.nanoTime();
+        do {
+            do {
+                Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+                try {
+                    draw(g, layout);
+                } finally {
+                    g.dispose();
+                }
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+        recordFrame(System.nanoTime() - begin);
+    }
+
+
+    /**
+     * Draws the billboard layer and the current animation frame over it, then fades the outgoing billboard out over
+     * the top if a transition is in progress.
+     */
+    private void draw(Graphics2D g, BillboardLayout layout) {
+        if (layout == null) {
+            g.setColor(window.getBackground());
+            g.fillRect(0, 0, window.getWidth(), window.getHeight());
+            return;
+        }
+        long now = AnimationTimer.now();
+        if (layout != layerLayout) {
+            beginTransition(layout, now);
+        }
+        float progress = transition.getProgress(now);
+        if (outgoingLayer != null && progress >= 1) {
+            endTransition();
+        }
+
+        boolean lost;
+        do {
+            layer = validateLayer(layer, layout, layout.getAnimation() == null);
+            g.drawImage(layer, 0, 0, null);
+            GifAnimation animation = layout.getAnimation();
+            if (animation != null) {
+                Rectangle bounds = BillboardPainter.getPictureBounds(layout);
+                int frame = animation.getFrameAt(now - layerStartTime);
+                g.drawImage(animation.getFrame(frame), bounds.x, bounds.y, null);
+            }
+            lost = layer.contentsLost();
+
+            if (outgoingLayer != null) {
+                outgoingLayer = validateLayer(outgoingLayer, outgoingLayout, true);
+                Composite composite = g.getComposite();
+                g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1 - progress));
+                g.drawImage(outgoingLayer, 0, 0, null);
+                g.setComposite(composite);
+                lost |= outgoingLayer.contentsLost();
+            }
+        } while (lost);
+
+        if (outgoingLayer != null) {
+            transition.frameDrawn(System.nanoTime());
+        }
+    }
+
+
+    /**
+     * Switches to a new billboard. If transitions are enabled the current layer is kept for fading out, with its
+     * animation frozen on the frame that was showing.
+     */
+    private void beginTransition(BillboardLayout layout, long now) {
+        endTransition();
+        if (layer != null && transition.isEnabled()) {
+            GifAnimation animation = layerLayout.getAnimation();
+            if (animation != null) {
+                Rectangle bounds = BillboardPainter.getPictureBounds(layerLayout);
+                Graphics2D g = layer.createGraphics();
+                try {
+                    g.drawImage(animation.getFrame(animation.getFrameAt(now - layerStartTime)), bounds.x, bounds.y,
+                            null);
+                } finally {
+                    g.dispose();
+                }
+            }
+            outgoingLayer = layer;
+            outgoingLayout = layerLayout;
+            transition.start(now);
+        } else if (layer != null) {
+            layer.flush();
+        }
+        layer = null;
+        layerLayout = layout;
+        layerStartTime = now;
+    }
+
+
+    private void endTransition() {
+        if (outgoingLayer != null) {
+            outgoingLayer.flush();
+            outgoingLayer = null;
+            outgoingLayout = null;
+            transition.finish();
+        }
+    }
+
+
+    /**
+     * Makes sure a layer holds its billboard: creating it if there is none or it no longer suits the screen, and
+     * repainting it if its contents were lost.
+     * @param layer The layer, or null to create one.
+     * @param layout The billboard the layer shows.
+     * @param includePicture False to leave the picture out of the layer, for animations drawn over it.
+     * @return The valid layer, which may be a new image.
+     */
+    private VolatileImage validateLayer(VolatileImage layer, BillboardLayout layout, boolean includePicture) {
+        GraphicsConfiguration gc = window.getGraphicsConfiguration();
+        Dimension size = layout.getDisplaySize();
+        int state = layer == null ? VolatileImage.IMAGE_INCOMPATIBLE : layer.validate(gc);
+        if (state == VolatileImage.IMAGE_INCOMPATIBLE
+                || layer.getWidth() != size.width || layer.getHeight() != size.height) {
+            if (layer != null) {
+                layer.flush();
+            }
+            layer = gc.createCompatibleVolatileImage(size.width, size.height);
+            state = VolatileImage.IMAGE_RESTORED;
+        }
+        if (state == VolatileImage.IMAGE_RESTORED) {
+            Graphics2D g = layer.createGraphics();
+            try {
+                BillboardPainter.paint(g, layout, includePicture);
+            } finally {
+                g.dispose();
+            }
+        }
+        return layer;
+    }
+
+
+    private void recordFrame(long nanos) {
+        frames.incrementAndGet();
+        totalFrameNanos.addAndGet(nanos);
+        lastFrameNanos = nanos;
+        if (nanos > maxFrameNanos) {
+            maxFrameNanos = nanos;
+        }
+    }
+
+
+    private void report() {
+        System.out.printf("Rendered %d frames, average %.2f ms, longest %.2f ms%n",
+                getFrameCount(), getAverageFrameTime() / 1e6, getMaxFrameTime() / 1e6);
+    }
+}
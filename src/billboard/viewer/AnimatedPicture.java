@@ -0,0 +1,81 @@
+package billboard.viewer;
+
+import javax.swing.*;
+import java.awt.*;
+
+
+/**
+ * Component that plays a GifAnimation, centred within its bounds. Frames are drawn as they are, already scaled, and
+ * are advanced by the shared AnimationTimer while the component is showing.
+ */
+public class AnimatedPicture extends JComponent {
+    static private final long MAX_CATCH_UP_MS = 1000;   // Longer stalls restart timing rather than skipping frames
+
+    private final GifAnimation animation;
+    private int frame = 0;
+    private long nextFrameTime;
+
+
+    /**
+     * Creates a component playing an animation from its first frame.
+     * @param animation The animation to play.
+     */
+    public AnimatedPicture(GifAnimation animation) {
+        this.animation = animation;
+        setOpaque(false);
+        setPreferredSize(animation.getSize());
+    }
+
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        nextFrameTime = AnimationTimer.now() + animation.getDelay(frame);
+        AnimationTimer.getShared().add(this);
+    }
+
+
+    @Override
+    public void removeNotify() {
+        AnimationTimer.getShared().remove(this);
+        super.removeNotify();
+    }
+
+
+    /**
+     * @return When the next frame is due, in AnimationTimer time.
+     */
+    long getNextFrameTime() {
+        return nextFrameTime;
+    }
+
+
+    /**
+     * Moves on to the frame that should be showing at the given time. Frames that were missed, because the event
+     * dispatch thread was busy, are skipped rather than played late.
+     * @param now Current AnimationTimer time.
+     */
+    void advance(long now) {
+        if (now < nextFrameTime) {
+            return;
+        }
+        if (now - nextFrameTime > MAX_CATCH_UP_MS) {
+            nextFrameTime = now;
+        }
+        int frameCount = animation.getFrameCount();
+        do {
+            frame = (frame + 1) % frameCount;
+            nextFrameTime += animation.getDelay(frame);
+        } while (nextFrameTime <= now);
+        repaint();
+    }
+
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Image image = animation.getFrame(frame);
+        int x = (getWidth() - image.getWidth(null)) / 2;
+        int y = (getHeight() - image.getHeight(null)) / 2;
+        g.drawImage(image, x, y, null);
+    }
+}
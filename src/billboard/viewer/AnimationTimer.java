@@ -0,0 +1,95 @@
+package billboard.viewer;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A single Swing timer that drives every animated picture on screen. Rather than ticking at a fixed rate, the timer is
+ * set to fire when the next frame of any animation is due, so idle periods between frames cost nothing and animations
+ * with different frame rates share one timer without drifting. Everything here runs on the event dispatch thread.
+ */
+class AnimationTimer {
+    static private AnimationTimer sharedTimer;
+
+    private final List<AnimatedPicture> pictures = new ArrayList<>();
+    private final Timer timer;
+
+
+    private AnimationTimer() {
+        timer = new Timer(0, e -> tick());
+        timer.setRepeats(false);
+    }
+
+
+    /**
+     * @return The timer shared by all animated pictures. Must be called on the event dispatch thread.
+     */
+    static AnimationTimer getShared() {
+        if (sharedTimer == null) {
+            sharedTimer = new AnimationTimer();
+        }
+        return sharedTimer;
+    }
+
+
+    /**
+     * Starts driving a picture's animation.
+     * @param picture The picture to animate.
+     */
+    void add(AnimatedPicture picture) {
+        if (!pictures.contains(picture)) {
+            pictures.add(picture);
+            schedule(now());
+        }
+    }
+
+
+    /**
+     * Stops driving a picture's animation. The timer stops when no pictures are left.
+     * @param picture The picture to stop animating.
+     */
+    void remove(AnimatedPicture picture) {
+        pictures.remove(picture);
+        if (pictures.isEmpty()) {
+            timer.stop();
+        }
+    }
+
+
+    /**
+     * Advances every picture whose next frame is due, then waits for the next one.
+     */
+    private void tick() {
+        long now = now();
+        for (AnimatedPicture picture : pictures) {
+            picture.advance(now);
+        }
+        schedule(now);
+    }
+
+
+    /**
+     * Sets the timer to fire when the earliest next frame is due.
+     */
+    private void schedule(long now) {
+        if (pictures.isEmpty()) {
+            return;
+        }
+        long next = Long.MAX_VALUE;
+        for (AnimatedPicture picture : pictures) {
+            next = Math.min(next, picture.getNextFrameTime());
+        }
+        timer.setInitialDelay((int) Math.max(0, next - now));
+        timer.restart();
+    }
+
+
+    /**
+     * @return Monotonic time in milliseconds.
+     */
+    static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,225 @@
+package billboard.viewer;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.awt.*;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Immutable model of the content of a billboard as described by its XML: the background colour and the message,
+ * picture and information elements. Elements that the XML does not define are null.
+ */
+public class BillboardContent {
+    static private final String DEFAULT_BG_COLOUR = "#F4F4F4";
+    static private final String DEFAULT_TEXT_COLOUR = "#000000";
+
+    private final Color backgroundColour;
+    private final String message;
+    private final Color messageColour;
+    private final String pictureUrl;
+    private final String pictureData;
+    private final String pictureBlob;
+    private final String information;
+    private final Color informationColour;
+    private volatile String layoutHash;    // Computed when first needed
+
+
+    /**
+     * Creates a billboard content model. Null colours are replaced with the billboard defaults.
+     * @param backgroundColour Background colour of the billboard.
+     * @param message Message text, or null if there is no message element.
+     * @param messageColour Colour of the message text.
+     * @param pictureUrl URL of the picture, or null if the picture is not linked by URL.
+     * @param pictureData Base64 encoded picture, or null if the picture is not embedded.
+     * @param information Information text, or null if there is no information element.
+     * @param informationColour Colour of the information text.
+     */
+    public BillboardContent(Color backgroundColour, String message, Color messageColour, String pictureUrl,
+                            String pictureData, String information, Color informationColour) {
+        this(backgroundColour, message, messageColour, pictureUrl, pictureData, null, information, informationColour);
+    }
+
+
+    /**
+     * Creates a billboard content model. Null colours are replaced with the billboard defaults.
+     * @param backgroundColour Background colour of the billboard.
+     * @param message Message text, or null if there is no message element.
+     * @param messageColour Colour of the message text.
+     * @param pictureUrl URL of the picture, or null if the picture is not linked by URL.
+     * @param pictureData Base64 encoded picture, or null if the picture is not embedded.
+     * @param pictureBlob Hash of the picture stored by the server as a blob, or null if the picture is not a blob.
+     * @param information Information text, or null if there is no information element.
+     * @param informationColour Colour of the information text.
+     */
+    public BillboardContent(Color backgroundColour, String message, Color messageColour, String pictureUrl,
+                            String pictureData, String pictureBlob, String information, Color informationColour) {
+        this.backgroundColour = backgroundColour == null ? Color.decode(DEFAULT_BG_COLOUR) : backgroundColour;
+        this.message = message;
+        this.messageColour = messageColour == null ? Color.decode(DEFAULT_TEXT_COLOUR) : messageColour;
+        this.pictureUrl = pictureUrl;
+        this.pictureData = pictureData;
+        this.pictureBlob = pictureBlob;
+        this.information = information;
+        this.informationColour = informationColour == null ? Color.decode(DEFAULT_TEXT_COLOUR) : informationColour;
+    }
+
+
+    /**
+     * Creates the content model from the DOM of a billboard XML file. The elements are defined by tag names:
+     * 'billboard', 'message', 'picture' and 'information'.
+     * @param doc DOM representation of the billboard XML.
+     * @return The billboard content. Returns null if the billboard would have nothing to display, or if the document
+     * is not a billboard.
+     */
+    public static BillboardContent fromDocument(Document doc) {
+        // Check that the loaded xml is a billboard
+        Element billboard = doc.getDocumentElement();
+        if (!billboard.getTagName().equals("billboard")) {
+            return null;
+        }
+
+        Element messageElement = getDocElement(doc, "message");
+        Element pictureElement = getDocElement(doc, "picture");
+        Element infoElement = getDocElement(doc, "information");
+
+        // Check that the billboard has something to display
+        if (messageElement == null && pictureElement == null && infoElement == null) {
+            return null;
+        }
+
+        String pictureUrl = null;
+        String pictureData = null;
+        String pictureBlob = null;
+        if (pictureElement != null) {
+            pictureUrl = emptyToNull(pictureElement.getAttribute("url"));
+            pictureData = emptyToNull(pictureElement.getAttribute("data"));
+            pictureBlob = emptyToNull(pictureElement.getAttribute("blob"));
+        }
+
+        return new BillboardContent(
+                parseColour(billboard.getAttribute("background")),
+                messageElement == null ? null : messageElement.getTextContent(),
+                messageElement == null ? null : parseColour(messageElement.getAttribute("colour")),
+                pictureUrl,
+                pictureData,
+                pictureBlob,
+                infoElement == null ? null : infoElement.getTextContent(),
+                infoElement == null ? null : parseColour(infoElement.getAttribute("colour")));
+    }
+
+
+    public Color getBackgroundColour() {
+        return backgroundColour;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Color getMessageColour() {
+        return messageColour;
+    }
+
+    public String getPictureUrl() {
+        return pictureUrl;
+    }
+
+    public String getPictureData() {
+        return pictureData;
+    }
+
+    public String getPictureBlob() {
+        return pictureBlob;
+    }
+
+    public String getInformation() {
+        return information;
+    }
+
+    public Color getInformationColour() {
+        return informationColour;
+    }
+
+    public boolean hasMessage() {
+        return message != null;
+    }
+
+    /**
+     * @return True if the billboard defines a picture element, whether or not the picture itself can be loaded.
+     */
+    public boolean hasPicture() {
+        return pictureUrl != null || pictureData != null || pictureBlob != null;
+    }
+
+    public boolean hasInformation() {
+        return information != null;
+    }
+
+
+    /**
+     * Gets a hash of the parts of the billboard that affect its layout: the message and information text, and whether
+     * there is a picture. Colours and the picture itself do not change the layout, so billboards that differ only in
+     * those share a hash.
+     * @return Lowercase hex SHA-256 hash.
+     * @see RenderPlanCache
+     */
+    public String getLayoutHash() {
+        String hash = layoutHash;
+        if (hash == null) {
+            StringBuilder key = new StringBuilder();
+            appendField(key, message);
+            appendField(key, information);
+            key.append(hasPicture() ? 'P' : '-');
+            hash = ImageCache.sha256(key.toString().getBytes(StandardCharsets.UTF_8));
+            layoutHash = hash;
+        }
+        return hash;
+    }
+
+
+    /**
+     * Appends a length-prefixed field to a hash key, so that different field splits cannot produce the same key.
+     */
+    private static void appendField(StringBuilder key, String value) {
+        if (value == null) {
+            key.append("-:");
+        } else {
+            key.append(value.length()).append(':').append(value);
+        }
+    }
+
+
+    /**
+     * Gets the the element with name 'tagName' from the specified document object model (DOM).
+     * @param doc Document object model to retrieve the element from.
+     * @param tagName Tag name of the element to retrieve.
+     * @return The first matching requested element, or null if none exist.
+     */
+    private static Element getDocElement(Document doc, String tagName) {
+        try {
+            return (Element) doc.getElementsByTagName(tagName).item(0);
+        }
+        catch (Exception ignored) {}
+        return null;
+    }
+
+
+    /**
+     * Decodes a colour attribute.
+     * @param colour Colour attribute value, such as "#FF0000".
+     * @return The colour, or null if the attribute was not set.
+     */
+    static Color parseColour(String colour) {
+        if (colour == null || colour.equals("")) {
+            return null;
+        }
+        return Color.decode(colour);
+    }
+
+
+    private static String emptyToNull(String value) {
+        return value.equals("") ? null : value;
+    }
+}
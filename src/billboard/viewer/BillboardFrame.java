@@ -6,16 +6,35 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
  * Fullscreen billboard display as a JFrame window. An instance of this class serves as the billboard viewer. Uses the
  * BillboardDisplay class to actually show the graphical elements loaded from XML.
+ * <p>
+ * When the billboard.activeRender system property is true, billboards are instead drawn by an ActiveRenderer straight
+ * into the frame's buffer strategy, and the Swing components are not used.
+ * <p>
+ * In image mode the frame shows billboards the server has already rendered, with showBillboardImage.
  */
 public class BillboardFrame extends JFrame {
+    static private final String ACTIVE_RENDER_PROPERTY = "billboard.activeRender";
+
+    private final BillboardLoader loader = new BillboardLoader();
+    private final ActiveRenderer renderer;
+    private final BillboardTransition transition = new BillboardTransition();
+    private final TransitionPane transitionPane;
+    private final Dimension screenSize;
+    private JComponent currentBillboard;
+    private int requestedGeneration = 0;    // Incremented for every billboard requested, to discard stale loads
+    private String preparedXml;             // Billboard prepared ahead by prepareBillboardXml. Guarded by this
+    private CompletableFuture<BillboardLayout> prepared;
+
     /**
-     * Constructs a new fullscreen billboard frame extended from JFrame. The billboards contents is generated from
-     * the the XML file on the listed file path.
+     * Constructs a new fullscreen billboard frame extended from JFrame. The frame starts empty; billboards are shown
+     * with showBillboard or showBillboardXml.
      */
     public BillboardFrame() {
         // Set the look and feel
@@ -26,17 +45,23 @@ public class BillboardFrame extends JFrame {
             System.exit(-1);
         }
 
-        // Format the billboard GUI according the specifications of a selected XML document
-        String xmlFilePath = "xml_docs/billboard6.xml";    //TODO: Make this a server request
-
         // Set as borderless full screen application
         setExtendedState(JFrame.MAXIMIZED_BOTH);
         setUndecorated(true);
         setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
-        Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
+        screenSize = Toolkit.getDefaultToolkit().getScreenSize();
+        getContentPane().setPreferredSize(screenSize);
 
-        BillboardDisplay billboard = new BillboardDisplay(xmlFilePath, screenSize);
-        getContentPane().add(billboard);
+        // Draw every frame ourselves in active render mode
+        if (Boolean.getBoolean(ACTIVE_RENDER_PROPERTY)) {
+            renderer = new ActiveRenderer(this, transition);
+            transitionPane = null;
+            setIgnoreRepaint(true);
+        } else {
+            renderer = null;
+            transitionPane = new TransitionPane(transition);
+            setGlassPane(transitionPane);
+        }
 
         // Set the user inputs that will quit the program
         setExitInputs();
@@ -46,6 +71,167 @@ public class BillboardFrame extends JFrame {
     }
 
 
+    /**
+     * Starts the active renderer, if it is used, once the frame can have a buffer strategy.
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (renderer != null) {
+            renderer.start();
+        }
+    }
+
+
+    /**
+     * Stops the active renderer, if it is used, before the frame's buffers are released.
+     */
+    @Override
+    public void removeNotify() {
+        if (renderer != null) {
+            renderer.stop();
+        }
+        super.removeNotify();
+    }
+
+
+    /**
+     * @return The transitions between billboards, with their frame statistics.
+     */
+    public BillboardTransition getTransition() {
+        return transition;
+    }
+
+
+    /**
+     * @return The active renderer, or null if the frame is shown with Swing components.
+     */
+    public ActiveRenderer getActiveRenderer() {
+        return renderer;
+    }
+
+
+    /**
+     * Starts loading a billboard file in the background. The billboard currently on screen stays there until the new
+     * one is fully prepared, at which point the two are swapped on the event dispatch thread. If the new billboard
+     * cannot be loaded the current one is kept.
+     * @param xmlPath Path of the billboard XML file.
+     */
+    public void showBillboard(String xmlPath) {
+        show(loader.load(xmlPath, screenSize), xmlPath);
+    }
+
+
+    /**
+     * Starts loading a billboard received as XML, such as from the server. Behaves like showBillboard.
+     * @param xml The billboard XML.
+     */
+    public void showBillboardXml(String xml) {
+        CompletableFuture<BillboardLayout> load;
+        synchronized (this) {
+            load = xml.equals(preparedXml) ? prepared : null;
+            preparedXml = null;
+            prepared = null;
+        }
+        show(load != null ? load : loader.loadXml(xml, screenSize), "from server");
+    }
+
+
+    /**
+     * Starts preparing a billboard that is due to be shown soon, so that showBillboardXml can show it as soon as it
+     * is called with the same XML. Only the latest billboard prepared is kept.
+     * @param xml The billboard XML.
+     */
+    public void prepareBillboardXml(String xml) {
+        synchronized (this) {
+            if (xml.equals(preparedXml)) {
+                return;
+            }
+            preparedXml = xml;
+            prepared = loader.loadXml(xml, screenSize);
+        }
+    }
+
+
+    /**
+     * Shows a billboard rendered by the server, replacing the one on screen on the event dispatch thread. The image is
+     * expected to be the size of the screen, so it is drawn unscaled.
+     * @param image The rendered billboard.
+     */
+    public void showBillboardImage(BufferedImage image) {
+        synchronized (this) {
+            ++requestedGeneration;  // Discards any billboard still loading
+        }
+        SwingUtilities.invokeLater(() -> {
+            if (renderer != null) {
+                // Images are shown with a Swing component, so the active renderer must stop drawing over it
+                renderer.stop();
+                setIgnoreRepaint(false);
+            }
+            JLabel billboard = new JLabel(new ImageIcon(image));
+            billboard.setPreferredSize(screenSize);
+            billboard.setOpaque(true);
+            billboard.setBackground(new Color(image.getRGB(0, 0)));
+            swapBillboard(billboard);
+        });
+    }
+
+
+    /**
+     * Swaps in a billboard once it has finished loading, unless another billboard has been requested since.
+     * @param load The billboard being loaded.
+     * @param description Description of the billboard for error messages.
+     */
+    private void show(CompletableFuture<BillboardLayout> load, String description) {
+        final int generation;
+        synchronized (this) {
+            generation = ++requestedGeneration;
+        }
+        load.whenComplete((layout, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                System.err.println("Unable to load billboard " + description + ": " + cause.getMessage());
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                // A billboard requested later may have finished first
+                synchronized (this) {
+                    if (generation != requestedGeneration) {
+                        return;
+                    }
+                }
+                if (renderer != null) {
+                    renderer.setBillboardLayout(layout);
+                } else {
+                    swapBillboard(new BillboardDisplay(layout));
+                }
+            });
+        });
+    }
+
+
+    /**
+     * Replaces the billboard on screen, cross-fading from the current one if transitions are enabled. Must be called
+     * on the event dispatch thread.
+     * @param billboard The billboard to show.
+     */
+    private void swapBillboard(JComponent billboard) {
+        Container contentPane = getContentPane();
+        if (currentBillboard != null) {
+            if (transitionPane != null && transition.isEnabled() && currentBillboard.isShowing()) {
+                // Cover the frame with the fade before the swap, so the swap itself is never seen
+                transitionPane.fade(transitionPane.capture(currentBillboard), transitionPane.snapshot(billboard));
+            }
+            contentPane.remove(currentBillboard);
+        }
+        contentPane.setBackground(billboard.getBackground());
+        contentPane.add(billboard);
+        currentBillboard = billboard;
+        contentPane.revalidate();
+        contentPane.repaint();
+    }
+
+
     /**
      * Sets up the billboard window so the program will exit if ESC or Left Mouse Button are pressed.
      */
@@ -4,6 +4,7 @@ import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
 
 import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Transformer;
@@ -11,9 +12,11 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.net.URL;
 import java.nio.file.Files;
@@ -26,32 +29,110 @@ import java.util.Base64;
  */
 public class BillboardIO {
     /**
-     * Gets the image at the specified url.
+     * Gets the image at the specified url. Images are served from the shared ImageCache when they have been seen
+     * before, so the same image is not downloaded or decoded again on every billboard refresh.
      * @param url URL to retrieve the image from.
      * @return The image at the specified URL. Returns null if the URL was not valid.
+     * @see ImageCache
      */
     public static Image getImageFromURL(URL url) {
+        return ImageCache.getShared().getImage(url);
+    }
+
+
+    /**
+     * Gets a picture the server stores as a blob, from the shared BlobCache.
+     * @param hash Hash of the blob.
+     * @return The decoded image. Returns null if the blob could not be fetched or decoded.
+     * @see BlobCache
+     */
+    public static Image getImageFromBlob(String hash) {
+        byte[] blob = BlobCache.getShared().get(hash);
+        if (blob == null) {
+            return null;
+        }
         try {
-            return ImageIO.read(url);
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(blob));
+            if (image == null) {
+                System.err.println("Unable to form image from blob " + hash + ": unrecognised image format");
+            }
+            return image;
         } catch (IOException e) {
-            System.err.println("Could not get image from url:\n" + url.toString());
+            System.err.println("Unable to form image from blob " + hash + ": " + e.getMessage());
         }
         return null;
     }
 
 
     /**
-     * Decodes an image from Base64 encoding.
+     * Decodes an image from Base64 encoding. The characters are streamed through a Base64 decoder straight into the
+     * image reader, so neither the encoded nor the decoded bytes are ever copied out in full.
      * @param imageData Base64 image data to decode.
      * @return The decoded image. Returns null if the decoding was unsuccessful.
      */
-    public static Image decodeImageFromBase64(String imageData) {
-        byte[] byteImage = Base64.getDecoder().decode(imageData);
-        ByteArrayInputStream inStream = new ByteArrayInputStream(byteImage);
+    public static Image decodeImageFromBase64(CharSequence imageData) {
+        InputStream decoded = Base64.getDecoder().wrap(new CharSequenceInputStream(imageData));
         try {
-            return ImageIO.read(inStream);
+            // ImageIO.read closes the stream once it has finished
+            BufferedImage image = ImageIO.read(new MemoryCacheImageInputStream(decoded));
+            if (image == null) {
+                System.err.println("Unable to form image from " + imageData.length() + " characters of data: "
+                        + "unrecognised image format");
+            }
+            return image;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Unable to form image from " + imageData.length() + " characters of data: "
+                    + e.getMessage());
+        }
+        return null;
+    }
+
+
+    /**
+     * Decodes Base64 data into bytes. The characters are streamed through a Base64 decoder into an array of exactly
+     * the decoded size, so the encoded data is never copied out in full.
+     * @param data Base64 data to decode.
+     * @return The decoded bytes. Returns null if the data is not valid Base64.
+     */
+    public static byte[] decodeBase64(CharSequence data) {
+        int length = data.length();
+        int padding = 0;
+        while (padding < 2 && padding < length && data.charAt(length - 1 - padding) == '=') {
+            padding++;
+        }
+        int size = length / 4 * 3 + Math.max(0, length % 4 - 1) - padding;
+        byte[] bytes = new byte[Math.max(0, size)];
+        int position = 0;
+        try (InputStream decoded = Base64.getDecoder().wrap(new CharSequenceInputStream(data))) {
+            int read;
+            while (position < bytes.length && (read = decoded.read(bytes, position, bytes.length - position)) > 0) {
+                position += read;
+            }
+            if (position < bytes.length || decoded.read() != -1) {
+                throw new IOException("unexpected length");
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Unable to decode " + length + " characters of Base64 data: " + e.getMessage());
+            return null;
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Decodes an image already held in memory.
+     * @param encoded The encoded image.
+     * @return The decoded image. Returns null if the decoding was unsuccessful.
+     */
+    public static Image decodeImage(byte[] encoded) {
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(encoded));
+            if (image == null) {
+                System.err.println("Unable to form image from " + encoded.length + " bytes: unrecognised image format");
+            }
+            return image;
         } catch (IOException e) {
-            System.err.println("Unable to form image from data:\n" + imageData);
+            System.err.println("Unable to form image from " + encoded.length + " bytes: " + e.getMessage());
         }
         return null;
     }
@@ -109,4 +190,44 @@ public class BillboardIO {
             return null;
         }
     }
+
+
+    /**
+     * Reads the characters of a CharSequence as single bytes. Only suitable for ASCII text such as Base64, where it
+     * avoids making a byte array copy of the whole sequence.
+     */
+    private static class CharSequenceInputStream extends InputStream {
+        private final CharSequence chars;
+        private int position = 0;
+
+        CharSequenceInputStream(CharSequence chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        public int read() {
+            return position < chars.length() ? chars.charAt(position++) & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int count = Math.min(length, chars.length() - position);
+            if (count <= 0) {
+                return -1;
+            }
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) chars.charAt(position + i);
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return chars.length() - position;
+        }
+    }
 }
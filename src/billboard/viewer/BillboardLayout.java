@@ -0,0 +1,112 @@
+package billboard.viewer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+
+/**
+ * A billboard ready to be shown at a particular display size: its content, its render plan and the picture scaled to
+ * fit. Everything that needs IO or font measurement has already been done, so BillboardDisplay only has to place the
+ * components.
+ * @see BillboardLoader Creates layouts in the background.
+ * @see RenderPlan The cached part of the layout.
+ */
+public class BillboardLayout {
+    private final BillboardContent content;
+    private final RenderPlan plan;
+    private final BufferedImage scaledImage;
+    private final GifAnimation animation;
+
+
+    /**
+     * Creates the layout of a billboard, using a cached render plan where one exists. The picture is scaled here, so
+     * this should be called off the event dispatch thread.
+     * @param content The billboard content.
+     * @param image The decoded picture, or null if the billboard has no picture or it could not be loaded.
+     * @param displaySize Size of the display the billboard will fill.
+     */
+    public BillboardLayout(BillboardContent content, Image image, Dimension displaySize) {
+        this(content, image, null, displaySize);
+    }
+
+
+    /**
+     * Creates the layout of a billboard whose picture may be an animated GIF. The frames are decoded and scaled here,
+     * so this should be called off the event dispatch thread.
+     * @param content The billboard content.
+     * @param image The decoded picture, or null if the billboard has no picture or it could not be loaded.
+     * @param gif The encoded picture if it is a GIF, otherwise null.
+     * @param displaySize Size of the display the billboard will fill.
+     */
+    public BillboardLayout(BillboardContent content, Image image, byte[] gif, Dimension displaySize) {
+        this.content = content;
+        this.plan = RenderPlanCache.getShared().get(content, displaySize);
+
+        animation = gif != null && content.hasPicture() ? GifAnimation.get(gif, plan) : null;
+        if (animation != null) {
+            scaledImage = animation.getFrame(0);
+        } else if (image != null && content.hasPicture()) {
+            Dimension currentImageSize = new Dimension(image.getWidth(null), image.getHeight(null));
+            Dimension newImageSize = plan.getScaledImageSize(currentImageSize);
+            scaledImage = ImageScaler.getShared().getScaled(image, newImageSize);
+        } else {
+            scaledImage = null;
+        }
+    }
+
+
+    public BillboardContent getContent() {
+        return content;
+    }
+
+    public RenderPlan getPlan() {
+        return plan;
+    }
+
+    public Dimension getDisplaySize() {
+        return plan.getDisplaySize();
+    }
+
+    /**
+     * @return Size of the message component, or null if there is no message.
+     */
+    public Dimension getMessageSize() {
+        return plan.getMessageSize();
+    }
+
+    /**
+     * @return Size of the picture component, or null if there is no picture.
+     */
+    public Dimension getPictureSize() {
+        return plan.getPictureSize();
+    }
+
+    /**
+     * @return Size of the information component, or null if there is no information.
+     */
+    public Dimension getInfoSize() {
+        return plan.getInfoSize();
+    }
+
+    public Font getMessageFont() {
+        return plan.getMessageFont();
+    }
+
+    public Font getInfoFont() {
+        return plan.getInfoFont();
+    }
+
+    /**
+     * @return The picture scaled to fit its bounds, or null if there is no picture to show.
+     */
+    public BufferedImage getScaledImage() {
+        return scaledImage;
+    }
+
+    /**
+     * @return The picture's animation, already scaled, or null if the picture is not animated.
+     */
+    public GifAnimation getAnimation() {
+        return animation;
+    }
+}
@@ -0,0 +1,253 @@
+package billboard.viewer;
+
+import java.awt.*;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+
+/**
+ * Prepares billboards for display in a staged pipeline: fetch the XML, parse it, fetch and decode the picture, then
+ * compute the layout. The stages run on a background executor so that a slow image URL never blocks the Swing event
+ * dispatch thread. The result is a BillboardLayout that BillboardDisplay can show without any further IO or
+ * measurement.
+ */
+public class BillboardLoader {
+    static private final String BASE64_GIF_SIGNATURE = "R0lGOD";    // "GIF8" encoded in Base64
+
+    private final ExecutorService executor;
+
+
+    /**
+     * Creates a billboard loader with its own background worker thread.
+     */
+    public BillboardLoader() {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "billboard-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Starts preparing the billboard at the given path in the background.
+     * @param xmlPath Path of the billboard XML file.
+     * @param displaySize Size of the display the billboard will fill.
+     * @return A future completed with the billboard layout, or completed exceptionally if the billboard could not be
+     * loaded.
+     */
+    public CompletableFuture<BillboardLayout> load(String xmlPath, Dimension displaySize) {
+        return CompletableFuture.supplyAsync(() -> fetchXml(xmlPath), executor)
+                .thenApplyAsync(BillboardLoader::parse, executor)
+                .thenApplyAsync(content -> computeLayout(content, fetchPicture(content), displaySize), executor);
+    }
+
+
+    /**
+     * Starts preparing a billboard that has already been fetched, such as one received from the server.
+     * @param xml The billboard XML.
+     * @param displaySize Size of the display the billboard will fill.
+     * @return A future completed with the billboard layout, or completed exceptionally if the billboard could not be
+     * loaded.
+     */
+    public CompletableFuture<BillboardLayout> loadXml(String xml, Dimension displaySize) {
+        return CompletableFuture.supplyAsync(() -> parse(xml), executor)
+                .thenApplyAsync(content -> computeLayout(content, fetchPicture(content), displaySize), executor);
+    }
+
+
+    /**
+     * Stops the background worker. Loads already started are abandoned.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Prepares the billboard at the given path on the calling thread.
+     * @param xmlPath Path of the billboard XML file.
+     * @param displaySize Size of the display the billboard will fill.
+     * @return The billboard layout. Returns null if the billboard could not be loaded.
+     */
+    public static BillboardLayout prepare(String xmlPath, Dimension displaySize) {
+        try {
+            BillboardContent content = parse(fetchXml(xmlPath));
+            return computeLayout(content, fetchPicture(content), displaySize);
+        } catch (CompletionException e) {
+            System.err.println(e.getCause().getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * Prepares a billboard received as XML on the calling thread, as a still: an animated GIF picture is laid out as
+     * its first frame. Used to render billboards to images, such as on the server.
+     * @param xml The billboard XML.
+     * @param displaySize Size of the display the billboard will fill.
+     * @return The billboard layout. Returns null if the billboard could not be loaded.
+     */
+    public static BillboardLayout prepareStill(String xml, Dimension displaySize) {
+        return prepareStill(xml, displaySize, BillboardLoader::fetchImage);
+    }
+
+
+    /**
+     * Prepares a billboard received as XML on the calling thread, as a still, getting its picture with the given
+     * fetcher rather than the viewer's caches.
+     * @param xml The billboard XML.
+     * @param displaySize Size of the display the billboard will fill.
+     * @param pictureFetcher Gets the decoded picture of the billboard, or null if it has none or it cannot be fetched.
+     * @return The billboard layout. Returns null if the billboard could not be loaded.
+     */
+    public static BillboardLayout prepareStill(String xml, Dimension displaySize,
+                                               Function<BillboardContent, Image> pictureFetcher) {
+        try {
+            BillboardContent content = parse(xml);
+            return computeLayout(content, pictureFetcher.apply(content), null, displaySize);
+        } catch (CompletionException e) {
+            System.err.println(e.getCause().getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * Fetch stage: reads the billboard XML.
+     * @param xmlPath Path of the billboard XML file.
+     * @return The XML string.
+     */
+    static String fetchXml(String xmlPath) {
+        String xml = BillboardIO.getFileContentsAsString(xmlPath);
+        if (xml == null) {
+            throw failure("Unable to read billboard: " + xmlPath);
+        }
+        return xml;
+    }
+
+
+    /**
+     * Parse stage: turns the billboard XML into a content model.
+     * @param xml The XML string.
+     * @return The billboard content.
+     */
+    static BillboardContent parse(String xml) {
+        BillboardContent content = BillboardParser.parse(xml);
+        if (content == null) {
+            throw failure("The billboard is either empty or invalid.");
+        }
+        return content;
+    }
+
+
+    /**
+     * Image stage: gets the billboard picture. This may be a URL, a Base64 encoded string or a blob held by the
+     * server.
+     * @param content The billboard content.
+     * @return The decoded picture. Returns null if there is no picture, if the image could not be decoded, or if no
+     * image could be retrieved from the specified url.
+     */
+    static Image fetchImage(BillboardContent content) {
+        if (content.getPictureUrl() != null) {
+            try {
+                URL url = new URL(content.getPictureUrl());
+                return BillboardIO.getImageFromURL(url);
+            }
+            catch (Exception e) {
+                System.err.println("Invalid url:\n" + content.getPictureUrl());
+                return null;
+            }
+        }
+        if (content.getPictureData() != null) {
+            return BillboardIO.decodeImageFromBase64(content.getPictureData());
+        }
+        if (content.getPictureBlob() != null) {
+            return BillboardIO.getImageFromBlob(content.getPictureBlob());
+        }
+        return null;
+    }
+
+
+    /**
+     * Image stage for display: gets the billboard picture decoded, and also encoded if it is a GIF so that all of its
+     * frames can be decoded rather than only the first. An embedded GIF, recognised by its first bytes, is decoded
+     * from Base64 once and both the still image and the animation are made from those bytes; any other embedded
+     * picture is streamed straight into the image reader.
+     * @param content The billboard content.
+     * @return The picture.
+     */
+    static Picture fetchPicture(BillboardContent content) {
+        String data = content.getPictureData();
+        if (content.getPictureUrl() == null && data != null && data.startsWith(BASE64_GIF_SIGNATURE)) {
+            byte[] gif = BillboardIO.decodeBase64(data);
+            Image image = gif == null ? null : BillboardIO.decodeImage(gif);
+            return new Picture(image, image == null ? null : gif);
+        }
+        return new Picture(fetchImage(content), fetchGif(content));
+    }
+
+
+    /**
+     * Image stage for animations: gets the encoded billboard picture if it is a GIF at a URL or in a blob, so that
+     * all of its frames can be decoded rather than only the first. Embedded GIFs are handled by fetchPicture.
+     * @param content The billboard content.
+     * @return The encoded GIF. Returns null if there is no such picture, or if it is not a GIF.
+     */
+    private static byte[] fetchGif(BillboardContent content) {
+        if (content.getPictureUrl() != null) {
+            try {
+                return ImageCache.getShared().getEncodedGif(new URL(content.getPictureUrl()));
+            }
+            catch (Exception e) {
+                return null;
+            }
+        }
+        if (content.getPictureBlob() != null) {
+            byte[] blob = BlobCache.getShared().get(content.getPictureBlob());
+            return blob != null && GifAnimation.isGif(blob) ? blob : null;
+        }
+        return null;
+    }
+
+
+    /**
+     * Layout stage: measures fonts and scales the picture for the display size.
+     * @param content The billboard content.
+     * @param image The decoded picture, or null.
+     * @param gif The encoded picture if it is a GIF, or null.
+     * @param displaySize Size of the display the billboard will fill.
+     * @return The billboard layout.
+     */
+    static BillboardLayout computeLayout(BillboardContent content, Image image, byte[] gif, Dimension displaySize) {
+        return new BillboardLayout(content, image, gif, displaySize);
+    }
+
+
+    private static BillboardLayout computeLayout(BillboardContent content, Picture picture, Dimension displaySize) {
+        return computeLayout(content, picture.image, picture.gif, displaySize);
+    }
+
+
+    private static CompletionException failure(String message) {
+        return new CompletionException(new IllegalStateException(message));
+    }
+
+
+    /**
+     * A billboard picture, decoded, and encoded if it is a GIF.
+     */
+    static class Picture {
+        private final Image image;      // Null if there is no picture or it could not be decoded
+        private final byte[] gif;       // Null unless the picture is a GIF
+
+        Picture(Image image, byte[] gif) {
+            this.image = image;
+            this.gif = gif;
+        }
+    }
+}
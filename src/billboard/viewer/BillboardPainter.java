@@ -0,0 +1,160 @@
+package billboard.viewer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Draws a prepared billboard directly with Java2D, placing everything where BillboardDisplay's components would be.
+ * No Swing components are involved, so a billboard can be painted from any thread into any image or buffer, such as
+ * the active renderer's back buffer.
+ * @see ActiveRenderer
+ */
+public class BillboardPainter {
+    static private final int TEXT_PANE_MARGIN = 3;  // JTextPane's margin on each side of the information text
+
+
+    /**
+     * Paints a billboard at the top left of a graphics context.
+     * @param g Graphics to paint with.
+     * @param layout The billboard layout.
+     * @param includePicture False to leave the picture out, so that animation frames can be drawn over the rest.
+     */
+    public static void paint(Graphics2D g, BillboardLayout layout, boolean includePicture) {
+        BillboardContent content = layout.getContent();
+        Dimension display = layout.getDisplaySize();
+        applyTextHints(g);
+
+        g.setColor(content.getBackgroundColour());
+        g.fillRect(0, 0, display.width, display.height);
+
+        // Components are stacked in a centred column, as GridBagLayout places them
+        int y = (display.height - getTotalHeight(layout)) / 2;
+        if (content.hasMessage()) {
+            Dimension size = layout.getMessageSize();
+            paintMessage(g, layout, new Rectangle((display.width - size.width) / 2, y, size.width, size.height));
+            y += size.height;
+        }
+        if (content.hasPicture()) {
+            Image image = layout.getScaledImage();
+            if (includePicture && image != null) {
+                Rectangle bounds = getPictureBounds(layout);
+                g.drawImage(image, bounds.x, bounds.y, null);
+            }
+            y += layout.getPictureSize().height;
+        }
+        if (content.hasInformation()) {
+            Dimension size = layout.getInfoSize();
+            paintInformation(g, layout, new Rectangle((display.width - size.width) / 2, y, size.width, size.height));
+        }
+    }
+
+
+    /**
+     * Paints a billboard into a new image the size of its display. Needs no screen, so it works in a headless JVM.
+     * @param layout The billboard layout.
+     * @return The painted billboard, with no alpha channel.
+     */
+    public static BufferedImage render(BillboardLayout layout) {
+        Dimension display = layout.getDisplaySize();
+        BufferedImage image = new BufferedImage(display.width, display.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            paint(g, layout, true);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+
+    /**
+     * Finds where the picture is drawn on the billboard.
+     * @param layout The billboard layout.
+     * @return Bounds of the scaled picture, or null if there is no picture to show.
+     */
+    public static Rectangle getPictureBounds(BillboardLayout layout) {
+        Image image = layout.getScaledImage();
+        if (image == null) {
+            return null;
+        }
+        Dimension display = layout.getDisplaySize();
+        Dimension component = layout.getPictureSize();
+        int y = (display.height - getTotalHeight(layout)) / 2;
+        if (layout.getContent().hasMessage()) {
+            y += layout.getMessageSize().height;
+        }
+        int width = image.getWidth(null);
+        int height = image.getHeight(null);
+        return new Rectangle((display.width - width) / 2, y + (component.height - height) / 2, width, height);
+    }
+
+
+    /**
+     * Draws the message on one line, centred both ways in its bounds as a centred JLabel draws it.
+     */
+    private static void paintMessage(Graphics2D g, BillboardLayout layout, Rectangle bounds) {
+        String message = layout.getContent().getMessage();
+        g.setFont(layout.getMessageFont());
+        g.setColor(layout.getContent().getMessageColour());
+        FontMetrics metrics = g.getFontMetrics();
+        int x = bounds.x + (bounds.width - metrics.stringWidth(message)) / 2;
+        int y = bounds.y + (bounds.height - metrics.getHeight()) / 2 + metrics.getAscent();
+        g.drawString(message, x, y);
+    }
+
+
+    /**
+     * Draws the information text wrapped and centred, with the block of lines centred vertically in its bounds as the
+     * JTextPane in BillboardDisplay is.
+     */
+    private static void paintInformation(Graphics2D g, BillboardLayout layout, Rectangle bounds) {
+        g.setFont(layout.getInfoFont());
+        g.setColor(layout.getContent().getInformationColour());
+        FontMetrics metrics = g.getFontMetrics();
+        int textWidth = bounds.width - 2 * TEXT_PANE_MARGIN;
+        List<String> lines = FontFitter.getWrappedLines(layout.getContent().getInformation(), layout.getInfoFont(),
+                textWidth);
+
+        int textHeight = lines.size() * metrics.getHeight();
+        int y = bounds.y + (bounds.height - textHeight) / 2 + metrics.getAscent();
+        for (String line : lines) {
+            int x = bounds.x + TEXT_PANE_MARGIN + (textWidth - metrics.stringWidth(line)) / 2;
+            g.drawString(line, x, y);
+            y += metrics.getHeight();
+        }
+    }
+
+
+    /**
+     * @return Combined height of the billboard's components.
+     */
+    private static int getTotalHeight(BillboardLayout layout) {
+        int height = 0;
+        if (layout.getMessageSize() != null) {
+            height += layout.getMessageSize().height;
+        }
+        if (layout.getPictureSize() != null) {
+            height += layout.getPictureSize().height;
+        }
+        if (layout.getInfoSize() != null) {
+            height += layout.getInfoSize().height;
+        }
+        return height;
+    }
+
+
+    /**
+     * Uses the desktop's text anti-aliasing settings, as Swing components do, or plain anti-aliasing if there are none.
+     */
+    private static void applyTextHints(Graphics2D g) {
+        Object desktopHints = Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+        if (desktopHints instanceof Map) {
+            g.addRenderingHints((Map<?, ?>) desktopHints);
+        } else {
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        }
+    }
+}
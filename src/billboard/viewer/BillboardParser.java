@@ -0,0 +1,182 @@
+package billboard.viewer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.awt.*;
+import java.io.Reader;
+import java.io.StringReader;
+
+
+/**
+ * Parses billboard XML into a BillboardContent model in a single streaming pass. Unlike building a DOM, no tree of the
+ * document is ever held in memory: each of the 'billboard', 'message', 'picture' and 'information' elements is read
+ * once as the parser passes it. As with the DOM lookups this replaces, only the first occurrence of each element is
+ * used.
+ */
+public class BillboardParser {
+    static private final XMLInputFactory FACTORY = createFactory();
+
+
+    /**
+     * Parses billboard XML.
+     * @param xml XML string to be parsed.
+     * @return The billboard content. Returns null if the XML is malformed, is not a billboard, or if the billboard
+     * would have nothing to display.
+     */
+    public static BillboardContent parse(String xml) {
+        return parse(new StringReader(xml));
+    }
+
+
+    /**
+     * Parses billboard XML from a character stream. The stream is not closed.
+     * @param xml Reader positioned at the start of the XML.
+     * @return The billboard content. Returns null if the XML is malformed, is not a billboard, or if the billboard
+     * would have nothing to display.
+     */
+    public static BillboardContent parse(Reader xml) {
+        try {
+            return read(xml);
+        } catch (XMLStreamException | IllegalArgumentException e) {
+            System.err.println("Unable to parse billboard XML: " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * Parses billboard XML from a character stream, throwing rather than reporting why it cannot be read, for callers
+     * that need the reason. The stream is not closed.
+     * @param xml Reader positioned at the start of the XML.
+     * @return The billboard content, or null if the XML is not a billboard or the billboard would have nothing to
+     * display.
+     * @throws XMLStreamException If the XML is malformed.
+     * @throws IllegalArgumentException If a colour is badly formed; thrown by Color.decode.
+     */
+    public static BillboardContent read(Reader xml) throws XMLStreamException {
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(xml);
+            return readBillboard(reader);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {}
+            }
+        }
+    }
+
+
+    /**
+     * Reads the billboard elements from the stream.
+     * @param reader Stream reader positioned at the start of the document.
+     * @return The billboard content, or null if the document is not a billboard or has nothing to display.
+     * @throws XMLStreamException If the XML is malformed.
+     */
+    private static BillboardContent readBillboard(XMLStreamReader reader) throws XMLStreamException {
+        // Check that the loaded xml is a billboard
+        reader.nextTag();
+        if (!reader.getLocalName().equals("billboard")) {
+            return null;
+        }
+        Color background = BillboardContent.parseColour(reader.getAttributeValue(null, "background"));
+
+        String message = null;
+        Color messageColour = null;
+        boolean hasPicture = false;
+        String pictureUrl = null;
+        String pictureData = null;
+        String pictureBlob = null;
+        String information = null;
+        Color informationColour = null;
+
+        while (reader.hasNext()) {
+            if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            switch (reader.getLocalName()) {
+                case "message":
+                    if (message == null) {
+                        messageColour = BillboardContent.parseColour(reader.getAttributeValue(null, "colour"));
+                        message = readText(reader);
+                    }
+                    break;
+                case "picture":
+                    if (!hasPicture) {
+                        hasPicture = true;
+                        pictureUrl = emptyToNull(reader.getAttributeValue(null, "url"));
+                        pictureData = emptyToNull(reader.getAttributeValue(null, "data"));
+                        pictureBlob = emptyToNull(reader.getAttributeValue(null, "blob"));
+                    }
+                    break;
+                case "information":
+                    if (information == null) {
+                        informationColour = BillboardContent.parseColour(reader.getAttributeValue(null, "colour"));
+                        information = readText(reader);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // Check that the billboard has something to display
+        if (message == null && !hasPicture && information == null) {
+            return null;
+        }
+        return new BillboardContent(background, message, messageColour, pictureUrl, pictureData, pictureBlob,
+                information, informationColour);
+    }
+
+
+    /**
+     * Reads all of the text inside the current element, including the text of any nested elements, and leaves the
+     * reader at the element's end tag.
+     * @param reader Stream reader positioned at a start element.
+     * @return The text content of the element.
+     * @throws XMLStreamException If the XML is malformed.
+     */
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return text.toString();
+    }
+
+
+    private static String emptyToNull(String value) {
+        return value == null || value.equals("") ? null : value;
+    }
+
+
+    /**
+     * Creates the stream reader factory. DTDs and external entities are disabled, since billboards never need them
+     * and they would let a billboard make the viewer read arbitrary files or URLs.
+     */
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
@@ -0,0 +1,97 @@
+package billboard.viewer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Compares the streaming BillboardParser with the DOM path it replaced (BillboardIO.generateDOCfromXML followed by
+ * BillboardContent.fromDocument). Every billboard in the XML directory is parsed, along with a synthetic billboard
+ * carrying a large embedded picture.
+ * <p>
+ * Usage: BillboardParserBenchmark [xml directory] [iterations]
+ */
+public class BillboardParserBenchmark {
+    static private final int WARMUP_ITERATIONS = 200;
+    static private final int LARGE_PICTURE_BYTES = 4 * 1024 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : "xml_docs");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        List<String> corpus = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.xml")) {
+            for (Path file : files) {
+                corpus.add(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            }
+        }
+        String large = createLargePictureBillboard();
+
+        System.out.println("Corpus: " + corpus.size() + " billboards from " + directory);
+        run("DOM  ", corpus, iterations, BillboardParserBenchmark::parseWithDom);
+        run("StAX ", corpus, iterations, BillboardParser::parse);
+
+        List<String> largeCorpus = new ArrayList<>();
+        largeCorpus.add(large);
+        System.out.println("Large picture: " + large.length() / 1024 + " KB of XML");
+        run("DOM  ", largeCorpus, 20, BillboardParserBenchmark::parseWithDom);
+        run("StAX ", largeCorpus, 20, BillboardParser::parse);
+    }
+
+
+    /**
+     * Times parsing every billboard in the corpus.
+     */
+    private static void run(String label, List<String> corpus, int iterations, Parser parser) {
+        for (int i = 0; i < Math.min(iterations, WARMUP_ITERATIONS); i++) {
+            parseAll(corpus, parser);
+        }
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            parseAll(corpus, parser);
+        }
+        double microsPerBillboard = (System.nanoTime() - begin) / 1e3 / ((double) iterations * corpus.size());
+        System.out.printf("  %s %10.1f us/billboard%n", label, microsPerBillboard);
+    }
+
+
+    private static void parseAll(List<String> corpus, Parser parser) {
+        for (String xml : corpus) {
+            if (parser.parse(xml) == null) {
+                throw new IllegalStateException("Benchmark billboard failed to parse");
+            }
+        }
+    }
+
+
+    private static BillboardContent parseWithDom(String xml) {
+        return BillboardContent.fromDocument(BillboardIO.generateDOCfromXML(xml));
+    }
+
+
+    /**
+     * Creates a billboard with a message, information and an embedded picture of random data.
+     */
+    private static String createLargePictureBillboard() {
+        byte[] picture = new byte[LARGE_PICTURE_BYTES];
+        new Random(302).nextBytes(picture);
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<billboard background=\"#0000FF\">\n" +
+                "<message colour=\"#FFFF00\">Large picture billboard</message>\n" +
+                "<picture data=\"" + Base64.getEncoder().encodeToString(picture) + "\" />\n" +
+                "<information>A billboard whose embedded picture dominates its size.</information>\n" +
+                "</billboard>";
+    }
+
+
+    private interface Parser {
+        BillboardContent parse(String xml);
+    }
+}
@@ -0,0 +1,111 @@
+package billboard.viewer;
+
+import billboard.server.FrameReader;
+import billboard.server.FrameWriter;
+import billboard.server.MessageType;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+
+/**
+ * Requests the current billboard from the server on a fixed interval. Each request carries the version token of the
+ * billboard last received, and the server answers "not modified" without a body when nothing has changed. The listener
+ * is only called when the billboard content actually changes, so the viewer does not rebuild its display on every
+ * poll.
+ */
+public class BillboardPoller {
+    static public final long POLL_INTERVAL_SECONDS = 15;
+    static private final int TIMEOUT_MS = 5000;
+
+    private final String host;
+    private final int port;
+    private final Consumer<String> onBillboardChanged;
+    private final ScheduledExecutorService timer;
+    private final FrameWriter writer = new FrameWriter();
+    private final FrameReader reader = new FrameReader();
+    private byte[] version = new byte[0];   // Version token of the last billboard received
+
+
+    /**
+     * Creates a poller for the billboard server.
+     * @param host Host name of the billboard server.
+     * @param port Port of the billboard server.
+     * @param onBillboardChanged Called with the billboard XML whenever a new billboard is received. Called from the
+     *                           polling thread.
+     */
+    public BillboardPoller(String host, int port, Consumer<String> onBillboardChanged) {
+        this.host = host;
+        this.port = port;
+        this.onBillboardChanged = onBillboardChanged;
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "billboard-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Starts polling. The first request is made straight away.
+     */
+    public void start() {
+        timer.scheduleAtFixedRate(this::poll, 0, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Stops polling.
+     */
+    public void stop() {
+        timer.shutdownNow();
+    }
+
+
+    /**
+     * Polls straight away, for when the server has said the billboard changed.
+     */
+    public void pollNow() {
+        try {
+            timer.execute(this::poll);
+        } catch (RejectedExecutionException ignored) {
+            // Stopped
+        }
+    }
+
+
+    /**
+     * Makes a single request for the current billboard, calling the listener if it has changed. If the server cannot
+     * be reached the current billboard stays on screen.
+     */
+    void poll() {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT_MS);
+            socket.setSoTimeout(TIMEOUT_MS);
+
+            writer.begin(MessageType.GET_CURRENT_BILLBOARD).putBytes(version);
+            writer.writeTo(new BufferedOutputStream(socket.getOutputStream()));
+
+            MessageType response = reader.read(new BufferedInputStream(socket.getInputStream()));
+            if (response == MessageType.OK) {
+                version = reader.getBytes();
+                onBillboardChanged.accept(reader.getString());
+            } else if (response == MessageType.BUSY) {
+                System.err.println("Billboard server is busy, will retry on the next poll.");
+            } else if (response != MessageType.NOT_MODIFIED) {
+                System.err.println("Server could not provide the current billboard.");
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to reach billboard server at " + host + ":" + port);
+        } catch (RuntimeException e) {
+            // Keep the timer alive; an exception would cancel all future polls
+            System.err.println("Billboard poll failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package billboard.viewer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Timing of the cross-fade between one billboard and the next, and the frame pacing statistics of the fades. The
+ * duration and frame rate come from the billboard.transitionMs and billboard.transitionFps system properties; a
+ * duration of 0 swaps billboards in a single frame.
+ * <p>
+ * A frame counts as dropped when the gap since the previous frame of the same fade is more than one and a half frame
+ * intervals; each interval that was missed entirely counts as one dropped frame.
+ * @see TransitionPane Fades between Swing billboards.
+ * @see ActiveRenderer Fades between rendered billboards.
+ */
+public class BillboardTransition {
+    static private final int DEFAULT_DURATION_MS = 500;
+    static private final int DEFAULT_FPS = 60;
+
+    private final int durationMs;
+    private final int fps;
+    private volatile long startTime = -1;   // AnimationTimer time the current fade began, or -1 if there is none
+    private long lastFrameNanos = -1;
+
+    // Statistics
+    private final AtomicLong transitions = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private volatile long maxFrameIntervalNanos = 0;
+
+
+    /**
+     * Creates a transition configured from the system properties.
+     */
+    public BillboardTransition() {
+        this(Integer.getInteger("billboard.transitionMs", DEFAULT_DURATION_MS),
+                Integer.getInteger("billboard.transitionFps", DEFAULT_FPS));
+    }
+
+
+    /**
+     * Creates a transition.
+     * @param durationMs How long a fade takes, in milliseconds. 0 to swap billboards without fading.
+     * @param fps Frames per second to draw fades at.
+     */
+    public BillboardTransition(int durationMs, int fps) {
+        this.durationMs = Math.max(0, durationMs);
+        this.fps = Math.max(1, fps);
+    }
+
+
+    /**
+     * @return True if billboards fade, false if they are swapped in a single frame.
+     */
+    public boolean isEnabled() {
+        return durationMs > 0;
+    }
+
+
+    /**
+     * @return Milliseconds between frames of a fade.
+     */
+    public int getFrameInterval() {
+        return 1000 / fps;
+    }
+
+
+    /**
+     * Starts a fade, abandoning any fade in progress.
+     * @param now Current AnimationTimer time.
+     */
+    public synchronized void start(long now) {
+        startTime = now;
+        lastFrameNanos = -1;
+        transitions.incrementAndGet();
+    }
+
+
+    /**
+     * Ends the fade in progress.
+     */
+    public void finish() {
+        startTime = -1;
+    }
+
+
+    /**
+     * @param now Current AnimationTimer time.
+     * @return True if a fade is in progress and has not yet reached the incoming billboard.
+     */
+    public boolean isRunning(long now) {
+        return getProgress(now) < 1;
+    }
+
+
+    /**
+     * @param now Current AnimationTimer time.
+     * @return How far through the fade the billboards are, from 0 (all outgoing) to 1 (all incoming).
+     */
+    public float getProgress(long now) {
+        long start = startTime;
+        if (start < 0 || durationMs == 0) {
+            return 1;
+        }
+        return Math.min(1, Math.max(0, (float) (now - start) / durationMs));
+    }
+
+
+    /**
+     * Records that a frame of the fade has been drawn, counting any frames that were dropped before it.
+     * @param nanos Time the frame was drawn, from System.nanoTime.
+     */
+    public synchronized void frameDrawn(long nanos) {
+        frames.incrementAndGet();
+        if (lastFrameNanos >= 0) {
+            long interval = nanos - lastFrameNanos;
+            long target = 1000000000L / fps;
+            if (interval * 2 > target * 3) {
+                droppedFrames.addAndGet(Math.max(1, interval / target - 1));
+            }
+            if (interval > maxFrameIntervalNanos) {
+                maxFrameIntervalNanos = interval;
+            }
+        }
+        lastFrameNanos = nanos;
+    }
+
+
+    /**
+     * @return Number of fades started.
+     */
+    public long getTransitionCount() {
+        return transitions.get();
+    }
+
+
+    /**
+     * @return Number of fade frames drawn.
+     */
+    public long getFrameCount() {
+        return frames.get();
+    }
+
+
+    /**
+     * @return Number of fade frames that were due but never drawn.
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrames.get();
+    }
+
+
+    /**
+     * @return Longest gap between two frames of a fade, in nanoseconds.
+     */
+    public long getMaxFrameInterval() {
+        return maxFrameIntervalNanos;
+    }
+}
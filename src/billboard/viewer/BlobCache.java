@@ -0,0 +1,256 @@
+package billboard.viewer;
+
+import billboard.server.FrameReader;
+import billboard.server.FrameWriter;
+import billboard.server.MessageType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+
+/**
+ * Two-tier cache for pictures the server stores as blobs, which billboards refer to by the SHA-256 hash of their bytes
+ * (see billboard.server.ContentStore).
+ * <p>
+ * Since a blob is named by its contents it never changes, so a blob held is never fetched again, however many
+ * billboards use it. Encoded blobs are held in memory in least-recently-used order, bounded by their total size, and
+ * saved to disk so that a restarted viewer does not fetch them again. Blobs fetched from the server or read from disk
+ * are checked against their hash before use.
+ */
+public class BlobCache {
+    // Configuration constants
+    static private final long DEFAULT_MEMORY_BYTES = 32L * 1024 * 1024;
+    static private final String DEFAULT_DISK_DIRECTORY = "billboard_blob_cache";
+    static private final int TIMEOUT_MS = 5000;
+    static private final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    static private BlobCache sharedCache;
+
+    private final String host;      // Null if blobs cannot be fetched
+    private final int port;
+    private final Path diskDirectory;
+
+    // Memory tier: hash -> encoded blob, kept in access order. Guarded by this
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxMemoryBytes;
+    private long memoryBytes = 0;
+
+    // Statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+
+
+    /**
+     * Creates a blob cache.
+     * @param host Host name of the billboard server, or null if blobs cannot be fetched.
+     * @param port Port of the billboard server.
+     * @param maxMemoryBytes Maximum number of bytes of blobs to hold in memory.
+     * @param diskDirectory Directory in which fetched blobs are stored. Created if it does not exist.
+     */
+    public BlobCache(String host, int port, long maxMemoryBytes, Path diskDirectory) {
+        this.host = host;
+        this.port = port;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.diskDirectory = diskDirectory;
+        try {
+            Files.createDirectories(diskDirectory);
+        } catch (IOException e) {
+            System.err.println("Unable to create blob cache directory: " + diskDirectory);
+        }
+    }
+
+
+    /**
+     * Sets the server the shared cache fetches blobs from. Called once at startup, before any billboard is shown.
+     * @param host Host name of the billboard server.
+     * @param port Port of the billboard server.
+     */
+    public static synchronized void configure(String host, int port) {
+        sharedCache = new BlobCache(host, port, DEFAULT_MEMORY_BYTES,
+                Paths.get(System.getProperty("java.io.tmpdir"), DEFAULT_DISK_DIRECTORY));
+    }
+
+
+    /**
+     * Gets the cache shared by the viewer. It is stored in the system temporary directory. If the cache has not been
+     * configured, it only holds blobs already on disk.
+     * @return The shared blob cache.
+     */
+    public static synchronized BlobCache getShared() {
+        if (sharedCache == null) {
+            sharedCache = new BlobCache(null, 0, DEFAULT_MEMORY_BYTES,
+                    Paths.get(System.getProperty("java.io.tmpdir"), DEFAULT_DISK_DIRECTORY));
+        }
+        return sharedCache;
+    }
+
+
+    /**
+     * Gets a blob, from memory or disk if it has been seen before, otherwise from the server.
+     * @param hash Lowercase hex SHA-256 hash of the blob.
+     * @return The blob. Returns null if the hash is malformed, or the blob could not be fetched.
+     */
+    public byte[] get(String hash) {
+        if (!HASH.matcher(hash).matches()) {
+            return null;
+        }
+        byte[] blob = getFromMemory(hash);
+        if (blob != null) {
+            hits.incrementAndGet();
+            return blob;
+        }
+        blob = readFromDisk(hash);
+        if (blob != null) {
+            diskHits.incrementAndGet();
+        } else {
+            blob = fetch(hash);
+            if (blob == null) {
+                return null;
+            }
+            fetches.incrementAndGet();
+            writeToDisk(hash, blob);
+        }
+        putInMemory(hash, blob);
+        return blob;
+    }
+
+
+    /**
+     * Fetches the blobs a billboard refers to that are not already held, so the billboard can be shown without waiting
+     * on the server.
+     * @param xml Billboard XML.
+     */
+    public void prefetch(String xml) {
+        BillboardContent content = BillboardParser.parse(xml);
+        if (content != null && content.getPictureBlob() != null) {
+            get(content.getPictureBlob());
+        }
+    }
+
+
+    /**
+     * @return Number of blobs found in memory.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of blobs found on disk.
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return Number of blobs fetched from the server.
+     */
+    public long getFetches() {
+        return fetches.get();
+    }
+
+
+    private synchronized byte[] getFromMemory(String hash) {
+        return memory.get(hash);
+    }
+
+
+    /**
+     * Adds a blob to memory, evicting least recently used blobs until the memory bound is met. Blobs larger than the
+     * whole bound are not kept.
+     */
+    private synchronized void putInMemory(String hash, byte[] blob) {
+        if (blob.length > maxMemoryBytes) {
+            return;
+        }
+        byte[] previous = memory.put(hash, blob);
+        if (previous != null) {
+            memoryBytes -= previous.length;
+        }
+        memoryBytes += blob.length;
+
+        Iterator<Map.Entry<String, byte[]>> eldest = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            Map.Entry<String, byte[]> entry = eldest.next();
+            if (entry.getKey().equals(hash)) {
+                continue;
+            }
+            memoryBytes -= entry.getValue().length;
+            eldest.remove();
+        }
+    }
+
+
+    /**
+     * Asks the server for a blob.
+     * @return The blob, or null if it could not be fetched or does not match its hash.
+     */
+    private byte[] fetch(String hash) {
+        if (host == null) {
+            return null;
+        }
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT_MS);
+            socket.setSoTimeout(TIMEOUT_MS);
+            new FrameWriter().begin(MessageType.GET_BLOB).putString(hash)
+                    .writeTo(new BufferedOutputStream(socket.getOutputStream()));
+
+            FrameReader reader = new FrameReader();
+            MessageType response = reader.read(new BufferedInputStream(socket.getInputStream()));
+            if (response == MessageType.OK) {
+                byte[] blob = reader.getBytes();
+                if (hash.equals(ImageCache.sha256(blob))) {
+                    return blob;
+                }
+                System.err.println("Blob " + hash + " from the server does not match its hash");
+            } else if (response == MessageType.ERROR) {
+                System.err.println("Server could not provide blob " + hash + ": " + reader.getString());
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to fetch blob " + hash + " from " + host + ":" + port);
+        }
+        return null;
+    }
+
+
+    /**
+     * Reads a blob from the disk store.
+     * @return The blob, or null if it is not stored or is damaged.
+     */
+    private byte[] readFromDisk(String hash) {
+        try {
+            byte[] blob = Files.readAllBytes(diskDirectory.resolve(hash));
+            return hash.equals(ImageCache.sha256(blob)) ? blob : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Writes a blob to the disk store, beside its final name then moved into place.
+     */
+    private void writeToDisk(String hash, byte[] blob) {
+        Path path = diskDirectory.resolve(hash);
+        try {
+            Path temp = Files.createTempFile(diskDirectory, "blob", ".tmp");
+            Files.write(temp, blob);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Unable to write blob to cache: " + path);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package billboard.viewer;
+
+import billboard.server.ChangeNotifier;
+import billboard.server.FrameReader;
+import billboard.server.FrameWriter;
+import billboard.server.MessageType;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.function.IntConsumer;
+
+
+/**
+ * Holds a subscription open to the server and reports the change events it pushes, so the viewer can fetch a new
+ * billboard or timeline as soon as it changes. If the connection drops, or no event or heartbeat arrives in time, it
+ * reconnects with a growing delay; every new connection is reported as a change, since events may have been missed
+ * while disconnected.
+ */
+public class ChangeSubscriber {
+    static private final int CONNECT_TIMEOUT_MS = 5000;
+    static private final int READ_TIMEOUT_MS = (int) (2 * ChangeNotifier.HEARTBEAT_INTERVAL_MS + CONNECT_TIMEOUT_MS);
+    static private final long MIN_RETRY_MS = 1000;
+    static private final long MAX_RETRY_MS = 60 * 1000;
+    static private final int ALL_CHANGES = ChangeNotifier.BILLBOARD_CHANGED | ChangeNotifier.SCHEDULE_CHANGED;
+
+    private final String host;
+    private final int port;
+    private final IntConsumer onChange;
+    private final FrameWriter writer = new FrameWriter();
+    private final FrameReader reader = new FrameReader();
+    private volatile boolean running;
+    private volatile boolean connected;
+    private volatile Socket socket;
+    private Thread thread;
+
+
+    /**
+     * Creates a subscriber for the billboard server.
+     * @param host Host name of the billboard server.
+     * @param port Port of the billboard server.
+     * @param onChange Called with the change flags of each event. Called from the subscriber thread.
+     */
+    public ChangeSubscriber(String host, int port, IntConsumer onChange) {
+        this.host = host;
+        this.port = port;
+        this.onChange = onChange;
+    }
+
+
+    /**
+     * Starts subscribing on a background thread.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "billboard-subscriber");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Stops subscribing and closes the connection.
+     */
+    public synchronized void stop() {
+        running = false;
+        closeSocket();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+
+    /**
+     * @return True while a subscription is open.
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+
+    private void run() {
+        long retryMs = MIN_RETRY_MS;
+        while (running) {
+            try {
+                if (subscribe()) {
+                    retryMs = MIN_RETRY_MS;
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Change subscription to " + host + ":" + port + " lost: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Change subscription failed: " + e);
+            } finally {
+                connected = false;
+                closeSocket();
+            }
+            try {
+                Thread.sleep(retryMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            retryMs = Math.min(retryMs * 2, MAX_RETRY_MS);
+        }
+    }
+
+
+    /**
+     * Opens a subscription and reports events until the connection ends.
+     * @return True if the subscription was accepted.
+     * @throws IOException If the connection failed or went quiet.
+     */
+    private boolean subscribe() throws IOException {
+        Socket connection = new Socket();
+        socket = connection;
+        if (!running) {
+            return false;
+        }
+        connection.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        connection.setSoTimeout(READ_TIMEOUT_MS);
+        writer.begin(MessageType.SUBSCRIBE);
+        writer.writeTo(new BufferedOutputStream(connection.getOutputStream()));
+
+        InputStream in = new BufferedInputStream(connection.getInputStream());
+        MessageType response = reader.read(in);
+        if (response != MessageType.OK) {
+            System.err.println("Server did not accept a change subscription.");
+            return false;
+        }
+        connected = true;
+        onChange.accept(ALL_CHANGES);
+        while (running) {
+            MessageType type = reader.read(in);
+            if (type == null) {
+                break;  // The server closed the connection
+            }
+            if (type == MessageType.EVENT) {
+                int changes = reader.getInt();
+                if (changes != 0) {
+                    onChange.accept(changes);
+                }
+            }
+        }
+        return true;
+    }
+
+
+    private void closeSocket() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package billboard.viewer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * Finds the largest font size at which billboard text fits inside a box. The size is found by binary search, so only a
+ * handful of sizes are measured, and multi-line text is measured by actually wrapping it at its line break
+ * opportunities rather than estimating from its area. Results are memoized by text, box size and limit, so text that
+ * is laid out again, for example in the designer preview, is not measured twice.
+ */
+public class FontFitter {
+    static private final String FONT_NAME = Font.SANS_SERIF;
+    static private final int MAX_INFO_FONT_SIZE = 200;
+    static private final double SINGLE_LINE_MARGIN = 0.1;   // Fraction of the width left clear around one-line text
+    static private final int TEXT_PANE_INSETS = 6;  // Space JTextPane takes for its own margins, in each direction
+    static private final int MAX_MEMOIZED = 1024;
+
+    // Used to measure fonts without needing a displayable component
+    static private final BufferedImage MEASURING_IMAGE = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+    static private final Map<Key, Integer> memo = new LinkedHashMap<Key, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+            return size() > MAX_MEMOIZED;
+        }
+    };
+
+
+    /**
+     * Returns a font with a size such that the String 'text' will fit entirely within the Dimension 'size' on one line.
+     * @param text The string of text to fit within the bounds
+     * @param size The dimensions to fit the text within
+     * @return The font of appropriate size.
+     */
+    public static Font fitSingleLine(String text, Dimension size) {
+        Key key = new Key(text, size, 0, false);
+        Integer fontSize = getMemoized(key);
+        if (fontSize == null) {
+            int maxWidth = (int) (size.width * (1 - SINGLE_LINE_MARGIN));
+            fontSize = search(1, Math.max(1, size.height), fit -> {
+                FontMetrics metrics = getFontMetrics(new Font(FONT_NAME, Font.PLAIN, fit));
+                return metrics.stringWidth(text) <= maxWidth && metrics.getHeight() <= size.height;
+            });
+            putMemoized(key, fontSize);
+        }
+        return new Font(FONT_NAME, Font.PLAIN, fontSize);
+    }
+
+
+    /**
+     * Returns a font with a size such that the String 'text' will fit entirely within the Dimension 'size.' This may
+     * be over multiple lines, which are broken the way the text will actually wrap.
+     * @param text The string of text to fit within the bounds
+     * @param size The dimensions to fit the text within
+     * @param maxFontSize The maximum font size the text is allowed to be. If not positive, a default maximum is used.
+     * @return The font of appropriate size.
+     */
+    public static Font fitMultiline(String text, Dimension size, int maxFontSize) {
+        int limit = maxFontSize <= 0 ? MAX_INFO_FONT_SIZE : maxFontSize;
+        Key key = new Key(text, size, limit, true);
+        Integer fontSize = getMemoized(key);
+        if (fontSize == null) {
+            float wrappingWidth = Math.max(1, size.width - TEXT_PANE_INSETS);
+            int textHeight = Math.max(1, size.height - TEXT_PANE_INSETS);
+            int[][] breaks = getLineBreaks(text);
+            SizeTest fits = fit -> getWrappedHeight(text, breaks, fit, wrappingWidth) <= textHeight;
+
+            // Wrapped text needs at least its one-line area, and in practice rarely more than twice that, so search
+            // between those bounds rather than the whole range of sizes
+            int upper = Math.min(limit, getAreaBound(text, wrappingWidth, textHeight, 1.0));
+            int lower = Math.min(upper, getAreaBound(text, wrappingWidth, textHeight, 2.0));
+            if (lower > 1 && !fits.test(lower)) {
+                upper = lower - 1;
+                lower = 1;
+            }
+            fontSize = search(lower, upper, fits);
+            putMemoized(key, fontSize);
+        }
+        return new Font(FONT_NAME, Font.PLAIN, fontSize);
+    }
+
+
+    /**
+     * Clears the memoized results.
+     */
+    public static void clearMemo() {
+        synchronized (memo) {
+            memo.clear();
+        }
+    }
+
+
+    /**
+     * Finds where text may be broken across lines, using the same line break rules as LineBreakMeasurer. This only
+     * depends on the text, so it is done once and reused for every font size tried.
+     * @param text Text to find breaks in.
+     * @return For each paragraph (separated by explicit line breaks), the offsets in 'text' at which a line may start,
+     * beginning with the paragraph start and ending with the paragraph end.
+     */
+    static int[][] getLineBreaks(String text) {
+        String[] paragraphs = text.split("\n", -1);
+        int[][] breaks = new int[paragraphs.length][];
+        BreakIterator iterator = BreakIterator.getLineInstance();
+        int paragraphStart = 0;
+        for (int p = 0; p < paragraphs.length; p++) {
+            iterator.setText(paragraphs[p]);
+            List<Integer> offsets = new ArrayList<>();
+            for (int offset = iterator.first(); offset != BreakIterator.DONE; offset = iterator.next()) {
+                offsets.add(paragraphStart + offset);
+            }
+            breaks[p] = offsets.stream().mapToInt(Integer::intValue).toArray();
+            paragraphStart += paragraphs[p].length() + 1;
+        }
+        return breaks;
+    }
+
+
+    /**
+     * Finds the height of text once it has been wrapped to the given width.
+     * @param text Text to wrap.
+     * @param breaks Break opportunities from getLineBreaks.
+     * @param fontSize Size of the font to wrap the text in.
+     * @param wrappingWidth Width of the lines in pixels.
+     * @return Total height of the wrapped lines in pixels.
+     */
+    static float getWrappedHeight(String text, int[][] breaks, int fontSize, float wrappingWidth) {
+        FontMetrics metrics = getFontMetrics(new Font(FONT_NAME, Font.PLAIN, fontSize));
+        return (float) wrap(text, breaks, metrics, wrappingWidth, null) * metrics.getHeight();
+    }
+
+
+    /**
+     * Wraps text to the given width the same way its height is measured when fitting, for drawing it directly.
+     * @param text Text to wrap.
+     * @param font Font the text is drawn in.
+     * @param wrappingWidth Width of the lines in pixels.
+     * @return The wrapped lines, without trailing whitespace.
+     */
+    static List<String> getWrappedLines(String text, Font font, float wrappingWidth) {
+        List<String> lines = new ArrayList<>();
+        wrap(text, getLineBreaks(text), getFontMetrics(font), wrappingWidth, lines);
+        return lines;
+    }
+
+
+    /**
+     * Wraps text to a width. Lines are filled greedily between the break opportunities, with trailing spaces allowed
+     * to overhang the edge as they do in Swing text components. A segment too long for a line on its own is broken
+     * across as many lines as it needs.
+     * @param text Text to wrap.
+     * @param breaks Break opportunities from getLineBreaks.
+     * @param metrics Metrics of the font the text is wrapped in.
+     * @param wrappingWidth Width of the lines in pixels.
+     * @param lines List to add the text of each line to, or null if only the number of lines is needed.
+     * @return The number of lines.
+     */
+    private static int wrap(String text, int[][] breaks, FontMetrics metrics, float wrappingWidth,
+                            List<String> lines) {
+        char[] chars = text.toCharArray();
+        int lineCount = 0;
+
+        for (int[] paragraph : breaks) {
+            lineCount++;
+            float lineWidth = 0;
+            int lineStart = paragraph[0];
+            for (int i = 0; i + 1 < paragraph.length; i++) {
+                int start = paragraph[i];
+                int end = paragraph[i + 1];
+                int visibleEnd = end;
+                while (visibleEnd > start && Character.isWhitespace(chars[visibleEnd - 1])) {
+                    visibleEnd--;
+                }
+                int visibleWidth = metrics.charsWidth(chars, start, visibleEnd - start);
+                int fullWidth = visibleWidth + metrics.charsWidth(chars, visibleEnd, end - visibleEnd);
+
+                if (lineWidth > 0 && lineWidth + visibleWidth > wrappingWidth) {
+                    lineCount++;
+                    lineWidth = 0;
+                    if (lines != null) {
+                        lines.add(getLine(chars, lineStart, start));
+                        lineStart = start;
+                    }
+                }
+                if (visibleWidth > wrappingWidth) {
+                    // A single word wider than the line is split wherever it has to be
+                    lineCount += (int) Math.ceil(visibleWidth / wrappingWidth) - 1;
+                    lineWidth = visibleWidth % wrappingWidth;
+                    lineWidth += fullWidth - visibleWidth;
+                    if (lines != null) {
+                        lineStart = splitWord(chars, start, visibleEnd, metrics, wrappingWidth, lines);
+                    }
+                } else {
+                    lineWidth += fullWidth;
+                }
+            }
+            if (lines != null) {
+                lines.add(getLine(chars, lineStart, paragraph[paragraph.length - 1]));
+            }
+        }
+        return lineCount;
+    }
+
+
+    /**
+     * Splits a word too wide for a line into full lines, character by character.
+     * @return Offset of the start of the last, partly filled, piece of the word.
+     */
+    private static int splitWord(char[] chars, int start, int end, FontMetrics metrics, float wrappingWidth,
+                                 List<String> lines) {
+        int pieceStart = start;
+        int pieceWidth = 0;
+        for (int i = start; i < end; i++) {
+            int charWidth = metrics.charWidth(chars[i]);
+            if (pieceWidth + charWidth > wrappingWidth && i > pieceStart) {
+                lines.add(new String(chars, pieceStart, i - pieceStart));
+                pieceStart = i;
+                pieceWidth = 0;
+            }
+            pieceWidth += charWidth;
+        }
+        return pieceStart;
+    }
+
+
+    /**
+     * @return The characters between two offsets, without trailing whitespace.
+     */
+    private static String getLine(char[] chars, int start, int end) {
+        while (end > start && Character.isWhitespace(chars[end - 1])) {
+            end--;
+        }
+        return new String(chars, start, end - start);
+    }
+
+
+    /**
+     * Estimates the font size at which text, wrapped, would take up the given multiple of its one-line area. A
+     * multiple of 1 gives a size above which the text cannot possibly fit, since wrapping never saves space. Width and
+     * line height grow roughly in proportion to font size, so the estimate comes from a single measurement, with a
+     * margin for rounding.
+     * @param text Text to fit.
+     * @param width Width of the box in pixels.
+     * @param height Height of the box in pixels.
+     * @param areaMultiple How many times its one-line area the wrapped text is assumed to take.
+     * @return The estimated font size, at least 1.
+     */
+    private static int getAreaBound(String text, float width, int height, double areaMultiple) {
+        int referenceSize = 100;
+        FontMetrics metrics = getFontMetrics(new Font(FONT_NAME, Font.PLAIN, referenceSize));
+        double area = (double) metrics.stringWidth(text) * metrics.getHeight() * areaMultiple;
+        if (area <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        double estimate = referenceSize * Math.sqrt(width * height / area);
+        return Math.max(1, areaMultiple <= 1.0 ? (int) Math.ceil(estimate * 1.1) + 1 : (int) (estimate * 0.9));
+    }
+
+
+    /**
+     * Binary searches for the largest size between 'min' and 'max' that fits. Fitting is assumed to be monotonic: if a
+     * size fits, every smaller size fits too. 'min' is assumed to fit.
+     * @param min Smallest size to consider.
+     * @param max Largest size to consider.
+     * @param fits Test for whether a size fits.
+     * @return The largest size that fits, or 'min' if no larger size does.
+     */
+    private static int search(int min, int max, SizeTest fits) {
+        int low = min;
+        int high = max;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (fits.test(mid)) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+
+    private static Integer getMemoized(Key key) {
+        synchronized (memo) {
+            return memo.get(key);
+        }
+    }
+
+
+    private static void putMemoized(Key key, int fontSize) {
+        synchronized (memo) {
+            memo.put(key, fontSize);
+        }
+    }
+
+
+    /**
+     * Gets the metrics of a font. Unlike Component.getFontMetrics this does not need a component, so it can be used
+     * from any thread.
+     * @param font Font to measure.
+     * @return The font metrics.
+     */
+    static FontMetrics getFontMetrics(Font font) {
+        Graphics2D g = MEASURING_IMAGE.createGraphics();
+        try {
+            return g.getFontMetrics(font);
+        } finally {
+            g.dispose();
+        }
+    }
+
+
+    private interface SizeTest {
+        boolean test(int fontSize);
+    }
+
+
+    /**
+     * Identifies a fitting problem by text, box size, size limit and whether the text may wrap.
+     */
+    private static class Key {
+        private final String text;
+        private final int width;
+        private final int height;
+        private final int limit;
+        private final boolean multiline;
+
+        Key(String text, Dimension size, int limit, boolean multiline) {
+            this.text = text;
+            this.width = size.width;
+            this.height = size.height;
+            this.limit = limit;
+            this.multiline = multiline;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return width == other.width && height == other.height && limit == other.limit
+                    && multiline == other.multiline && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, width, height, limit, multiline);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package billboard.viewer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Measures per-billboard font fitting time on the billboards in the XML directory that have information text. Three
+ * cases are timed: the linear search FontFitter replaced, FontFitter with its memo cleared before every billboard, and
+ * FontFitter with its memo warm.
+ * <p>
+ * Usage: FontFitterBenchmark [xml directory] [iterations] [width] [height]
+ */
+public class FontFitterBenchmark {
+    static private final BufferedImage MEASURING_IMAGE = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : "xml_docs");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int width = args.length > 2 ? Integer.parseInt(args[2]) : 1920;
+        int height = args.length > 3 ? Integer.parseInt(args[3]) : 1080;
+
+        List<String> texts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.xml")) {
+            for (Path file : files) {
+                BillboardContent content = BillboardParser.parse(
+                        new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+                if (content != null && content.hasInformation()) {
+                    texts.add(content.getInformation());
+                }
+            }
+        }
+        Dimension infoSize = new Dimension((int) (width * 0.75), height / 3);
+        System.out.println("Information texts: " + texts.size() + ", box " + infoSize.width + "x" + infoSize.height);
+
+        run("Linear (old)   ", texts, iterations, text -> scaleMultilineFont(text, infoSize, -1));
+        run("Binary, cold   ", texts, iterations, text -> {
+            FontFitter.clearMemo();
+            return FontFitter.fitMultiline(text, infoSize, -1);
+        });
+        run("Binary, memo   ", texts, iterations, text -> FontFitter.fitMultiline(text, infoSize, -1));
+    }
+
+
+    private static void run(String label, List<String> texts, int iterations, Fitter fitter) {
+        for (int i = 0; i < Math.max(1, iterations / 5); i++) {
+            for (String text : texts) {
+                fitter.fit(text);
+            }
+        }
+        long begin = System.nanoTime();
+        int checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (String text : texts) {
+                checksum += fitter.fit(text).getSize();
+            }
+        }
+        double microsPerBillboard = (System.nanoTime() - begin) / 1e3 / ((double) iterations * texts.size());
+        System.out.printf("  %s %10.1f us/billboard (size checksum %d)%n", label, microsPerBillboard,
+                checksum / iterations);
+    }
+
+
+    /**
+     * The linear search that FontFitter replaced: starting from the largest size, step down one point at a time until
+     * twice the single-line area of the text fits in the box.
+     */
+    private static Font scaleMultilineFont(String text, Dimension size, int maxFontSize) {
+        double safetyMultiplier = 2.0;
+        int maxInfoFont = 200;
+        double fontSize = maxFontSize <= 0 ? maxInfoFont : maxFontSize;
+        Font tempFont = new Font(Font.SANS_SERIF, Font.PLAIN, (int) Math.floor(fontSize));
+        double width = getFontMetrics(tempFont).stringWidth(text) * safetyMultiplier;
+        double height = getFontMetrics(tempFont).getHeight();
+
+        while(width * height > size.width * size.height) {
+            fontSize--;
+            tempFont = new Font(Font.SANS_SERIF, Font.PLAIN, (int) Math.floor(fontSize));
+            width = getFontMetrics(tempFont).stringWidth(text) * safetyMultiplier;
+            height = getFontMetrics(tempFont).getHeight();
+        }
+
+        return new Font(Font.SANS_SERIF, Font.PLAIN, (int) Math.floor(fontSize));
+    }
+
+
+    private static FontMetrics getFontMetrics(Font font) {
+        Graphics2D g = MEASURING_IMAGE.createGraphics();
+        try {
+            return g.getFontMetrics(font);
+        } finally {
+            g.dispose();
+        }
+    }
+
+
+    private interface Fitter {
+        Font fit(String text);
+    }
+}
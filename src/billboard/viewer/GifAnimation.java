@@ -0,0 +1,326 @@
+package billboard.viewer;
+
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The frames of an animated GIF, already composited and scaled to the size they are drawn at, with the time each is
+ * shown for. Playback only has to draw one of these images, so it never scales or allocates.
+ * <p>
+ * Frames are decoded one at a time through an ImageReader and drawn onto a single reusable canvas the size of the
+ * GIF's logical screen, following each frame's position and disposal method. Only the scaled result of each frame is
+ * kept. Decoded animations are cached by the content of the GIF and the size they were scaled to.
+ * @see AnimatedPicture Plays an animation.
+ */
+public class GifAnimation {
+    static private final long MAX_CACHE_BYTES = 64L * 1024 * 1024;
+    static private final long MAX_ANIMATION_BYTES = 32L * 1024 * 1024;
+    static private final long MAX_CANVAS_BYTES = 64L * 1024 * 1024;     // The canvas frames are drawn onto
+    static private final int MIN_DELAY_MS = 20;     // Shorter delays are treated as unset, as web browsers do
+    static private final int DEFAULT_DELAY_MS = 100;
+    static private final String IMAGE_FORMAT = "javax_imageio_gif_image_1.0";
+
+    // Content hash and size -> decoded animation, kept in access order
+    static private final LinkedHashMap<String, GifAnimation> cache = new LinkedHashMap<>(16, 0.75f, true);
+    static private long cacheBytes = 0;
+
+    private final BufferedImage[] frames;
+    private final int[] delays;
+    private final long[] frameEnds;     // Time each frame ends at, from the start of the animation
+    private final long bytes;
+
+
+    private GifAnimation(List<BufferedImage> frames, List<Integer> delays) {
+        this.frames = frames.toArray(new BufferedImage[0]);
+        this.delays = delays.stream().mapToInt(Integer::intValue).toArray();
+        this.frameEnds = new long[this.delays.length];
+        long end = 0;
+        for (int i = 0; i < this.delays.length; i++) {
+            end += this.delays[i];
+            frameEnds[i] = end;
+        }
+        long total = 0;
+        for (BufferedImage frame : this.frames) {
+            total += ImageCache.getPixelBytes(frame);
+        }
+        this.bytes = total;
+    }
+
+
+    /**
+     * Gets an animation of a GIF scaled to fit a billboard's picture bounds, from the cache if it has been decoded at
+     * that size before.
+     * @param gif The encoded GIF.
+     * @param plan Render plan of the billboard the GIF is shown on.
+     * @return The animation. Returns null if the GIF could not be decoded, or if it has only one frame and so does not
+     * need animating.
+     */
+    public static GifAnimation get(byte[] gif, RenderPlan plan) {
+        String contentHash = ImageCache.sha256(gif);
+        Dimension screen = readLogicalScreenSize(gif);
+        if (screen == null) {
+            return null;
+        }
+        Dimension size = plan.getScaledImageSize(screen);
+        if (size == null) {
+            return null;
+        }
+        String key = contentHash + "@" + size.width + "x" + size.height;
+        synchronized (cache) {
+            GifAnimation animation = cache.get(key);
+            if (animation != null) {
+                return animation;
+            }
+        }
+
+        GifAnimation animation = decode(gif, screen, size);
+        if (animation != null) {
+            put(key, animation);
+        }
+        return animation;
+    }
+
+
+    /**
+     * Checks whether encoded image bytes are a GIF, by their signature.
+     * @param bytes The encoded image.
+     * @return True if the bytes start with a GIF header.
+     */
+    public static boolean isGif(byte[] bytes) {
+        return bytes.length >= 6 && bytes[0] == 'G' && bytes[1] == 'I' && bytes[2] == 'F' && bytes[3] == '8';
+    }
+
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    /**
+     * @param index Index of the frame.
+     * @return The frame, composited and scaled.
+     */
+    public BufferedImage getFrame(int index) {
+        return frames[index];
+    }
+
+    /**
+     * @param index Index of the frame.
+     * @return How long the frame is shown for, in milliseconds.
+     */
+    public int getDelay(int index) {
+        return delays[index];
+    }
+
+    /**
+     * Finds the frame showing a given time into the animation, which loops forever.
+     * @param elapsedMs Milliseconds since the animation started.
+     * @return Index of the frame.
+     */
+    public int getFrameAt(long elapsedMs) {
+        long time = Math.floorMod(elapsedMs, frameEnds[frameEnds.length - 1]);
+        int index = Arrays.binarySearch(frameEnds, time);
+        // An exact match is the end of that frame, so the next frame is showing
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * @return Size of the scaled frames.
+     */
+    public Dimension getSize() {
+        return new Dimension(frames[0].getWidth(), frames[0].getHeight());
+    }
+
+
+    /**
+     * Decodes every frame of a GIF onto a canvas of its logical screen size, keeping a scaled copy of the canvas after
+     * each frame. Decoding stops early if the scaled frames would take more than MAX_ANIMATION_BYTES, and a GIF whose
+     * canvas would take more than MAX_CANVAS_BYTES is not animated at all.
+     * @param gif The encoded GIF.
+     * @param screen Logical screen size of the GIF.
+     * @param size Size to scale the frames to.
+     * @return The animation, or null if it could not be decoded or has only one frame.
+     */
+    private static GifAnimation decode(byte[] gif, Dimension screen, Dimension size) {
+        // The logical screen size comes from the file, so it is checked before a canvas that size is made
+        if (4L * screen.width * screen.height > MAX_CANVAS_BYTES) {
+            System.err.println("Not animating a GIF of " + screen.width + "x" + screen.height + ": too large");
+            return null;
+        }
+        ImageReader reader = getGifReader();
+        if (reader == null) {
+            return null;
+        }
+        List<BufferedImage> frames = new ArrayList<>();
+        List<Integer> delays = new ArrayList<>();
+        long frameBytes = 4L * size.width * size.height;
+
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(gif))) {
+            reader.setInput(input, true, false);
+            BufferedImage canvas = new BufferedImage(screen.width, screen.height, BufferedImage.TYPE_INT_ARGB);
+            BufferedImage previous = null;  // Canvas saved for frames disposed by restoring the previous frame
+
+            for (int index = 0; frameBytes * (index + 1) <= MAX_ANIMATION_BYTES; index++) {
+                IIOMetadata metadata;
+                BufferedImage frame;
+                try {
+                    metadata = reader.getImageMetadata(index);
+                    frame = reader.read(index);
+                } catch (IndexOutOfBoundsException e) {
+                    break;  // No more frames
+                }
+                Node tree = metadata.getAsTree(IMAGE_FORMAT);
+                Node descriptor = getChild(tree, "ImageDescriptor");
+                Node control = getChild(tree, "GraphicControlExtension");
+                int x = getIntAttribute(descriptor, "imageLeftPosition", 0);
+                int y = getIntAttribute(descriptor, "imageTopPosition", 0);
+                String disposal = control == null ? "none" : getAttribute(control, "disposalMethod");
+                int delay = control == null ? 0 : getIntAttribute(control, "delayTime", 0) * 10;
+
+                if ("restoreToPrevious".equals(disposal)) {
+                    previous = copyInto(canvas, previous);
+                }
+                Graphics2D g = canvas.createGraphics();
+                try {
+                    g.drawImage(frame, x, y, null);
+                    frames.add(ImageScaler.scale(canvas, size.width, size.height));
+                    delays.add(delay < MIN_DELAY_MS ? DEFAULT_DELAY_MS : delay);
+
+                    // Dispose of the frame ready for the next one
+                    if ("restoreToBackgroundColor".equals(disposal)) {
+                        g.setComposite(AlphaComposite.Clear);
+                        g.fillRect(x, y, frame.getWidth(), frame.getHeight());
+                    } else if ("restoreToPrevious".equals(disposal)) {
+                        copyInto(previous, canvas);
+                    }
+                } finally {
+                    g.dispose();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (frames.isEmpty()) {
+                System.err.println("Unable to decode GIF: " + e.getMessage());
+                return null;
+            }
+            // Play whatever frames could be read from a truncated or damaged file
+        } finally {
+            reader.dispose();
+        }
+
+        if (frames.size() < 2) {
+            return null;
+        }
+        return new GifAnimation(frames, delays);
+    }
+
+
+    /**
+     * Adds an animation to the cache, evicting least recently used animations until the byte bound is met.
+     */
+    private static void put(String key, GifAnimation animation) {
+        synchronized (cache) {
+            if (animation.bytes > MAX_CACHE_BYTES) {
+                return;
+            }
+            GifAnimation replaced = cache.put(key, animation);
+            if (replaced != null) {
+                cacheBytes -= replaced.bytes;
+            }
+            cacheBytes += animation.bytes;
+
+            Iterator<Map.Entry<String, GifAnimation>> eldest = cache.entrySet().iterator();
+            while (cacheBytes > MAX_CACHE_BYTES && eldest.hasNext()) {
+                Map.Entry<String, GifAnimation> entry = eldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+                cacheBytes -= entry.getValue().bytes;
+                eldest.remove();
+            }
+        }
+    }
+
+
+    /**
+     * Reads the logical screen size from the GIF header, which every frame is positioned within.
+     * @param gif The encoded GIF.
+     * @return The logical screen size, or null if the bytes are not a GIF.
+     */
+    private static Dimension readLogicalScreenSize(byte[] gif) {
+        if (!isGif(gif) || gif.length < 10) {
+            return null;
+        }
+        // Little-endian 16 bit width and height follow the 6 byte signature
+        int width = (gif[6] & 0xFF) | (gif[7] & 0xFF) << 8;
+        int height = (gif[8] & 0xFF) | (gif[9] & 0xFF) << 8;
+        if (width == 0 || height == 0) {
+            return null;
+        }
+        return new Dimension(width, height);
+    }
+
+
+    private static ImageReader getGifReader() {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("gif");
+        if (!readers.hasNext()) {
+            System.err.println("No GIF image reader is available");
+            return null;
+        }
+        return readers.next();
+    }
+
+
+    /**
+     * Copies the pixels of one image into another of the same size, creating the target if it is null.
+     * @return The target image.
+     */
+    private static BufferedImage copyInto(BufferedImage source, BufferedImage target) {
+        if (target == null) {
+            target = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        }
+        target.setData(source.getRaster());
+        return target;
+    }
+
+
+    private static Node getChild(Node parent, String name) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeName().equals(name)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+
+    private static String getAttribute(Node node, String name) {
+        NamedNodeMap attributes = node.getAttributes();
+        Node attribute = attributes == null ? null : attributes.getNamedItem(name);
+        return attribute == null ? null : attribute.getNodeValue();
+    }
+
+
+    private static int getIntAttribute(Node node, String name, int defaultValue) {
+        String value = node == null ? null : getAttribute(node, name);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
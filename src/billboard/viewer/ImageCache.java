@@ -0,0 +1,446 @@
+package billboard.viewer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Two-tier cache for images linked from billboards by URL.
+ * <p>
+ * Decoded images are held in memory in least-recently-used order, bounded by the number of bytes their pixels occupy.
+ * Behind this sits a content-addressed disk store: the downloaded bytes are saved under their SHA-256 hash, and each
+ * URL records which blob it resolved to along with the ETag/Last-Modified validators the server sent. A URL that has
+ * been seen before is therefore only revalidated with a conditional request, and is never downloaded again unless the
+ * server reports that it has changed.
+ */
+public class ImageCache {
+    // Configuration constants
+    static private final long DEFAULT_MEMORY_BYTES = 64L * 1024 * 1024;
+    static private final String DEFAULT_DISK_DIRECTORY = "billboard_image_cache";
+    static private final int CONNECT_TIMEOUT_MS = 5000;
+    static private final int READ_TIMEOUT_MS = 10000;
+
+    static private ImageCache sharedCache;
+
+    // Memory tier: content hash -> decoded image, kept in access order
+    private final LinkedHashMap<String, BufferedImage> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, String> urlToContent = new ConcurrentHashMap<>();
+    private final Set<String> gifContent = ConcurrentHashMap.newKeySet();   // Content hashes of GIF images
+    private final long maxMemoryBytes;
+    private long memoryBytes = 0;
+
+    // Disk tier
+    private final Path diskDirectory;
+
+    // Statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+
+    /**
+     * Creates an image cache.
+     * @param maxMemoryBytes Maximum number of bytes of decoded pixel data to hold in memory.
+     * @param diskDirectory Directory in which downloaded images are stored. Created if it does not exist.
+     */
+    public ImageCache(long maxMemoryBytes, Path diskDirectory) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.diskDirectory = diskDirectory;
+        try {
+            Files.createDirectories(diskDirectory);
+        } catch (IOException e) {
+            System.err.println("Unable to create image cache directory: " + diskDirectory);
+        }
+    }
+
+
+    /**
+     * Gets the cache shared by the viewer. It is stored in the system temporary directory.
+     * @return The shared image cache.
+     */
+    public static synchronized ImageCache getShared() {
+        if (sharedCache == null) {
+            Path directory = Paths.get(System.getProperty("java.io.tmpdir"), DEFAULT_DISK_DIRECTORY);
+            sharedCache = new ImageCache(DEFAULT_MEMORY_BYTES, directory);
+        }
+        return sharedCache;
+    }
+
+
+    /**
+     * Gets the image at the specified url, from memory or disk if it has been seen before.
+     * @param url URL to retrieve the image from.
+     * @return The image at the specified URL. Returns null if the image could not be retrieved or decoded.
+     */
+    public BufferedImage getImage(URL url) {
+        String urlKey = url.toString();
+
+        // Memory tier
+        String contentHash = urlToContent.get(urlKey);
+        if (contentHash != null) {
+            BufferedImage image = getFromMemory(contentHash);
+            if (image != null) {
+                hits.incrementAndGet();
+                return image;
+            }
+        }
+
+        // Disk tier, revalidated against the server
+        Properties meta = readMeta(urlKey);
+        try {
+            byte[] downloaded = download(url, meta);
+            if (downloaded == null) {
+                contentHash = meta.getProperty("content");
+                byte[] stored = readBlob(contentHash);
+                if (stored != null) {
+                    diskHits.incrementAndGet();
+                    return decodeAndRemember(urlKey, contentHash, stored);
+                }
+                // The blob has gone missing from disk, so fetch it again unconditionally
+                downloaded = download(url, new Properties());
+            }
+            misses.incrementAndGet();
+            contentHash = sha256(downloaded);
+            writeBlob(contentHash, downloaded);
+            meta.setProperty("url", urlKey);
+            meta.setProperty("content", contentHash);
+            writeMeta(urlKey, meta);
+            return decodeAndRemember(urlKey, contentHash, downloaded);
+        } catch (IOException e) {
+            // Fall back to any stored copy if the server cannot be reached
+            contentHash = meta.getProperty("content");
+            byte[] stored = readBlob(contentHash);
+            if (stored != null) {
+                diskHits.incrementAndGet();
+                return decodeAndRemember(urlKey, contentHash, stored);
+            }
+            System.err.println("Could not get image from url:\n" + urlKey);
+            return null;
+        }
+    }
+
+
+    /**
+     * Gets the encoded bytes of the image at the specified url if it is a GIF, so that all of its frames can be
+     * decoded. The image is fetched as by getImage if it has not been seen before; otherwise the stored copy is used
+     * without contacting the server again.
+     * @param url URL of the image.
+     * @return The encoded GIF. Returns null if the image is not a GIF or could not be retrieved.
+     * @see GifAnimation
+     */
+    public byte[] getEncodedGif(URL url) {
+        String urlKey = url.toString();
+        String contentHash = urlToContent.get(urlKey);
+        if (contentHash == null) {
+            if (getImage(url) == null) {
+                return null;
+            }
+            contentHash = urlToContent.get(urlKey);
+        }
+        return gifContent.contains(contentHash) ? readBlob(contentHash) : null;
+    }
+
+
+    /**
+     * @return Number of requests served from the in-memory tier.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+
+    /**
+     * @return Number of requests served from the disk tier after the server confirmed the image was unchanged.
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+
+    /**
+     * @return Number of requests that had to download the image.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+
+    /**
+     * @return Number of decoded images evicted from memory to stay within the memory bound.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+
+    /**
+     * @return Number of bytes of decoded pixel data currently held in memory.
+     */
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+
+    /**
+     * Gets a decoded image from memory and marks it as most recently used.
+     * @param contentHash Hash of the encoded image.
+     * @return The decoded image, or null if it is not held in memory.
+     */
+    private synchronized BufferedImage getFromMemory(String contentHash) {
+        return memory.get(contentHash);
+    }
+
+
+    /**
+     * Adds a decoded image to memory, evicting least recently used images until the memory bound is met. Images
+     * larger than the whole bound are not kept.
+     * @param contentHash Hash of the encoded image.
+     * @param image The decoded image.
+     */
+    private synchronized void putInMemory(String contentHash, BufferedImage image) {
+        long size = getPixelBytes(image);
+        if (size > maxMemoryBytes) {
+            return;
+        }
+        BufferedImage previous = memory.put(contentHash, image);
+        if (previous != null) {
+            memoryBytes -= getPixelBytes(previous);
+        }
+        memoryBytes += size;
+
+        Iterator<Map.Entry<String, BufferedImage>> eldest = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            Map.Entry<String, BufferedImage> entry = eldest.next();
+            if (entry.getKey().equals(contentHash)) {
+                continue;
+            }
+            memoryBytes -= getPixelBytes(entry.getValue());
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * Decodes an image and stores it in memory against its content hash.
+     * @param urlKey URL the image was retrieved from.
+     * @param contentHash Hash of the encoded image.
+     * @param bytes The encoded image.
+     * @return The decoded image. Returns null if the bytes could not be decoded.
+     */
+    private BufferedImage decodeAndRemember(String urlKey, String contentHash, byte[] bytes) {
+        urlToContent.put(urlKey, contentHash);
+        if (GifAnimation.isGif(bytes)) {
+            gifContent.add(contentHash);
+        }
+        // Another URL may already have brought the same content into memory
+        BufferedImage image = getFromMemory(contentHash);
+        if (image != null) {
+            return image;
+        }
+        try {
+            image = ImageIO.read(new ByteArrayInputStream(bytes));
+        } catch (IOException e) {
+            image = null;
+        }
+        if (image == null) {
+            System.err.println("Unable to decode image from url:\n" + urlKey);
+            return null;
+        }
+        putInMemory(contentHash, image);
+        return image;
+    }
+
+
+    /**
+     * Downloads the image at the specified url. For HTTP URLs the request is made conditional on the validators in
+     * 'meta', which are updated with the validators in the response.
+     * @param url URL to download.
+     * @param meta Stored validators for the URL.
+     * @return The downloaded bytes, or null if the server reported that the stored copy is still current.
+     * @throws IOException If the download failed.
+     */
+    private byte[] download(URL url, Properties meta) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) connection;
+            String etag = meta.getProperty("etag");
+            String lastModified = meta.getProperty("lastModified");
+            boolean haveBlob = meta.getProperty("content") != null;
+            if (haveBlob && etag != null) {
+                http.setRequestProperty("If-None-Match", etag);
+            }
+            if (haveBlob && lastModified != null) {
+                http.setRequestProperty("If-Modified-Since", lastModified);
+            }
+
+            int status = http.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                http.disconnect();
+                return null;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                http.disconnect();
+                throw new IOException("Unexpected response " + status + " from " + url);
+            }
+            setOrRemove(meta, "etag", http.getHeaderField("ETag"));
+            setOrRemove(meta, "lastModified", http.getHeaderField("Last-Modified"));
+        }
+
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+
+    /**
+     * Reads the stored validators and content hash for a URL.
+     * @param urlKey URL to read the metadata for.
+     * @return The stored metadata. Empty if the URL has not been seen before.
+     */
+    private Properties readMeta(String urlKey) {
+        Properties meta = new Properties();
+        Path path = diskDirectory.resolve(sha256(urlKey.getBytes(StandardCharsets.UTF_8)) + ".properties");
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                meta.load(in);
+            } catch (IOException e) {
+                meta.clear();
+            }
+        }
+        return meta;
+    }
+
+
+    /**
+     * Stores the validators and content hash for a URL.
+     * @param urlKey URL to store the metadata for.
+     * @param meta The metadata to store.
+     */
+    private void writeMeta(String urlKey, Properties meta) {
+        Path path = diskDirectory.resolve(sha256(urlKey.getBytes(StandardCharsets.UTF_8)) + ".properties");
+        try {
+            Path temp = Files.createTempFile(diskDirectory, "meta", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                meta.store(out, null);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Unable to write image cache metadata for url:\n" + urlKey);
+        }
+    }
+
+
+    /**
+     * Reads an encoded image from the disk store.
+     * @param contentHash Hash of the encoded image.
+     * @return The encoded image, or null if it is not stored.
+     */
+    private byte[] readBlob(String contentHash) {
+        if (contentHash == null) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(diskDirectory.resolve(contentHash + ".img"));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Writes an encoded image to the disk store. Content that is already stored is not written again.
+     * @param contentHash Hash of the encoded image.
+     * @param bytes The encoded image.
+     */
+    private void writeBlob(String contentHash, byte[] bytes) {
+        Path path = diskDirectory.resolve(contentHash + ".img");
+        if (Files.exists(path)) {
+            return;
+        }
+        try {
+            Path temp = Files.createTempFile(diskDirectory, "blob", ".tmp");
+            Files.write(temp, bytes);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Unable to write image to cache: " + path);
+        }
+    }
+
+
+    /**
+     * Sets a property, or removes it if the value is null.
+     */
+    private static void setOrRemove(Properties properties, String key, String value) {
+        if (value == null) {
+            properties.remove(key);
+        } else {
+            properties.setProperty(key, value);
+        }
+    }
+
+
+    /**
+     * Finds the number of bytes used by the pixel data of an image.
+     * @param image Image to measure.
+     * @return Size of the image raster in bytes.
+     */
+    static long getPixelBytes(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        long elementBytes = DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+        return (long) buffer.getSize() * buffer.getNumBanks() * Math.max(1, elementBytes);
+    }
+
+
+    /**
+     * Hashes bytes with SHA-256.
+     * @param bytes Bytes to hash.
+     * @return Lowercase hex string of the hash.
+     */
+    static String sha256(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
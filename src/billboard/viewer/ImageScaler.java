@@ -0,0 +1,221 @@
+package billboard.viewer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Scales billboard pictures to the size they are drawn at, ahead of time and off the event dispatch thread. Large
+ * reductions are done progressively, halving the image with bilinear interpolation until it is within a factor of two
+ * of the target, which gives smooth results far faster than Image.SCALE_SMOOTH. The result is created in the format of
+ * the screen, so painting it is a straight copy.
+ * <p>
+ * Scaled images are cached per source image and target size, bounded by the bytes of pixel data held.
+ */
+public class ImageScaler {
+    static private final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    static private ImageScaler sharedScaler;
+
+    private final LinkedHashMap<Key, BufferedImage> scaled = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private long bytes = 0;
+
+    // Statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+
+    /**
+     * Creates an image scaler.
+     * @param maxBytes Maximum number of bytes of scaled pixel data to cache.
+     */
+    public ImageScaler(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+
+    /**
+     * @return The scaler shared by the viewer.
+     */
+    public static synchronized ImageScaler getShared() {
+        if (sharedScaler == null) {
+            sharedScaler = new ImageScaler(DEFAULT_MAX_BYTES);
+        }
+        return sharedScaler;
+    }
+
+
+    /**
+     * Gets an image scaled to the given size, from the cache if it has been scaled to that size before.
+     * @param source Image to scale. It must be fully loaded.
+     * @param size Size to scale to.
+     * @return The scaled image, in a format compatible with the screen.
+     */
+    public BufferedImage getScaled(Image source, Dimension size) {
+        Key key = new Key(source, Math.max(1, size.width), Math.max(1, size.height));
+        synchronized (this) {
+            BufferedImage image = scaled.get(key);
+            if (image != null) {
+                hits.incrementAndGet();
+                return image;
+            }
+        }
+        misses.incrementAndGet();
+        BufferedImage image = scale(source, key.width, key.height);
+        put(key, image);
+        return image;
+    }
+
+
+    /**
+     * @return Number of requests served from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+
+    /**
+     * @return Number of requests that had to scale the image.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+
+    /**
+     * Adds a scaled image to the cache, evicting least recently used images until the byte bound is met.
+     */
+    private synchronized void put(Key key, BufferedImage image) {
+        long size = ImageCache.getPixelBytes(image);
+        if (size > maxBytes) {
+            return;
+        }
+        BufferedImage previous = scaled.put(key, image);
+        if (previous != null) {
+            bytes -= ImageCache.getPixelBytes(previous);
+        }
+        bytes += size;
+
+        Iterator<Map.Entry<Key, BufferedImage>> eldest = scaled.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<Key, BufferedImage> entry = eldest.next();
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            bytes -= ImageCache.getPixelBytes(entry.getValue());
+            eldest.remove();
+        }
+    }
+
+
+    /**
+     * Scales an image to the given size.
+     * @param source Image to scale.
+     * @param width Target width.
+     * @param height Target height.
+     * @return The scaled image, in a format compatible with the screen.
+     */
+    static BufferedImage scale(Image source, int width, int height) {
+        int transparency = getTransparency(source);
+        Image current = source;
+        int currentWidth = source.getWidth(null);
+        int currentHeight = source.getHeight(null);
+
+        // Halve the image until it is within a factor of two of the target, so bilinear sampling never skips pixels
+        while (currentWidth / 2 >= width && currentHeight / 2 >= height) {
+            currentWidth /= 2;
+            currentHeight /= 2;
+            current = draw(current, currentWidth, currentHeight, transparency,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+
+        // Final step to the exact size. Enlarging uses bicubic interpolation, as there are no pixels to lose.
+        Object interpolation = width > currentWidth || height > currentHeight ?
+                RenderingHints.VALUE_INTERPOLATION_BICUBIC : RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+        return draw(current, width, height, transparency, interpolation);
+    }
+
+
+    /**
+     * Draws an image into a new screen-compatible image of the given size.
+     */
+    private static BufferedImage draw(Image source, int width, int height, int transparency, Object interpolation) {
+        BufferedImage target = createCompatibleImage(width, height, transparency);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+
+    /**
+     * Creates an image in the pixel format of the default screen, or a plain ARGB image when there is no screen.
+     */
+    static BufferedImage createCompatibleImage(int width, int height, int transparency) {
+        if (!GraphicsEnvironment.isHeadless()) {
+            GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration();
+            return gc.createCompatibleImage(width, height, transparency);
+        }
+        int type = transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        return new BufferedImage(width, height, type);
+    }
+
+
+    private static int getTransparency(Image image) {
+        if (image instanceof Transparency) {
+            return ((Transparency) image).getTransparency();
+        }
+        return Transparency.TRANSLUCENT;
+    }
+
+
+    /**
+     * Identifies a scaled image by the source image instance and target size. The source is only weakly referenced, so
+     * the cache does not keep full-size pictures alive; entries whose source has been collected can never be matched
+     * again and age out of the cache.
+     */
+    private static class Key {
+        private final WeakReference<Image> source;
+        private final int sourceHash;
+        private final int width;
+        private final int height;
+
+        Key(Image source, int width, int height) {
+            this.source = new WeakReference<>(source);
+            this.sourceHash = System.identityHashCode(source);
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            Image image = source.get();
+            return image != null && image == other.source.get() && width == other.width && height == other.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * sourceHash + width) + height;
+        }
+    }
+}
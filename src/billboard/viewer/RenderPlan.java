@@ -0,0 +1,179 @@
+package billboard.viewer;
+
+import java.awt.*;
+
+
+/**
+ * The immutable render plan of a billboard at a particular display size: the size of each component, the fonts the
+ * text is drawn with and the bounds the picture is scaled into. A plan depends only on the billboard text, whether it
+ * has a picture, and the display size, so it is computed once per combination and shared through RenderPlanCache.
+ * Billboards redisplayed in rotation, or shown on many screens of the same resolution, skip font measurement entirely.
+ * @see RenderPlanCache
+ */
+public class RenderPlan {
+    // Which components the billboard has. The content itself is not kept, as it may hold a large embedded picture.
+    private final boolean hasMessage;
+    private final boolean hasPicture;
+    private final boolean hasInformation;
+    private final Dimension displaySize;
+    private final Dimension messageSize;
+    private final Dimension pictureSize;
+    private final Dimension pictureBoundary;
+    private final Dimension infoSize;
+    private final Font messageFont;
+    private final Font infoFont;
+
+
+    /**
+     * Computes the render plan of a billboard. Use RenderPlanCache.get rather than calling this directly, so that
+     * plans are shared.
+     * @param content The billboard content.
+     * @param displaySize Size of the display the billboard will fill.
+     */
+    RenderPlan(BillboardContent content, Dimension displaySize) {
+        this.displaySize = new Dimension(displaySize);
+        hasMessage = content.hasMessage();
+        hasPicture = content.hasPicture();
+        hasInformation = content.hasInformation();
+
+        messageSize = hasMessage ? getMessageDimensions() : null;
+        pictureSize = hasPicture ? getPictureDimensions() : null;
+        pictureBoundary = hasPicture ? getPictureImageDimensions() : null;
+        infoSize = hasInformation ? getInfoDimensions() : null;
+
+        messageFont = hasMessage ? FontFitter.fitSingleLine(content.getMessage(), messageSize) : null;
+        int maxInfoFontSize = messageFont == null ? -1 : messageFont.getSize() - 1;
+        infoFont = hasInformation ?
+                FontFitter.fitMultiline(content.getInformation(), infoSize, maxInfoFontSize) : null;
+    }
+
+
+    public Dimension getDisplaySize() {
+        return new Dimension(displaySize);
+    }
+
+    /**
+     * @return Size of the message component, or null if there is no message.
+     */
+    public Dimension getMessageSize() {
+        return messageSize == null ? null : new Dimension(messageSize);
+    }
+
+    /**
+     * @return Size of the picture component, or null if there is no picture.
+     */
+    public Dimension getPictureSize() {
+        return pictureSize == null ? null : new Dimension(pictureSize);
+    }
+
+    /**
+     * @return Size of the information component, or null if there is no information.
+     */
+    public Dimension getInfoSize() {
+        return infoSize == null ? null : new Dimension(infoSize);
+    }
+
+    public Font getMessageFont() {
+        return messageFont;
+    }
+
+    public Font getInfoFont() {
+        return infoFont;
+    }
+
+
+    /**
+     * Gets the size a picture should be drawn at so it fits its bounds with its aspect ratio kept.
+     * @param imageSize Size of the source picture.
+     * @return The scaled picture size, or null if the billboard has no picture.
+     */
+    public Dimension getScaledImageSize(Dimension imageSize) {
+        return pictureBoundary == null ? null : scaleImageDimensions(pictureBoundary, imageSize);
+    }
+
+
+    /**
+     * Gets the dimensions in pixels for the billboard message component, based on what other components will be on the
+     * billboard.
+     * @return The dimensions of the message component.
+     */
+    private Dimension getMessageDimensions() {
+        if (!hasPicture && !hasInformation) {
+            return new Dimension(displaySize.width, displaySize.height);
+        }
+        if (!hasPicture) {   //Implies that the information component is not null
+            return new Dimension(displaySize.width, displaySize.height/2);
+        }
+        return new Dimension(displaySize.width, displaySize.height/3);
+    }
+
+
+    /**
+     * Gets the dimensions in pixels for the billboard picture component, based on what other components will be on the
+     * billboard.
+     * @return The dimensions of the image component.
+     */
+    private Dimension getPictureDimensions() {
+        if (!hasMessage && !hasInformation) {
+            return new Dimension(displaySize.width, displaySize.height);
+        }
+        if (!hasMessage || !hasInformation) {
+            return new Dimension(displaySize.width, 2*displaySize.height/3);
+        }
+        return new Dimension(displaySize.width, displaySize.height/3);
+    }
+
+
+    /**
+     * Gets the boundary dimensions in pixels for the image that goes in the billboard picture component. The image
+     * should fit inside these bounds.
+     * @return The bounding dimensions the image should fit within.
+     */
+    private Dimension getPictureImageDimensions() {
+        if (hasMessage && hasInformation) {
+            return new Dimension(displaySize.width/3, displaySize.height/3);
+        }
+        return new Dimension(displaySize.width/2, displaySize.height/2);
+    }
+
+
+    /**
+     * Gets the dimensions in pixels for the billboard information component, based on what other components will be on
+     * the billboard.
+     * @return The dimensions of the information component.
+     */
+    private Dimension getInfoDimensions() {
+        if (!hasMessage && !hasPicture) {
+            return new Dimension((int) (displaySize.width*0.75), displaySize.height/2);
+        }
+        if (!hasPicture) {   //Implies that the message component is not null
+            return new Dimension((int) (displaySize.width*0.75), displaySize.height/2);
+        }
+        return new Dimension((int) (displaySize.width*0.75), displaySize.height/3);
+    }
+
+
+    /**
+     * Finds the dimensions (in pixels) of an image once it has been scaled to fit inside a bounding box of given size.
+     * The new dimensions retain the original aspect ratio.
+     * @param imageBoundarySize The size of the rectangular boundary inside which the image needs to fit.
+     * @param currentImageSize The current image dimensions.
+     * @return The scaled image dimensions with aspect ratio maintained.
+     */
+    static Dimension scaleImageDimensions(Dimension imageBoundarySize, Dimension currentImageSize) {
+        int currentWidth = currentImageSize.width;
+        int currentHeight = currentImageSize.height;
+        int boundaryWidth = imageBoundarySize.width;
+        int boundaryHeight = imageBoundarySize.height;
+
+        int newWidth = boundaryWidth;
+        int newHeight = (newWidth * currentHeight) / currentWidth;
+
+        if (newHeight > boundaryHeight) {
+            newHeight = boundaryHeight;
+            newWidth = (newHeight * currentWidth) / currentHeight;
+        }
+
+        return new Dimension(newWidth, newHeight);
+    }
+}
@@ -0,0 +1,134 @@
+package billboard.viewer;
+
+import java.awt.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Least-recently-used cache of render plans, keyed by billboard layout hash and display size. Plans are small, so the
+ * cache is bounded by the number of plans rather than by bytes.
+ * @see RenderPlan
+ */
+public class RenderPlanCache {
+    static private final int DEFAULT_MAX_PLANS = 256;
+
+    static private RenderPlanCache sharedCache;
+
+    private final Map<Key, RenderPlan> plans;
+
+    // Statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+
+    /**
+     * Creates a render plan cache.
+     * @param maxPlans Maximum number of plans to keep.
+     */
+    public RenderPlanCache(int maxPlans) {
+        plans = new LinkedHashMap<Key, RenderPlan>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, RenderPlan> eldest) {
+                return size() > maxPlans;
+            }
+        };
+    }
+
+
+    /**
+     * @return The cache shared by everything that lays out billboards.
+     */
+    public static synchronized RenderPlanCache getShared() {
+        if (sharedCache == null) {
+            sharedCache = new RenderPlanCache(DEFAULT_MAX_PLANS);
+        }
+        return sharedCache;
+    }
+
+
+    /**
+     * Gets the render plan for a billboard at a display size, computing it if it is not already cached. Plans are
+     * computed outside the cache lock, so a slow layout does not hold up lookups for other billboards.
+     * @param content The billboard content.
+     * @param displaySize Size of the display the billboard will fill.
+     * @return The render plan.
+     */
+    public RenderPlan get(BillboardContent content, Dimension displaySize) {
+        Key key = new Key(content.getLayoutHash(), displaySize.width, displaySize.height);
+        synchronized (plans) {
+            RenderPlan plan = plans.get(key);
+            if (plan != null) {
+                hits.incrementAndGet();
+                return plan;
+            }
+        }
+        misses.incrementAndGet();
+        RenderPlan plan = new RenderPlan(content, displaySize);
+        synchronized (plans) {
+            plans.put(key, plan);
+        }
+        return plan;
+    }
+
+
+    /**
+     * Computes and caches plans for a billboard at each of the given display sizes, such as the known resolutions of
+     * the viewers it will be shown on.
+     * @param content The billboard content.
+     * @param displaySizes Display sizes to compute plans for.
+     */
+    public void precompute(BillboardContent content, Iterable<Dimension> displaySizes) {
+        for (Dimension displaySize : displaySizes) {
+            get(content, displaySize);
+        }
+    }
+
+
+    /**
+     * @return Number of lookups served from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+
+    /**
+     * @return Number of lookups that had to compute a plan.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+
+    /**
+     * Identifies a plan by layout hash and display size.
+     */
+    private static class Key {
+        private final String layoutHash;
+        private final int width;
+        private final int height;
+
+        Key(String layoutHash, int width, int height) {
+            this.layoutHash = layoutHash;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return width == other.width && height == other.height && layoutHash.equals(other.layoutHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(layoutHash, width, height);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package billboard.viewer;
+
+import billboard.server.BillboardRenderer;
+import billboard.server.FrameReader;
+import billboard.server.FrameWriter;
+import billboard.server.MessageType;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+
+/**
+ * Requests the current billboard from the server already rendered at the size of the screen, for viewers in image
+ * mode. The viewer never parses a billboard, fetches a picture or fits a font; it only shows the image it is sent.
+ * Like BillboardPoller, each request carries the version of the image last received, so an unchanged billboard costs a
+ * "not modified" response.
+ */
+public class RenderedBillboardPoller {
+    static private final int TIMEOUT_MS = 15000;    // Allows for the server rendering a billboard it has not seen
+
+    private final String host;
+    private final int port;
+    private final Dimension size;
+    private final Consumer<BufferedImage> onBillboardChanged;
+    private final ScheduledExecutorService timer;
+    private final FrameWriter writer = new FrameWriter();
+    private final FrameReader reader = new FrameReader();
+    private byte[] version = new byte[0];   // Version of the last image received
+
+
+    /**
+     * Creates a poller for the billboard server.
+     * @param host Host name of the billboard server.
+     * @param port Port of the billboard server.
+     * @param size Size of the images to request.
+     * @param onBillboardChanged Called with the rendered billboard whenever a new one is received. Called from the
+     *                           polling thread.
+     */
+    public RenderedBillboardPoller(String host, int port, Dimension size, Consumer<BufferedImage> onBillboardChanged) {
+        this.host = host;
+        this.port = port;
+        this.size = new Dimension(size);
+        this.onBillboardChanged = onBillboardChanged;
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "billboard-image-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Starts polling. The first request is made straight away.
+     */
+    public void start() {
+        timer.scheduleAtFixedRate(this::poll, 0, BillboardPoller.POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Stops polling.
+     */
+    public void stop() {
+        timer.shutdownNow();
+    }
+
+
+    /**
+     * Polls straight away, for when the server has said the billboard changed.
+     */
+    public void pollNow() {
+        try {
+            timer.execute(this::poll);
+        } catch (RejectedExecutionException ignored) {
+            // Stopped
+        }
+    }
+
+
+    /**
+     * Makes a single request for the current billboard, calling the listener if it has changed. If the server cannot
+     * be reached the current billboard stays on screen.
+     */
+    void poll() {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT_MS);
+            socket.setSoTimeout(TIMEOUT_MS);
+
+            writer.begin(MessageType.RENDER_BILLBOARD).putString("").putInt(size.width).putInt(size.height)
+                    .putInt(BillboardRenderer.FORMAT_PNG).putBytes(version);
+            writer.writeTo(new BufferedOutputStream(socket.getOutputStream()));
+
+            MessageType response = reader.read(new BufferedInputStream(socket.getInputStream()));
+            if (response == MessageType.OK) {
+                byte[] newVersion = reader.getBytes();
+                reader.getInt();    // Format, width and height are as requested
+                reader.getInt();
+                reader.getInt();
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(reader.getBytes()));
+                if (image == null) {
+                    System.err.println("Unable to decode the billboard image sent by the server.");
+                    return;
+                }
+                version = newVersion;
+                onBillboardChanged.accept(image);
+            } else if (response == MessageType.BUSY) {
+                System.err.println("Billboard server is busy, will retry on the next poll.");
+            } else if (response == MessageType.ERROR) {
+                System.err.println("Server could not render the current billboard: " + reader.getString());
+            } else if (response != MessageType.NOT_MODIFIED) {
+                System.err.println("Server could not render the current billboard.");
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to reach billboard server at " + host + ":" + port);
+        } catch (RuntimeException e) {
+            // Keep the timer alive; an exception would cancel all future polls
+            System.err.println("Billboard poll failed: " + e);
+        }
+    }
+}
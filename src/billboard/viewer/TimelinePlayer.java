@@ -0,0 +1,515 @@
+package billboard.viewer;
+
+import billboard.server.FrameReader;
+import billboard.server.FrameWriter;
+import billboard.server.MessageType;
+import billboard.server.Protocol;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+
+/**
+ * Plays the schedule locally from a timeline sent ahead of time by the server. The timeline lists which billboard to
+ * show over the coming hours, and every billboard in it, with any picture stored as a blob, is fetched as soon as the
+ * timeline arrives, so the viewer switches billboards on its own timer exactly at each boundary instead of waiting for
+ * its next poll. Each billboard is also handed over to be prepared PREPARE_AHEAD_MS before its boundary, so that
+ * parsing it and laying it out does not delay the switch. If the server becomes unreachable the viewer carries on
+ * through the timeline it holds. The timeline and its billboards are also saved to disk, so a viewer restarted during
+ * an outage picks up where it left off.
+ * <p>
+ * The timeline is checked for changes every SYNC_INTERVAL_SECONDS with its version token, so an unchanged schedule
+ * costs a "not modified" response, and straight away when the server pushes a change. Syncing runs on a thread of its
+ * own, apart from the timer that switches billboards, so a slow server never delays a switch. If the server says it is
+ * not following a schedule, the fallback is run instead; any other failure is retried on the next sync.
+ */
+public class TimelinePlayer {
+    static public final long SYNC_INTERVAL_SECONDS = 60;
+    static private final int TIMEOUT_MS = 5000;
+    static private final long PREPARE_AHEAD_MS = 5000;
+    static private final int MAX_CACHED_BILLBOARDS = 256;
+    static private final int CACHE_FORMAT = 1;
+    static private final String CACHE_PATH = System.getProperty("billboard.timelineCache",
+            Paths.get(System.getProperty("java.io.tmpdir"), "billboard-timeline.dat").toString());
+
+    private final String host;
+    private final int port;
+    private final Consumer<String> onBillboardChanged;
+    private final Consumer<String> onBillboardDue;
+    private final Runnable fallback;
+    private final Path cacheFile = Paths.get(CACHE_PATH);
+    private final ScheduledExecutorService timer;       // Switches billboards at the boundaries
+    private final ScheduledExecutorService syncer;      // Fetches the timeline and billboards
+    private final FrameWriter writer = new FrameWriter();
+    private final FrameReader reader = new FrameReader();
+
+    // Only changed on the sync thread; read by the timer thread
+    private byte[] version = new byte[0];   // Version token of the timeline held
+    private volatile Timeline timeline = new Timeline(0, Collections.emptyList());
+    // XML by content hash. Guarded by itself
+    private final Map<String, String> billboards = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Only used on the timer thread
+    private String showingHash;             // Content hash of the billboard on screen
+    private ScheduledFuture<?> nextSwitch;
+    private ScheduledFuture<?> nextPrepare;
+
+
+    /**
+     * Creates a timeline player for the billboard server.
+     * @param host Host name of the billboard server.
+     * @param port Port of the billboard server.
+     * @param onBillboardChanged Called with the billboard XML whenever a different billboard is due to be shown.
+     *                           Called from the timer thread.
+     * @param onBillboardDue Called with the billboard XML shortly before onBillboardChanged will be called with it, so
+     *                       it can be prepared ahead. Called from the timer thread. May be null.
+     * @param fallback Run once, instead of playing, if the server is not following a schedule. Called from the sync
+     *                 thread. May be null.
+     */
+    public TimelinePlayer(String host, int port, Consumer<String> onBillboardChanged, Consumer<String> onBillboardDue,
+                          Runnable fallback) {
+        this.host = host;
+        this.port = port;
+        this.onBillboardChanged = onBillboardChanged;
+        this.onBillboardDue = onBillboardDue;
+        this.fallback = fallback;
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "billboard-timeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "billboard-timeline-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Starts playing the timeline saved by the last run, if there is one, then fetches the current timeline.
+     */
+    public void start() {
+        syncer.execute(this::loadCache);
+        syncer.scheduleWithFixedDelay(this::sync, 0, SYNC_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Stops playing.
+     */
+    public void stop() {
+        syncer.shutdownNow();
+        timer.shutdownNow();
+    }
+
+
+    /**
+     * Checks for a new timeline straight away, for when the server has said the schedule changed.
+     */
+    public void syncNow() {
+        try {
+            syncer.execute(this::sync);
+        } catch (RejectedExecutionException ignored) {
+            // Stopped, or fell back to polling
+        }
+    }
+
+
+    /**
+     * @return True until the player is stopped or falls back to polling.
+     */
+    public boolean isPlaying() {
+        return !syncer.isShutdown();
+    }
+
+
+    /**
+     * Fetches the timeline if it has changed, fetches any billboards in it that are not held, then switches to what
+     * should be showing now. If the server cannot be reached the timeline already held keeps playing. Runs on the sync
+     * thread.
+     */
+    void sync() {
+        try {
+            boolean changed = fetchTimeline();
+            if (syncer.isShutdown()) {
+                return;
+            }
+            boolean fetched = fetchMissingBillboards();
+            if (changed || fetched) {
+                saveCache();
+                schedulePlay();
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to reach billboard server at " + host + ":" + port);
+        } catch (RuntimeException e) {
+            // Keep the timer alive; an exception would cancel all future syncs
+            System.err.println("Timeline sync failed: " + e);
+        }
+    }
+
+
+    /**
+     * Requests the timeline, sending the version held.
+     * @return True if a new timeline was received.
+     * @throws IOException If the server could not be reached or the response was malformed.
+     */
+    private boolean fetchTimeline() throws IOException {
+        try (Socket socket = connect()) {
+            writer.begin(MessageType.GET_TIMELINE).putBytes(version);
+            writer.writeTo(new BufferedOutputStream(socket.getOutputStream()));
+
+            MessageType response = reader.read(new BufferedInputStream(socket.getInputStream()));
+            if (response == MessageType.OK) {
+                byte[] newVersion = reader.getBytes();
+                reader.getLong();   // Start of the window; the segments say all that is needed
+                long newWindowEnd = reader.getLong();
+                int count = reader.getInt();
+                List<Segment> newSegments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    newSegments.add(new Segment(reader.getLong(), reader.getLong(), reader.getString(),
+                            toHex(reader.getBytes())));
+                }
+                version = newVersion;
+                timeline = new Timeline(newWindowEnd, newSegments);
+                return true;
+            } else if (response == MessageType.BUSY) {
+                System.err.println("Billboard server is busy, will retry on the next sync.");
+            } else if (response == MessageType.NOT_SCHEDULED && fallback != null) {
+                // The server has no schedule to give; it still knows the current billboard
+                System.err.println("Server is not following a schedule.");
+                syncer.shutdown();
+                timer.shutdown();
+                fallback.run();
+            } else if (response == MessageType.ERROR) {
+                System.err.println("Server could not provide the timeline, will retry on the next sync: "
+                        + reader.getString());
+            } else if (response != MessageType.NOT_MODIFIED) {
+                System.err.println("Server could not provide the timeline.");
+            }
+            return false;
+        }
+    }
+
+
+    /**
+     * Fetches each billboard in the timeline whose content is not held. A billboard edited since the timeline was
+     * built comes back with a different hash; it is kept anyway, and the next timeline will refer to it.
+     * @return True if any billboard was fetched.
+     * @throws IOException If the server could not be reached or a response was malformed.
+     */
+    private boolean fetchMissingBillboards() throws IOException {
+        Set<String> requested = new HashSet<>();
+        boolean fetched = false;
+        for (Segment segment : timeline.segments) {
+            if (isHeld(segment.contentHash) || !requested.add(segment.billboardName)) {
+                continue;
+            }
+            try (Socket socket = connect()) {
+                writer.begin(MessageType.GET_BILLBOARD).putString(segment.billboardName);
+                writer.writeTo(new BufferedOutputStream(socket.getOutputStream()));
+
+                MessageType response = reader.read(new BufferedInputStream(socket.getInputStream()));
+                if (response == MessageType.OK) {
+                    String hash = toHex(reader.getBytes());
+                    String xml = reader.getString();
+                    remember(hash, xml);
+                    BlobCache.getShared().prefetch(xml);
+                    fetched = true;
+                } else if (response == MessageType.ERROR) {
+                    System.err.println("Server could not provide billboard " + segment.billboardName + ": "
+                            + reader.getString());
+                } else {
+                    System.err.println("Server could not provide billboard " + segment.billboardName);
+                }
+            }
+        }
+        return fetched;
+    }
+
+
+    /**
+     * Has the timer thread switch to what should be showing now under the timeline held.
+     */
+    private void schedulePlay() {
+        try {
+            timer.execute(this::play);
+        } catch (RejectedExecutionException ignored) {
+            // Stopped
+        }
+    }
+
+
+    /**
+     * Shows the billboard that should be showing now, if it is held and is not already showing, then sets the timer
+     * for the next boundary, and for preparing the billboard due then. Between segments, and after the end of the
+     * window, the billboard on screen stays. Runs on the timer thread.
+     */
+    private void play() {
+        if (nextSwitch != null) {
+            nextSwitch.cancel(false);
+            nextSwitch = null;
+        }
+        if (nextPrepare != null) {
+            nextPrepare.cancel(false);
+            nextPrepare = null;
+        }
+        Timeline playing = timeline;
+        long now = System.currentTimeMillis();
+        long nextBoundary = Long.MAX_VALUE;
+        for (Segment segment : playing.segments) {
+            if (now < segment.start) {
+                nextBoundary = segment.start;
+                break;
+            }
+            if (now < segment.end) {
+                show(segment);
+                nextBoundary = segment.end;
+                break;
+            }
+        }
+        if (nextBoundary > playing.windowEnd || timer.isShutdown()) {
+            return;
+        }
+        // Showing may have taken a while, so the delay is measured from the time now
+        long delay = Math.max(0, nextBoundary - System.currentTimeMillis());
+        nextSwitch = timer.schedule(this::play, delay, TimeUnit.MILLISECONDS);
+        Segment due = segmentAt(playing, nextBoundary);
+        if (onBillboardDue != null && due != null && !due.contentHash.equals(showingHash)) {
+            nextPrepare = timer.schedule(() -> prepare(due), Math.max(0, delay - PREPARE_AHEAD_MS),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    /**
+     * @return The segment showing at the given time, or null if there is none.
+     */
+    private static Segment segmentAt(Timeline timeline, long time) {
+        for (Segment segment : timeline.segments) {
+            if (time < segment.start) {
+                return null;
+            }
+            if (time < segment.end) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+
+    private void prepare(Segment segment) {
+        String xml = getHeld(segment.contentHash);
+        if (xml == null) {
+            return;
+        }
+        try {
+            onBillboardDue.accept(xml);
+        } catch (RuntimeException e) {
+            System.err.println("Unable to prepare billboard " + segment.billboardName + ": " + e);
+        }
+    }
+
+
+    private void show(Segment segment) {
+        String xml = getHeld(segment.contentHash);
+        if (xml == null || segment.contentHash.equals(showingHash)) {
+            return;
+        }
+        showingHash = segment.contentHash;
+        try {
+            onBillboardChanged.accept(xml);
+        } catch (RuntimeException e) {
+            System.err.println("Unable to show billboard " + segment.billboardName + ": " + e);
+        }
+    }
+
+
+    private boolean isHeld(String hash) {
+        synchronized (billboards) {
+            return billboards.containsKey(hash);
+        }
+    }
+
+
+    private String getHeld(String hash) {
+        synchronized (billboards) {
+            return billboards.get(hash);
+        }
+    }
+
+
+    private void remember(String hash, String xml) {
+        synchronized (billboards) {
+            billboards.put(hash, xml);
+            if (billboards.size() > MAX_CACHED_BILLBOARDS) {
+                Iterator<String> eldest = billboards.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT_MS);
+            socket.setSoTimeout(TIMEOUT_MS);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+
+    /**
+     * Saves the timeline and the billboards it refers to. The file is written beside the cache file then moved over
+     * it, so a viewer stopped part way through writing still finds the previous copy.
+     */
+    private void saveCache() {
+        Path temporary = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary)))) {
+            out.writeInt(CACHE_FORMAT);
+            Timeline saved = timeline;
+            writeBytes(out, version);
+            out.writeLong(saved.windowEnd);
+            out.writeInt(saved.segments.size());
+            Map<String, String> referenced = new LinkedHashMap<>();
+            for (Segment segment : saved.segments) {
+                out.writeLong(segment.start);
+                out.writeLong(segment.end);
+                out.writeUTF(segment.billboardName);
+                out.writeUTF(segment.contentHash);
+                String xml;
+                synchronized (billboards) {
+                    xml = billboards.get(segment.contentHash);
+                }
+                if (xml != null) {
+                    referenced.put(segment.contentHash, xml);
+                }
+            }
+            out.writeInt(referenced.size());
+            for (Map.Entry<String, String> entry : referenced.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeBytes(out, entry.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to save the timeline to " + temporary + ": " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Unable to save the timeline to " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Loads the timeline saved by the last run and starts playing it, unless the window it covers is over.
+     */
+    private void loadCache() {
+        if (!Files.isRegularFile(cacheFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            if (in.readInt() != CACHE_FORMAT) {
+                return;
+            }
+            byte[] savedVersion = readBytes(in);
+            long savedWindowEnd = in.readLong();
+            if (savedWindowEnd <= System.currentTimeMillis()) {
+                return;
+            }
+            int count = in.readInt();
+            List<Segment> savedSegments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                savedSegments.add(new Segment(in.readLong(), in.readLong(), in.readUTF(), in.readUTF()));
+            }
+            int billboardCount = in.readInt();
+            for (int i = 0; i < billboardCount; i++) {
+                remember(in.readUTF(), new String(readBytes(in), StandardCharsets.UTF_8));
+            }
+            version = savedVersion;
+            timeline = new Timeline(savedWindowEnd, savedSegments);
+        } catch (IOException e) {
+            System.err.println("Unable to read the saved timeline " + cacheFile + ": " + e.getMessage());
+            return;
+        }
+        schedulePlay();
+    }
+
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > Protocol.MAX_PAYLOAD_SIZE) {
+            throw new IOException("Corrupt field length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+
+    /**
+     * The segments of a timeline and the end of the window they cover, replaced together when a new timeline arrives.
+     */
+    private static class Timeline {
+        private final long windowEnd;
+        private final List<Segment> segments;
+
+        Timeline(long windowEnd, List<Segment> segments) {
+            this.windowEnd = windowEnd;
+            this.segments = segments;
+        }
+    }
+
+
+    /**
+     * A span of the timeline showing one billboard.
+     */
+    private static class Segment {
+        private final long start;
+        private final long end;
+        private final String billboardName;
+        private final String contentHash;
+
+        Segment(long start, long end, String billboardName, String contentHash) {
+            this.start = start;
+            this.end = end;
+            this.billboardName = billboardName;
+            this.contentHash = contentHash;
+        }
+    }
+}
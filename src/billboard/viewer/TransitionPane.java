@@ -0,0 +1,133 @@
+package billboard.viewer;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+
+/**
+ * Glass pane that cross-fades from a snapshot of the outgoing billboard to a snapshot of the incoming one. The incoming
+ * billboard is painted off-screen before the fade starts, and the real component is swapped in underneath while the
+ * pane covers it, so neither the swap nor the new component's first paint is ever visible. Must be used on the event
+ * dispatch thread.
+ * @see BillboardFrame
+ */
+class TransitionPane extends JComponent {
+    private final BillboardTransition transition;
+    private final CellRendererPane rendererPane = new CellRendererPane();
+    private final Timer timer;
+    private BufferedImage outgoing;
+    private BufferedImage incoming;
+
+
+    /**
+     * Creates a transition pane. It stays hidden until a fade is started.
+     * @param transition Timing of the fades.
+     */
+    TransitionPane(BillboardTransition transition) {
+        this.transition = transition;
+        add(rendererPane);
+        setVisible(false);
+        timer = new Timer(transition.getFrameInterval(), e -> step());
+        timer.setCoalesce(true);
+    }
+
+
+    /**
+     * Paints a billboard off-screen exactly as it will appear once shown.
+     * @param billboard The billboard to paint. It is laid out at its preferred size.
+     * @return The painted billboard.
+     */
+    BufferedImage snapshot(JComponent billboard) {
+        Dimension size = billboard.getPreferredSize();
+        BufferedImage image = ImageScaler.createCompatibleImage(size.width, size.height, Transparency.OPAQUE);
+        Graphics2D g = image.createGraphics();
+        try {
+            rendererPane.paintComponent(g, billboard, this, 0, 0, size.width, size.height, true);
+        } finally {
+            g.dispose();
+        }
+        rendererPane.remove(billboard);
+        return image;
+    }
+
+
+    /**
+     * Paints what is on screen into an image: the billboard being shown, or if a fade is still running, the blend
+     * the fade has reached, so a new fade starts from exactly what the viewer sees.
+     * @param billboard The billboard being shown, underneath any fade.
+     * @return The painted billboard or blend.
+     */
+    BufferedImage capture(JComponent billboard) {
+        BufferedImage image = ImageScaler.createCompatibleImage(billboard.getWidth(), billboard.getHeight(),
+                Transparency.OPAQUE);
+        Graphics2D g = image.createGraphics();
+        try {
+            if (incoming != null) {
+                paintFade(g, transition.getProgress(AnimationTimer.now()));
+            } else {
+                billboard.paint(g);
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+
+    /**
+     * Starts fading between two billboards. Call this before swapping the incoming billboard in underneath.
+     * @param from Snapshot of the billboard currently shown.
+     * @param to Snapshot of the billboard being shown.
+     */
+    void fade(BufferedImage from, BufferedImage to) {
+        outgoing = from;
+        incoming = to;
+        transition.start(AnimationTimer.now());
+        setOpaque(true);
+        setVisible(true);
+        timer.restart();
+    }
+
+
+    /**
+     * Advances the fade, hiding the pane once it is complete.
+     */
+    private void step() {
+        if (transition.isRunning(AnimationTimer.now())) {
+            repaint();
+            return;
+        }
+        timer.stop();
+        transition.finish();
+        outgoing = null;
+        incoming = null;
+        setVisible(false);
+    }
+
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        if (incoming == null) {
+            return;
+        }
+        paintFade(g, transition.getProgress(AnimationTimer.now()));
+        transition.frameDrawn(System.nanoTime());
+    }
+
+
+    /**
+     * Paints the blend of the outgoing and incoming snapshots.
+     * @param progress How far the fade has got, from 0 to 1.
+     */
+    private void paintFade(Graphics g, float progress) {
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            g2.drawImage(incoming, 0, 0, null);
+            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1 - progress));
+            g2.drawImage(outgoing, 0, 0, null);
+        } finally {
+            g2.dispose();
+        }
+    }
+}
@@ -1,15 +1,56 @@
 package billboard.viewer;
 
+import billboard.server.Protocol;
+
+import java.awt.*;
+
 /**
  * Billboard Viewer main.
  * The Billboard Viewer is a non-interactive full-screen GUI application that displays billboard contents. The current
- * billboard to display is requested from the server every 15 seconds.
+ * billboard to display follows a timeline of the schedule sent ahead of time by the server, or is requested from the
+ * server every 15 seconds if the server is not following a schedule. Either way the viewer also subscribes to changes,
+ * so edits show as soon as the server pushes them.
+ * <p>
+ * When the billboard.imageMode system property is true, the viewer instead shows the current billboard rendered by
+ * the server at the size of the screen, for machines too slow to lay billboards out themselves.
  */
 public class Viewer {
+    static private final String IMAGE_MODE_PROPERTY = "billboard.imageMode";
+
     public static void main(String[] args) {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : Protocol.DEFAULT_PORT;
+
+        // Pictures the server stores as blobs are fetched from the same server
+        BlobCache.configure(host, port);
+
         // Create the billboard viewer GUI object
         BillboardFrame billboard = new BillboardFrame();
         
         billboard.setVisible(true);
+
+        if (Boolean.getBoolean(IMAGE_MODE_PROPERTY)) {
+            RenderedBillboardPoller imagePoller = new RenderedBillboardPoller(host, port,
+                    Toolkit.getDefaultToolkit().getScreenSize(), billboard::showBillboardImage);
+            imagePoller.start();
+            new ChangeSubscriber(host, port, changes -> imagePoller.pollNow()).start();
+            return;
+        }
+
+        // Play the schedule locally, or request the current billboard every 15 seconds if there is no schedule
+        BillboardPoller poller = new BillboardPoller(host, port, billboard::showBillboardXml);
+        TimelinePlayer player = new TimelinePlayer(host, port, billboard::showBillboardXml,
+                billboard::prepareBillboardXml, poller::start);
+        player.start();
+
+        // Check straight away whenever the server pushes a change
+        ChangeSubscriber subscriber = new ChangeSubscriber(host, port, changes -> {
+            if (player.isPlaying()) {
+                player.syncNow();
+            } else {
+                poller.pollNow();
+            }
+        });
+        subscriber.start();
     }
 }